@@ -2,12 +2,16 @@ package src;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
 
 import src.nonui.AppController;
+import src.utils.CocoExporter;
+import src.utils.LabelJournal;
+import src.utils.MaskExporter;
 
 /**
  * Launcher for the application. Sets the {@link UIManager.LookAndFeelInfo} of
@@ -16,11 +20,20 @@ import src.nonui.AppController;
 public class ImageLabeller {
 
     /**
-     * The entry point for the application.
+     * The entry point for the application. Normally the application window is opened, and any
+     * arguments are ignored. The collection can instead be exported without opening a window,
+     * with the arguments "--export-coco &lt;collection&gt; &lt;output file&gt;" to export it
+     * in the COCO JSON format, or "--export-masks &lt;collection&gt; &lt;output folder&gt;" to
+     * export a mask of each image. The collection may be given either by name or as the path
+     * of its folder.
      * 
-     * @param argv the arguments to the program, which are ignored
+     * @param argv the arguments to the program
      */
     public static void main(String argv[]) {
+        if (argv.length > 0 && isExportCommand(argv[0])) {
+            System.exit(runCommand(argv));
+        }
+
         setLookAndFeel();
 
         // Folder setup.
@@ -42,6 +55,65 @@ public class ImageLabeller {
         });
     }
 
+    private static boolean isExportCommand(String argument) {
+        return argument.equals("--export-coco") || argument.equals("--export-masks");
+    }
+
+    /**
+     * Runs a command given on the command line, without opening a window.
+     * 
+     * @param argv the arguments to the program
+     * 
+     * @return the exit status
+     */
+    private static int runCommand(String argv[]) {
+        if (argv.length != 3) {
+            System.err.println("Usage: ImageLabeller [--export-coco <collection> <output file>]");
+            System.err.println("       ImageLabeller [--export-masks <collection> "
+                    + "<output folder>]");
+            return 2;
+        }
+
+        File collectionRoot = new File(argv[1]);
+        if (!collectionRoot.isDirectory()) {
+            collectionRoot = new File(System.getProperty("user.home") 
+                    + "/ImageLabeller/Collections/" + argv[1]);
+        }
+        if (!new File(collectionRoot, "images").isDirectory()) {
+            System.err.println("No such collection: " + argv[1]);
+            return 1;
+        }
+
+        // Bring the label files up to date, as opening the collection would.
+        LabelJournal.replay(collectionRoot);
+
+        List<String> failures;
+        try {
+            if (argv[0].equals("--export-coco")) {
+                CocoExporter.Summary summary = 
+                    new CocoExporter(collectionRoot).export(new File(argv[2]));
+                failures = summary.getFailures();
+                System.out.println("Exported " + summary.getImageCount() + " images, " 
+                        + summary.getAnnotationCount() + " labels and " 
+                        + summary.getCategoryCount() + " categories.");
+            } else {
+                MaskExporter.Summary summary = 
+                    new MaskExporter(collectionRoot).export(new File(argv[2]));
+                failures = summary.getFailures();
+                System.out.println("Exported the masks of " + summary.getMaskCount() 
+                        + " images, with " + summary.getLabelCount() + " labels.");
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write " + argv[2] + ": " + e.getMessage());
+            return 1;
+        }
+
+        for (String failure : failures) {
+            System.err.println(failure);
+        }
+        return failures.isEmpty() ? 0 : 1;
+    }
+
     /**
      * Attempts to set the program look and feel to "Nimbus".
      * 
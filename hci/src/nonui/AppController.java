@@ -5,23 +5,32 @@ import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.MouseInfo;
-import java.awt.image.BufferedImage;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
-import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.ToolTipManager;
 
 import src.ui.ImagePanelView;
@@ -32,10 +41,18 @@ import src.ui.TipsDialog;
 import src.ui.TipsDialog.TipType;
 import src.ui.ToolboxPanelView;
 import src.utils.ApplicationIO;
+import src.utils.ApplicationIO.ImportedImage;
 import src.utils.ApplicationIO.LabelParseException;
+import src.utils.CocoExporter;
+import src.utils.CollectionSettings;
+import src.utils.ImageCache;
+import src.utils.ImageStore;
+import src.utils.LabelFormat;
+import src.utils.LabelJournal;
 import src.utils.LabelledImage;
-import src.utils.Point;
+import src.utils.MaskExporter;
 import src.utils.Polygon;
+import src.utils.SettingsStore;
 
 /**
  * Main controller class for the application.
@@ -46,6 +63,12 @@ public class AppController {
     
     private static final String NO_COLLECTION = "Please create or open a collection.";
     private static final String NO_IMAGES = "Please import an image to label.";
+    
+    // The most failed files to list in a single error dialog.
+    private static final int MAX_LISTED_FAILURES = 10;
+
+    // How often the progress of an export is updated.
+    private static final int PROGRESS_INTERVAL_MILLIS = 200;
 
     // The application frame.
     private final JFrame appFrame = new JFrame("Image Labeller");
@@ -63,6 +86,13 @@ public class AppController {
     private final TipsDialog newLabelTip = new TipsDialog(appFrame, this, TipType.CREATED_LABEL);
     private final ThumbnailView thumbnailPanel = new ThumbnailView(this);
     private final JLabel collectionLabel = new JLabel(" ");
+    private final JLabel autosaveLabel = new JLabel(" ");
+    
+    // Saves label edits in the background.
+    private final AutosaveService autosaveService = new AutosaveService(autosaveLabel);
+
+    // Remembers the last collection and image between runs.
+    private final SettingsStore settingsStore = new SettingsStore(MAIN_FOLDER);
 
     // The application state.
     private ApplicationState applicationState = ApplicationState.DEFAULT;
@@ -72,10 +102,23 @@ public class AppController {
     private String currentCollectionName = null;
     private LabelledImage currentImage = null;
     private Map<String, LabelledImage> collectionImages = null;
+    private CollectionSettings collectionSettings = new CollectionSettings();
+    private ImageStore imageStore = null;
+    private BulkImporter bulkImporter = null;
+    private boolean exporting = false;
+    private boolean importingLabels = false;
+    private LabelJournal labelJournal = null;
+    private CollectionWatcher collectionWatcher = null;
 
     public AppController() {
         appFrame.setLayout(new FlowLayout());
-        appFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        appFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        appFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                exit();
+            }
+        });
         
         Font collectionLabelFont = new Font("Serif", Font.PLAIN, 16);
         collectionLabel.setFont(collectionLabelFont);
@@ -84,7 +127,10 @@ public class AppController {
         BorderLayout leftPanelLayout = new BorderLayout();
         leftPanelLayout.setVgap(5);
         leftPanel.setLayout(leftPanelLayout);
-        leftPanel.add(collectionLabel, BorderLayout.NORTH);
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(collectionLabel, BorderLayout.WEST);
+        statusPanel.add(autosaveLabel, BorderLayout.EAST);
+        leftPanel.add(statusPanel, BorderLayout.NORTH);
         leftPanel.add(imagePanel, BorderLayout.CENTER);
         leftPanel.add(thumbnailPanel, BorderLayout.SOUTH);
         
@@ -178,10 +224,15 @@ public class AppController {
             return;
         }
         
+        cancelBulkImport();
         applicationState = ApplicationState.DEFAULT;
         currentCollectionName = newCollectionName;
         currentImage = null;
         collectionImages = new LinkedHashMap<String, LabelledImage>();
+        collectionSettings = new CollectionSettings();
+        imageStore = new ImageStore(newCollectionDir);
+        startAutosave(newCollectionDir);
+        startWatching(newCollectionDir);
         
         // Reset the interface.
         cancelAddingPolygon();
@@ -190,7 +241,7 @@ public class AppController {
         thumbnailPanel.clear();
         setUIComponentsState();
         
-        ApplicationIO.writeToSettingsFile(MAIN_FOLDER, currentCollectionName, "");
+        settingsStore.setLastCollection(currentCollectionName);
     }
 
     /**
@@ -201,10 +252,16 @@ public class AppController {
             return;
         }
         
+        cancelBulkImport();
         applicationState = ApplicationState.DEFAULT;
         currentCollectionName = null;
         currentImage = null;
         collectionImages = null;
+        collectionSettings = new CollectionSettings();
+        imageStore = null;
+        stopWatching();
+        stopAutosave();
+        ImageCache.getSharedCache().clear();
         
         imageController.setImage(null);
         thumbnailPanel.clear();
@@ -213,7 +270,7 @@ public class AppController {
         
         setUIComponentsState();
         
-        ApplicationIO.writeToSettingsFile(MAIN_FOLDER, "", "");
+        settingsStore.setLastCollection(null);
     }
     
     /**
@@ -251,11 +308,19 @@ public class AppController {
             return;
         }
 
+        cancelBulkImport();
         applicationState = ApplicationState.DEFAULT;
         currentCollectionName = openedCollectionName;
-        collectionImages = ApplicationIO.openCollection(
-                new File(MAIN_FOLDER + "/Collections/" + currentCollectionName));
-        currentImage = (collectionImages.size() > 0) ? getLastCollectionImage() : null; 
+        File collectionRoot = new File(MAIN_FOLDER + "/Collections/" + currentCollectionName);
+        List<String> loadFailures = new ArrayList<String>();
+        stopWatching();
+        stopAutosave();
+        collectionImages = ApplicationIO.openCollection(collectionRoot, loadFailures);
+        collectionSettings = CollectionSettings.load(collectionRoot);
+        imageStore = new ImageStore(collectionRoot);
+        startAutosave(collectionRoot);
+        startWatching(collectionRoot);
+        currentImage = getSavedImage();
         cancelAddingPolygon();
 
         thumbnailPanel.setImages(new ArrayList<LabelledImage>(collectionImages.values()));
@@ -266,8 +331,9 @@ public class AppController {
         }
         
         setUIComponentsState();
+        showLoadFailures(loadFailures);
         
-        ApplicationIO.writeToSettingsFile(MAIN_FOLDER, currentCollectionName, "");
+        settingsStore.setLastCollection(currentCollectionName);
     }
 
     /**
@@ -294,48 +360,447 @@ public class AppController {
     }
 
     /**
-     * Saves the current image.
+     * Imports all of the images in a folder of the user's choice, and in any folders inside it,
+     * into the current collection. The images are imported in the background; images whose
+     * names are already in the collection are skipped, and the user is asked what to do with
+     * them at the end.
+     */
+    public void importFolder() {
+        if (currentCollectionName == null || bulkImporter != null) {
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Choose a folder to import");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        int returnValue = chooser.showOpenDialog(appFrame);
+        if (returnValue != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        startBulkImport(Collections.singletonList(chooser.getSelectedFile()), false);
+    }
+
+    /**
+     * Starts importing files into the current collection in the background.
+     * 
+     * @param files the files to import; any folders are searched for images
+     * @param renameConflicts whether to give images whose names are already in the collection
+     *        new names, rather than skipping them
+     */
+    private void startBulkImport(List<File> files, boolean renameConflicts) {
+        bulkImporter = new BulkImporter(appFrame, imageStore, collectionImages.keySet(), 
+                new BulkImporter.ImportListener() {
+            @Override
+            public void imagesImported(List<LabelledImage> images) {
+                addImportedImages(images);
+            }
+
+            @Override
+            public void importFinished(BulkImporter.Summary summary) {
+                bulkImporter = null;
+                setUIComponentsState();
+                showImportSummary(summary);
+            }
+        });
+        bulkImporter.start(files, renameConflicts);
+        setUIComponentsState();
+    }
+
+    /**
+     * Stops any bulk import into the current collection. The images imported so far are kept.
+     */
+    private void cancelBulkImport() {
+        if (bulkImporter != null) {
+            bulkImporter.cancel();
+            bulkImporter = null;
+        }
+    }
+
+    /**
+     * Adds a batch of images from a bulk import to the current collection. Images that are
+     * already in the collection are skipped: the collection watcher can see an imported file
+     * before the import hands it over, and the image it added, which may already have been
+     * opened or labelled, is kept.
+     * 
+     * @param images the imported images
+     */
+    private void addImportedImages(List<LabelledImage> images) {
+        List<LabelledImage> addedImages = new ArrayList<LabelledImage>();
+        for (LabelledImage image : images) {
+            if (collectionImages.containsKey(image.getName())) {
+                continue;
+            }
+            image.setJournal(labelJournal);
+            collectionImages.put(image.getName(), image);
+            addedImages.add(image);
+        }
+        if (addedImages.isEmpty()) {
+            return;
+        }
+        thumbnailPanel.appendImages(addedImages);
+
+        if (currentImage == null) {
+            setCurrentImage(addedImages.get(0).getName());
+        } else {
+            setUIComponentsState();
+        }
+    }
+
+    /**
+     * Tells the user how a bulk import went. If any images were skipped because their names
+     * were taken, the user can choose to import them under new names.
+     * 
+     * @param summary what happened in the import
+     */
+    private void showImportSummary(BulkImporter.Summary summary) {
+        StringBuilder sb = new StringBuilder("<html>");
+        if (summary.wasCancelled()) {
+            sb.append("The import was cancelled.<br />");
+        }
+        sb.append(summary.getImportedCount() + " images were imported");
+        if (summary.getDuplicateCount() > 0) {
+            sb.append(", " + summary.getDuplicateCount() + " of which were already in the "
+                    + "collection under other names");
+        }
+        sb.append(".<br />");
+
+        List<File> failures = summary.getFailures();
+        if (!failures.isEmpty()) {
+            sb.append("<br />These files could not be imported:<br />");
+            appendFileNames(sb, failures);
+        }
+
+        List<File> conflicts = summary.getConflicts();
+        if (conflicts.isEmpty()) {
+            sb.append("</html>");
+            JOptionPane.showMessageDialog(appFrame, sb.toString(), "Import Finished",
+                    failures.isEmpty() 
+                        ? JOptionPane.INFORMATION_MESSAGE 
+                        : JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        sb.append("<br />These images were skipped, as the collection already has images with "
+                + "the same names:<br />");
+        appendFileNames(sb, conflicts);
+        sb.append("</html>");
+
+        String[] options = { "Skip Them", "Import with New Names" };
+        int result = JOptionPane.showOptionDialog(appFrame, sb.toString(), "Import Finished",
+                JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, options, 
+                options[0]);
+        if (result == 1 && currentCollectionName != null) {
+            startBulkImport(conflicts, true);
+        }
+    }
+
+    /**
+     * Lists the names of the first few of some files, so the dialog stays a sensible size.
+     */
+    private static void appendFileNames(StringBuilder sb, List<File> files) {
+        for (int i = 0; i < files.size() && i < MAX_LISTED_FAILURES; i++) {
+            sb.append(files.get(i).getName());
+            sb.append("<br />");
+        }
+        if (files.size() > MAX_LISTED_FAILURES) {
+            sb.append("... and " + (files.size() - MAX_LISTED_FAILURES) + " more.<br />");
+        }
+    }
+
+    /**
+     * Exports the labels of the current collection to a COCO JSON file of the user's choice.
+     * The file is written in the background. Labels that haven't been saved yet are exported
+     * as they are now, without saving them.
+     */
+    public void exportCollection() {
+        if (currentCollectionName == null || exporting) {
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export labels as COCO JSON");
+        chooser.setSelectedFile(new File(currentCollectionName + ".json"));
+        int returnValue = chooser.showSaveDialog(appFrame);
+        if (returnValue != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        final File outputFile = chooser.getSelectedFile();
+        if (outputFile.exists()) {
+            int overwrite = JOptionPane.showConfirmDialog(appFrame, "The file \""
+                    + outputFile.getName() + "\" already exists. Do you want to replace it?",
+                    "Replace File", JOptionPane.YES_NO_OPTION);
+            if (overwrite != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+
+        final Map<String, List<Polygon>> unsavedLabels = copyUnsavedLabels();
+        final CocoExporter exporter = new CocoExporter(
+                new File(MAIN_FOLDER + "/Collections/" + currentCollectionName));
+        exporting = true;
+        setUIComponentsState();
+
+        Thread exportThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CocoExporter.Summary summary = null;
+                try {
+                    summary = exporter.export(outputFile, unsavedLabels);
+                } catch (IOException e) {
+                    System.err.println("Unable to export to " + outputFile.getAbsolutePath());
+                }
+
+                final CocoExporter.Summary exportSummary = summary;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        exporting = false;
+                        setUIComponentsState();
+                        showExportResult(exportSummary);
+                    }
+                });
+            }
+        }, "COCO exporter");
+        exportThread.setDaemon(true);
+        exportThread.start();
+    }
+
+    /**
+     * Tells the user how exporting the collection went.
+     * 
+     * @param summary what was exported, or null if the file couldn't be written
+     */
+    private void showExportResult(CocoExporter.Summary summary) {
+        if (summary == null) {
+            JOptionPane.showMessageDialog(appFrame, "Unable to write the export file.", "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("<html>Exported " + summary.getImageCount() 
+                + " images, " + summary.getAnnotationCount() + " labels and " 
+                + summary.getCategoryCount() + " categories.");
+        List<String> failures = summary.getFailures();
+        if (!failures.isEmpty()) {
+            sb.append("<br /><br />Some files could not be read, and were left out:<br />");
+            appendMessages(sb, failures);
+        }
+        sb.append("</html>");
+
+        JOptionPane.showMessageDialog(appFrame, sb.toString(), "Collection Exported",
+                failures.isEmpty() ? JOptionPane.INFORMATION_MESSAGE 
+                        : JOptionPane.WARNING_MESSAGE);
+    }
+
+    /**
+     * Exports the labels of the current collection as a mask image for each image, into a
+     * folder of the user's choice. The masks are written in the background, and progress is
+     * shown in a dialog from which the export can be cancelled. Labels that haven't been saved
+     * yet are exported as they are now, without saving them.
+     */
+    public void exportMasks() {
+        if (currentCollectionName == null || exporting) {
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Choose a folder to export the masks to");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        int returnValue = chooser.showSaveDialog(appFrame);
+        if (returnValue != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        final File outputDirectory = chooser.getSelectedFile();
+        final Map<String, List<Polygon>> unsavedLabels = copyUnsavedLabels();
+        final MaskExporter exporter = new MaskExporter(
+                new File(MAIN_FOLDER + "/Collections/" + currentCollectionName));
+        exporting = true;
+        setUIComponentsState();
+
+        final ProgressMonitor progressMonitor = new ProgressMonitor(appFrame, 
+                "Exporting label masks...", "Finding images...", 0, 1);
+        final Timer progressTimer = new Timer(PROGRESS_INTERVAL_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (progressMonitor.isCanceled()) {
+                    exporter.cancel();
+                }
+
+                int total = exporter.getImageCount();
+                if (total >= 0) {
+                    int processed = exporter.getProcessedCount();
+                    // The monitor closes itself once the maximum is reached.
+                    progressMonitor.setMaximum(total + 1);
+                    progressMonitor.setProgress(processed);
+                    progressMonitor.setNote("Exported " + processed + " of " + total 
+                            + " images");
+                }
+            }
+        });
+        progressTimer.start();
+
+        Thread exportThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                MaskExporter.Summary summary = null;
+                try {
+                    summary = exporter.export(outputDirectory, unsavedLabels);
+                } catch (IOException e) {
+                    System.err.println("Unable to export to " 
+                            + outputDirectory.getAbsolutePath());
+                }
+
+                final MaskExporter.Summary exportSummary = summary;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressTimer.stop();
+                        progressMonitor.close();
+                        exporting = false;
+                        setUIComponentsState();
+                        showMaskExportResult(exportSummary);
+                    }
+                });
+            }
+        }, "Mask exporter");
+        exportThread.setDaemon(true);
+        exportThread.start();
+    }
+
+    /**
+     * Tells the user how exporting the collection's masks went.
+     * 
+     * @param summary what was exported, or null if the masks' folder couldn't be created
+     */
+    private void showMaskExportResult(MaskExporter.Summary summary) {
+        if (summary == null) {
+            JOptionPane.showMessageDialog(appFrame, "Unable to create the folder for the masks.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("<html>");
+        if (summary.wasCancelled()) {
+            sb.append("The export was cancelled. ");
+        }
+        sb.append("Exported the masks of " + summary.getMaskCount() + " images, with " 
+                + summary.getLabelCount() + " labels.");
+        List<String> failures = summary.getFailures();
+        if (!failures.isEmpty()) {
+            sb.append("<br /><br />Some images could not be exported:<br />");
+            appendMessages(sb, failures);
+        }
+        sb.append("</html>");
+
+        JOptionPane.showMessageDialog(appFrame, sb.toString(), "Masks Exported",
+                failures.isEmpty() ? JOptionPane.INFORMATION_MESSAGE 
+                        : JOptionPane.WARNING_MESSAGE);
+    }
+
+    /**
+     * Copies the labels of the images in the current collection that have been modified since
+     * they were last saved, so that they can be read on another thread.
+     * 
+     * @return the copied labels, keyed by image name
+     */
+    private Map<String, List<Polygon>> copyUnsavedLabels() {
+        Map<String, List<Polygon>> unsavedLabels = new HashMap<String, List<Polygon>>();
+        for (LabelledImage image : collectionImages.values()) {
+            if (image.isModified()) {
+                unsavedLabels.put(image.getName(), image.getLabels());
+            }
+        }
+        return unsavedLabels;
+    }
+
+    /**
+     * Appends messages to an HTML dialog message, a line each. Only the first few are listed,
+     * so the dialog stays a sensible size.
+     */
+    private static void appendMessages(StringBuilder sb, List<String> messages) {
+        for (int i = 0; i < messages.size() && i < MAX_LISTED_FAILURES; i++) {
+            sb.append(messages.get(i));
+            sb.append("<br />");
+        }
+        if (messages.size() > MAX_LISTED_FAILURES) {
+            sb.append("... and " + (messages.size() - MAX_LISTED_FAILURES) + " more.");
+        }
+    }
+
+    /**
+     * Saves the current image. The image is written in the background, and the user is told
+     * once it has been.
      */
     public void saveImage() {
         if (currentImage != null) {
-            try {
-                ApplicationIO.saveImage(MAIN_FOLDER, currentCollectionName, currentImage);
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(appFrame, "Unable to save image.", "Error",
-                        JOptionPane.ERROR_MESSAGE);
-            }
-            JOptionPane.showMessageDialog(appFrame, "The current image was saved.", 
-                    "Images Saved", JOptionPane.INFORMATION_MESSAGE);
+            autosaveService.save(Collections.singletonList(currentImage), false, 
+                    new AutosaveService.SaveListener() {
+                @Override
+                public void saveFinished(int written, int skipped, int failed) {
+                    if (failed > 0) {
+                        JOptionPane.showMessageDialog(appFrame, "Unable to save image.", 
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        JOptionPane.showMessageDialog(appFrame, "The current image was saved.", 
+                                "Images Saved", JOptionPane.INFORMATION_MESSAGE);
+                    }
+                }
+            });
         }
     }
 
     /**
-     * Saves all of the images in the current collection.
+     * Saves all of the images in the current collection whose labels have been modified. The
+     * images are written in the background, and the user is told once they have been.
      */
     public void saveAllImages() {
         if (collectionImages.size() == 0) {
             return;
         }
         
-        boolean savedOkay = true;
-        for (LabelledImage labelledImage : collectionImages.values()) {
-            try {
-                ApplicationIO.saveImage(MAIN_FOLDER, currentCollectionName, labelledImage);
-            } catch (IOException e) {
-                // Just send one warning for multiple failed images.
-                savedOkay = false;   
-            } 
-        }
-        
+        autosaveService.save(collectionImages.values(), true, 
+                new AutosaveService.SaveListener() {
+            @Override
+            public void saveFinished(int written, int skipped, int failed) {
+                showSaveAllResult(failed == 0, written, skipped);
+            }
+        });
+    }
+
+    /**
+     * Tells the user how saving all of the images went.
+     * 
+     * @param savedOkay whether every image that needed saving was saved
+     * @param savedCount the number of images that were written
+     * @param skippedCount the number of unmodified images that were skipped
+     */
+    private void showSaveAllResult(boolean savedOkay, int savedCount, int skippedCount) {
         if (savedOkay) {
-            JOptionPane.showMessageDialog(appFrame, "All images were saved.", "Images Saved",
+            JOptionPane.showMessageDialog(appFrame, "All images were saved (" + savedCount 
+                    + " written, " + skippedCount + " unchanged and skipped).", "Images Saved",
                     JOptionPane.INFORMATION_MESSAGE);
         } else {
             JOptionPane.showMessageDialog(appFrame, "Error while trying to save images. " 
-                    + "Some images may not have been saved.", "Error", JOptionPane.ERROR_MESSAGE);
+                    + "Some images may not have been saved (" + savedCount + " written, " 
+                    + skippedCount + " unchanged and skipped).", "Error", 
+                    JOptionPane.ERROR_MESSAGE);
         }
     }
 
+    /**
+     * Saves any outstanding label edits, then exits the application.
+     */
+    public void exit() {
+        cancelBulkImport();
+        stopWatching();
+        stopAutosave();
+        settingsStore.flush();
+        System.exit(0);
+    }
+
     /**
      * Removes the current image from the collection.
      */
@@ -347,19 +812,27 @@ public class AppController {
         applicationState = ApplicationState.DEFAULT;
         
         LabelledImage removedImage = collectionImages.remove(currentImage.getName());
+        removedImage.releaseImage();
+        removedImage.setJournal(null);
+        labelJournal.recordSetLabels(removedImage.getName(), new ArrayList<Polygon>());
         thumbnailPanel.removeThumbnail(removedImage.getName());
+        imageStore.removeImage(removedImage.getImageFile().getName());
         
+        final String removedName = removedImage.getName();
         File imageFile = new File(MAIN_FOLDER + "/Collections/" + currentCollectionName + 
-                "/images/" + removedImage.getName() + removedImage.getExtension());
-        File labelFile = new File(MAIN_FOLDER + "/Collections/" + currentCollectionName + 
-                "/labels/" + removedImage.getName() + ".labels");
-        if (!imageFile.delete() || !labelFile.delete()) {
-            JOptionPane.showMessageDialog(appFrame, "Error deleting \"" + removedImage.getName()
-                    +"\". You may encounter unexpected behaviour.", "Error", 
-                    JOptionPane.ERROR_MESSAGE);
-            System.err.println("Unable to delete the image or label file for " 
-                    + removedImage.getName());
+                "/images/" + removedName + removedImage.getExtension());
+        if (!imageFile.delete()) {
+            showRemoveImageError(removedName);
+            System.err.println("Unable to delete the image file for " + removedName);
         }
+        // The label files are deleted on the autosave writer, so that a write that was already
+        // queued for the image can't put them back.
+        autosaveService.deleteLabels(removedName, new Runnable() {
+            @Override
+            public void run() {
+                showRemoveImageError(removedName);
+            }
+        });
         
         if (collectionImages.size() > 0) {
             currentImage = getLastCollectionImage();
@@ -372,8 +845,53 @@ public class AppController {
         cancelAddingPolygon();
         
         setUIComponentsState();
-        
-        ApplicationIO.writeToSettingsFile(MAIN_FOLDER, currentCollectionName, "");
+    }
+
+    private void showRemoveImageError(String imageName) {
+        JOptionPane.showMessageDialog(appFrame, "Error deleting \"" + imageName
+                +"\". You may encounter unexpected behaviour.", "Error", 
+                JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Sets whether the current collection saves its labels in the compact binary format
+     * rather than XML. The labels of every image that has any are then rewritten in the new
+     * format in the background, since saving only rewrites images that have been modified.
+     * 
+     * @param compact whether to use the compact format
+     */
+    public void setCompactLabelFormat(boolean compact) {
+        LabelFormat format = compact ? LabelFormat.BINARY : LabelFormat.XML;
+        if (currentCollectionName == null || collectionSettings.getLabelFormat() == format) {
+            return;
+        }
+
+        collectionSettings.setLabelFormat(format);
+        try {
+            collectionSettings.save(new File(MAIN_FOLDER + "/Collections/" 
+                    + currentCollectionName));
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(appFrame, "Unable to save the collection settings.", 
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+
+        // Images without labels have nothing worth converting.
+        List<LabelledImage> labelledImages = new ArrayList<LabelledImage>();
+        for (LabelledImage image : collectionImages.values()) {
+            if (image.labelCount() > 0 || image.isModified()) {
+                labelledImages.add(image);
+            }
+        }
+        autosaveService.save(labelledImages, false, new AutosaveService.SaveListener() {
+            @Override
+            public void saveFinished(int written, int skipped, int failed) {
+                if (failed > 0) {
+                    JOptionPane.showMessageDialog(appFrame, "Unable to convert the labels of " 
+                            + failed + " images to the new format.", "Error", 
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
     }
 
     /**
@@ -461,17 +979,16 @@ public class AppController {
             return;
         }
         
-        imageController.setImage(currentImage.getImage());
+        imageController.setImage(currentImage.getDisplayImage());
         thumbnailPanel.setThumbnailImage(currentImage.getName());
         labelPanel.clear();
-        for (Polygon polygon : currentImage.getLabels()) {
+        for (Polygon polygon : currentImage.getLabelsView()) {
             labelPanel.addLabel(polygon.getName());
         }
 
         cancelAddingPolygon();
         setUIComponentsState();
-        ApplicationIO.writeToSettingsFile(MAIN_FOLDER, currentCollectionName, 
-                currentImage.getName());
+        settingsStore.setLastImage(currentCollectionName, currentImage.getName());
     }
 
     /**
@@ -517,6 +1034,141 @@ public class AppController {
         setUIComponentsState();
     }
 
+    /**
+     * Imports the labels of the images in the current collection from a folder of the user's
+     * choice, such as labels made elsewhere for the whole collection. Label files are matched
+     * to images by name, and parsed in the background. The user is then told what was found,
+     * and if they go ahead, the labels of all of the matched images are replaced at once.
+     */
+    public void importLabelFolder() {
+        if (collectionImages == null || collectionImages.isEmpty() || importingLabels) {
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Choose a folder of label files");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        int returnValue = chooser.showOpenDialog(appFrame);
+        if (returnValue != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        final File folder = chooser.getSelectedFile();
+        final Set<String> imageNames = new HashSet<String>(collectionImages.keySet());
+        final Map<String, LabelledImage> importingInto = collectionImages;
+        importingLabels = true;
+        setUIComponentsState();
+
+        Thread importThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> failures = new ArrayList<String>();
+                final List<File> unmatchedFiles = new ArrayList<File>();
+                Map<String, Map<String, Polygon>> labels = null;
+                try {
+                    labels = ApplicationIO.readLabelFolder(folder, imageNames, failures,
+                            unmatchedFiles);
+                } catch (IOException e) {
+                    System.err.println("Unable to list the folder " + folder.getAbsolutePath());
+                }
+
+                final Map<String, Map<String, Polygon>> importedLabels = labels;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        importingLabels = false;
+                        // Drop the labels if the collection was closed in the meantime.
+                        if (collectionImages == importingInto) {
+                            applyImportedLabels(importedLabels, failures, unmatchedFiles);
+                        }
+                        setUIComponentsState();
+                    }
+                });
+            }
+        }, "Label importer");
+        importThread.setDaemon(true);
+        importThread.start();
+    }
+
+    /**
+     * Tells the user what was found by a label folder import, and replaces the labels of the
+     * matched images if they go ahead.
+     *
+     * @param labels the labels read for each image, keyed by image name, or null if the folder
+     *        couldn't be read
+     * @param failures the messages for the label files that couldn't be parsed
+     * @param unmatchedFiles the label files that matched no image
+     */
+    private void applyImportedLabels(Map<String, Map<String, Polygon>> labels,
+            List<String> failures, List<File> unmatchedFiles) {
+        if (labels == null) {
+            JOptionPane.showMessageDialog(appFrame, "Unable to read the chosen folder.", "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("<html>");
+        sb.append("Labels were found for " + labels.size() + " of the "
+                + collectionImages.size() + " images in the collection.");
+        if (!failures.isEmpty()) {
+            sb.append("<br /><br />" + failures.size() + " label files could not be read:<br />");
+            appendMessages(sb, failures);
+        }
+        if (!unmatchedFiles.isEmpty()) {
+            sb.append("<br /><br />" + unmatchedFiles.size()
+                    + " label files do not match any image:<br />");
+            appendFileNames(sb, unmatchedFiles);
+        }
+
+        if (labels.isEmpty()) {
+            sb.append("</html>");
+            JOptionPane.showMessageDialog(appFrame, sb.toString(), "No Labels Imported",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        sb.append("<br /><br />Replace the labels of these images with the imported labels?");
+        sb.append("</html>");
+        Object[] options = { "Import Labels", "Cancel" };
+        int choice = JOptionPane.showOptionDialog(appFrame, sb.toString(), "Import Labels",
+                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, options,
+                options[0]);
+        if (choice != 0) {
+            return;
+        }
+
+        // Images may have been removed since the folder was read, including by the collection
+        // watcher while the dialog was open, so each one is looked up again.
+        List<String> removedImages = new ArrayList<String>();
+        for (Map.Entry<String, Map<String, Polygon>> entry : labels.entrySet()) {
+            LabelledImage image = collectionImages.get(entry.getKey());
+            if (image == null) {
+                removedImages.add(entry.getKey());
+                continue;
+            }
+            image.setLabels(entry.getValue());
+        }
+
+        if (currentImage != null && labels.containsKey(currentImage.getName())) {
+            cancelAddingPolygon();
+            labelPanel.clear();
+            for (String name : currentImage.getLabelNames()) {
+                labelPanel.addLabel(name);
+            }
+            imagePanel.repaint();
+        }
+
+        if (!removedImages.isEmpty()) {
+            StringBuilder removed = new StringBuilder("<html>");
+            removed.append(removedImages.size() + " images were removed from the collection "
+                    + "before their labels could be imported:<br />");
+            appendMessages(removed, removedImages);
+            removed.append("</html>");
+            JOptionPane.showMessageDialog(appFrame, removed.toString(), "Labels Not Imported",
+                    JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
     /**
      * Called when the "Done" button on the toolbox is clicked.
      */
@@ -593,14 +1245,12 @@ public class AppController {
     }
     
     /**
-     * Returns a list of the points of each completed polygon.
+     * Adds a completed polygon to the current image.
+     * 
+     * @param polygon the polygon to add
      */
-    public List<List<Point>> getCompletedPolygonsPoints() {
-        List<List<Point>> points = new ArrayList<List<Point>>(currentImage.getLabels().size());
-        for (Polygon polygon : currentImage.getLabels()) {
-            points.add(new ArrayList<Point>(polygon.getPoints()));
-        }
-        return points;
+    public void addCompletedPolygon(Polygon polygon) {
+        currentImage.addLabel(polygon);
     }
 
     /**
@@ -713,11 +1363,6 @@ public class AppController {
      * @param imageFile the file to import
      */
     private void importImageFile(File imageFile) {
-        File imagesDirectory = new File(MAIN_FOLDER + "/Collections/" + currentCollectionName + 
-                "/images");
-        File labelsDirectory = new File(MAIN_FOLDER + "/Collections/" + currentCollectionName + 
-                "/labels");
-        
         // Check for filename conflict. If so, prompt user to overwrite, rename,
         // or cancel.
         String importedImageName = ApplicationIO.stripExtension(imageFile.getName());
@@ -743,96 +1388,310 @@ public class AppController {
                 }
             } else {
                 // User choose to overwrite.
-                collectionImages.remove(importedImageName);
+                LabelledImage overwrittenImage = collectionImages.remove(importedImageName);
+                overwrittenImage.releaseImage();
+                overwrittenImage.setJournal(null);
+                labelJournal.recordSetLabels(importedImageName, new ArrayList<Polygon>());
                 thumbnailPanel.removeThumbnail(importedImageName);
-                File labelFile = new File(labelsDirectory.getAbsolutePath() + "/" +
-                        importedImageName + ".labels");
-                if (labelFile.exists()) {
-                    labelFile.delete();
-                }
+                imageStore.removeImage(overwrittenImage.getImageFile().getName());
+                overwrittenImage.getImageFile().delete();
+                // As in removeImage, so that a write already queued for the overwritten image
+                // can't put its labels back.
+                final String overwrittenName = importedImageName;
+                autosaveService.deleteLabels(overwrittenName, new Runnable() {
+                    @Override
+                    public void run() {
+                        showRemoveImageError(overwrittenName);
+                    }
+                });
             }
         }
 
-        // Copy the image into the collection folder.
-        File destFile = new File(imagesDirectory.getAbsolutePath() + "/" + importedImageName + 
-                extension);
+        // Add the image to the collection's image store. If the same image is already in the
+        // collection, it isn't copied again.
+        ImportedImage importedImage;
         try {
-            ApplicationIO.copyFile(imageFile, destFile);
+            importedImage = imageStore.importImage(imageFile, importedImageName + extension);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(appFrame, "Error: Unable to import file.", "Error",
                     JOptionPane.ERROR_MESSAGE);
-            System.err.println("Unable to copy file\"" + imageFile.getAbsolutePath()
-                    + "\" to file \"" + destFile.getAbsolutePath() + "\".");
+            System.err.println("Unable to import image file \"" + imageFile.getAbsolutePath()
+                    + "\" into collection \"" + currentCollectionName + "\".");
             return;
         }
         
-        BufferedImage importedImage;
-        try {
-            importedImage = ImageIO.read(destFile);
-            if (importedImage == null) {
-                throw new IOException();
-            }
-        } catch (IOException e) {
-            // Make sure to clean up the bad file.
-            destFile.delete();
-
-            JOptionPane.showMessageDialog(appFrame, "Error: Unable to import file.", "Error",
-                    JOptionPane.ERROR_MESSAGE);
-            System.err.println("Unable to read image file \"" + destFile.getAbsolutePath() 
-                    + "\".");
-            return;
+        if (importedImage.getDuplicateOf() != null) {
+            JOptionPane.showMessageDialog(appFrame, "\"" + imageFile.getName() + "\" is the "
+                    + "same image as \"" + importedImage.getDuplicateOf() + "\", which is "
+                    + "already in the collection.", "Duplicate Image", 
+                    JOptionPane.INFORMATION_MESSAGE);
         }
         
         applicationState = ApplicationState.DEFAULT;
-        currentImage = new LabelledImage(importedImageName + extension, importedImage);
+        currentImage = importedImage.getImage();
+        currentImage.setJournal(labelJournal);
         collectionImages.put(currentImage.getName(), currentImage);
         
         thumbnailPanel.addImage(currentImage);
-        imageController.setImage(currentImage.getImage());
+        imageController.setImage(currentImage.getDisplayImage());
         labelPanel.clear();
         cancelAddingPolygon();
 
         setUIComponentsState();
 
-        ApplicationIO.writeToSettingsFile(MAIN_FOLDER, currentCollectionName, 
-                currentImage.getName());
+        settingsStore.setLastImage(currentCollectionName, currentImage.getName());
     }
 
     /**
-     * Loads the data from the settings file.
+     * Reopens the collection and image that were open when the application was last closed.
      */
     private void loadSettingsFile() {
-        // Oh what I would do for a Pair class in Java...
-        List<String> collectionInformation = ApplicationIO.loadSettingsFile(MAIN_FOLDER);
-        if (collectionInformation == null) {
-            // Failed to read settings file - just ignore it.
+        String collectionName = settingsStore.getLastCollection();
+        if (collectionName == null) {
             return;
         }
 
-        currentCollectionName = collectionInformation.get(0);
-        File collectionRoot = new File(MAIN_FOLDER + "/Collections/" + currentCollectionName);
-        if (!collectionRoot.exists()) {
-            // Failed to read settings file - just ignore it.
+        File collectionRoot = new File(MAIN_FOLDER + "/Collections/" + collectionName);
+        if (!collectionRoot.isDirectory()) {
+            // The collection has been deleted since - just ignore it.
             return;
         }
         
-        collectionImages = ApplicationIO.openCollection(collectionRoot);
+        currentCollectionName = collectionName;
+        List<String> loadFailures = new ArrayList<String>();
+        collectionImages = ApplicationIO.openCollection(collectionRoot, loadFailures);
+        collectionSettings = CollectionSettings.load(collectionRoot);
+        imageStore = new ImageStore(collectionRoot);
+        startAutosave(collectionRoot);
+        startWatching(collectionRoot);
         thumbnailPanel.setImages(new ArrayList<LabelledImage>(collectionImages.values()));
         
-        currentImage = collectionImages.get(collectionInformation.get(1));
-        // If the settings file didn't specify an image, try and load a default.
-        if (currentImage == null && collectionImages.size() > 0) {
-            currentImage = getLastCollectionImage();
-        }
-        
+        currentImage = getSavedImage();
         if (currentImage != null) {
             setCurrentImage(currentImage.getName());
 
             labelPanel.clear();
-            for (Polygon polygon : currentImage.getLabels()) {
+            for (Polygon polygon : currentImage.getLabelsView()) {
                 labelPanel.addLabel(polygon.getName());
             }
         }
+        
+        showLoadFailures(loadFailures);
+    }
+
+    /**
+     * Returns the image of the current collection that was last open, or a default if it isn't
+     * known, or null if the collection is empty.
+     */
+    private LabelledImage getSavedImage() {
+        String imageName = settingsStore.getLastImage(currentCollectionName);
+        LabelledImage image = (imageName != null) ? collectionImages.get(imageName) : null;
+        if (image == null && collectionImages.size() > 0) {
+            image = getLastCollectionImage();
+        }
+        return image;
+    }
+
+    /**
+     * Starts recording label edits to the journal of the current collection, and saving them
+     * automatically.
+     * 
+     * @param collectionRoot the root directory of the current collection
+     */
+    private void startAutosave(File collectionRoot) {
+        stopAutosave();
+        
+        labelJournal = new LabelJournal(collectionRoot);
+        for (LabelledImage image : collectionImages.values()) {
+            image.setJournal(labelJournal);
+        }
+        autosaveService.start(MAIN_FOLDER, currentCollectionName, collectionImages, 
+                collectionSettings, labelJournal);
+    }
+
+    /**
+     * Saves any outstanding label edits, and stops recording them.
+     */
+    private void stopAutosave() {
+        if (labelJournal != null) {
+            autosaveService.stop();
+            labelJournal = null;
+        }
+    }
+
+    /**
+     * Starts watching the files of the current collection, so that images and label files
+     * added, changed or removed by other programs are picked up while it is open.
+     * 
+     * @param collectionRoot the root directory of the current collection
+     */
+    private void startWatching(File collectionRoot) {
+        stopWatching();
+
+        try {
+            collectionWatcher = new CollectionWatcher(collectionRoot, 
+                    new CollectionWatcher.SyncListener() {
+                @Override
+                public void collectionChanged(CollectionWatcher.Changes changes) {
+                    applyCollectionChanges(changes);
+                }
+            });
+        } catch (IOException e) {
+            // The collection still works, it just won't see changes made by other programs.
+            System.err.println("Unable to watch the collection " + collectionRoot.getName());
+            return;
+        }
+        collectionWatcher.start();
+    }
+
+    private void stopWatching() {
+        if (collectionWatcher != null) {
+            collectionWatcher.close();
+            collectionWatcher = null;
+        }
+    }
+
+    /**
+     * Takes an image whose file was changed by another program out of the image store, in the
+     * background, since the object it was linked to has to be read to check that it wasn't
+     * written over too.
+     * 
+     * @param imageFileName the name of the image's file
+     */
+    private void checkStoredImage(final String imageFileName) {
+        final ImageStore store = imageStore;
+        Thread checkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store.imageFileChanged(imageFileName);
+            }
+        }, "Image store checker");
+        checkThread.setDaemon(true);
+        checkThread.start();
+    }
+
+    /**
+     * Applies changes made to the current collection's files by other programs. Only the
+     * affected images are touched. Changes that the application made itself are recognised
+     * and skipped, and label files are never reloaded over labels with unsaved edits.
+     * 
+     * @param changes the files that changed
+     */
+    private void applyCollectionChanges(CollectionWatcher.Changes changes) {
+        boolean currentImageChanged = false;
+
+        for (File imageFile : changes.getRemovedImages()) {
+            String name = ApplicationIO.stripExtension(imageFile.getName());
+            LabelledImage image = collectionImages.get(name);
+            if (image == null || !image.getImageFile().equals(imageFile) 
+                    || imageFile.exists()) {
+                continue;
+            }
+
+            collectionImages.remove(name);
+            image.releaseImage();
+            image.setJournal(null);
+            labelJournal.recordSetLabels(name, new ArrayList<Polygon>());
+            thumbnailPanel.removeThumbnail(name);
+            imageStore.removeImage(imageFile.getName());
+            if (image == currentImage) {
+                currentImage = null;
+                currentImageChanged = true;
+            }
+        }
+
+        List<LabelledImage> addedImages = new ArrayList<LabelledImage>();
+        for (LabelledImage image : changes.getImages()) {
+            LabelledImage existing = collectionImages.get(image.getName());
+            if (existing == null) {
+                image.setJournal(labelJournal);
+                collectionImages.put(image.getName(), image);
+                addedImages.add(image);
+            } else if (existing.getImageFile().equals(image.getImageFile()) 
+                    && existing.hasImageFileChanged()) {
+                // The image file was replaced. Any unsaved edits are kept.
+                existing.releaseImage();
+                existing.setJournal(null);
+                image.setJournal(labelJournal);
+                if (existing.isModified()) {
+                    image.setLabels(existing.getLabels());
+                }
+                collectionImages.put(image.getName(), image);
+                thumbnailPanel.replaceImage(image);
+                // The file no longer has the contents the store recorded for it.
+                checkStoredImage(image.getImageFile().getName());
+                if (existing == currentImage) {
+                    currentImage = image;
+                    currentImageChanged = true;
+                }
+            } else if (reloadLabels(existing, image.getLabelsMap()) 
+                    && existing == currentImage) {
+                currentImageChanged = true;
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Polygon>> entry : changes.getLabels().entrySet()) {
+            LabelledImage image = collectionImages.get(entry.getKey());
+            if (image != null && reloadLabels(image, entry.getValue()) 
+                    && image == currentImage) {
+                currentImageChanged = true;
+            }
+        }
+
+        if (!addedImages.isEmpty()) {
+            thumbnailPanel.appendImages(addedImages);
+        }
+
+        if (currentImage == null && !collectionImages.isEmpty()) {
+            currentImage = getLastCollectionImage();
+            currentImageChanged = true;
+        }
+        if (currentImageChanged) {
+            if (currentImage != null) {
+                setCurrentImage(currentImage.getName());
+            } else {
+                imageController.setImage(null);
+                labelPanel.disableLabelPanel();
+                cancelAddingPolygon();
+            }
+        }
+        setUIComponentsState();
+    }
+
+    /**
+     * Replaces an image's labels with the ones now in its label file, unless they are the
+     * same or the image has unsaved edits, which will be saved over the file.
+     * 
+     * @param image the image whose label file changed
+     * @param labels the labels in the label file
+     * 
+     * @return whether the labels were replaced
+     */
+    private static boolean reloadLabels(LabelledImage image, Map<String, Polygon> labels) {
+        if (image.isModified() || image.hasSameLabels(labels)) {
+            return false;
+        }
+        image.setSavedLabels(labels);
+        return true;
+    }
+
+    /**
+     * Tells the user about any files that could not be loaded when opening a collection.
+     * 
+     * @param loadFailures the messages for the files that failed to load
+     */
+    private void showLoadFailures(List<String> loadFailures) {
+        if (loadFailures.isEmpty()) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("<html>Some files in the collection could not be "
+                + "loaded:<br />");
+        appendMessages(sb, loadFailures);
+        sb.append("</html>");
+
+        JOptionPane.showMessageDialog(appFrame, sb.toString(), "Error", 
+                JOptionPane.ERROR_MESSAGE);
     }
      
     /**
@@ -856,7 +1715,7 @@ public class AppController {
         boolean collectionOpened = currentCollectionName != null;
         boolean collectionhasImages = collectionImages != null && collectionImages.size() > 0;
         boolean imageOpened = currentImage != null;
-        boolean imageHasLabels = imageOpened && currentImage.getLabels().size() > 0;
+        boolean imageHasLabels = imageOpened && currentImage.labelCount() > 0;
         
         // Main screen components.
         StringBuilder sb = new StringBuilder();
@@ -871,10 +1730,17 @@ public class AppController {
 
         // File menu.
         menuBar.setCloseCollectionEnabled(collectionOpened);
-        menuBar.setImportImageEnabled(collectionOpened);
+        menuBar.setImportImageEnabled(collectionOpened && bulkImporter == null);
+        menuBar.setImportFolderEnabled(collectionOpened && bulkImporter == null);
+        menuBar.setImportLabelFolderEnabled(collectionhasImages && !importingLabels);
+        menuBar.setExportCollectionEnabled(collectionOpened && !exporting);
+        menuBar.setExportMasksEnabled(collectionOpened && !exporting);
         menuBar.setSaveImageEnabled(imageOpened);
         menuBar.setSaveAllImagesEnabled(collectionhasImages);
         menuBar.setRemoveImageEnabled(imageOpened);
+        menuBar.setCompactLabelsEnabled(collectionOpened);
+        menuBar.setCompactLabelsSelected(
+                collectionSettings.getLabelFormat() == LabelFormat.BINARY);
 
         // Edit menu.
         menuBar.setAddPolygonEnabled(imageOpened && applicationState == ApplicationState.DEFAULT);
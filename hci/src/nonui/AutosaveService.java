@@ -0,0 +1,402 @@
+package src.nonui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import src.utils.ApplicationIO;
+import src.utils.CollectionSettings;
+import src.utils.LabelJournal;
+import src.utils.LabelledImage;
+import src.utils.Polygon;
+
+/**
+ * Saves the labels of the current collection in the background. Every few seconds, the labels
+ * of any modified images are copied on the event dispatch thread and written out on a single
+ * background thread, so a burst of edits (such as dragging a vertex) results in at most one
+ * write per image per interval. Explicit saves and the rotating and folding of the label
+ * journal go through the same thread, so label files are always written in the order their
+ * contents were taken.
+ * The label journal's records are also written out on that thread, about once a second, and
+ * the label files of removed images are deleted there, after any writes already queued for
+ * them.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+public class AutosaveService {
+    private static final int AUTOSAVE_INTERVAL_MILLIS = 5000;
+
+    // How often recorded label edits are written to the label journal.
+    private static final int JOURNAL_FLUSH_MILLIS = 1000;
+
+    // The label journal is folded into the label files every this many autosaves.
+    private static final int AUTOSAVES_PER_COMPACTION = 6;
+
+    private static final String SAVED_STATUS = "All changes saved";
+    private static final String SAVING_STATUS = "Saving...";
+    private static final String FAILED_STATUS = "Autosave failed";
+
+    private final ExecutorService writer;
+    private final Timer timer;
+    private final Timer journalTimer;
+    private final JLabel statusLabel;
+
+    // The collection being saved, or null if there isn't one.
+    private String rootDirectory = null;
+    private String collectionName = null;
+    private Map<String, LabelledImage> images = null;
+    private CollectionSettings settings = null;
+    private LabelJournal journal = null;
+
+    // The number of writes queued for each image, so autosaves don't queue up behind a slow
+    // disk.
+    private final Map<LabelledImage, Integer> queuedWrites = new HashMap<LabelledImage, Integer>();
+    private int autosaveCount = 0;
+    private boolean failed = false;
+
+    // Set while a flush of the journal is waiting on the writer, so that flushes don't queue up
+    // behind a slow write.
+    private volatile boolean journalFlushQueued = false;
+
+    // Bumped whenever a collection stops being saved, so that writes that finish afterwards
+    // don't affect the status of the next collection.
+    private int session = 0;
+
+    /**
+     * Creates the autosave service. Nothing is saved until a collection is started.
+     *
+     * @param statusLabel the label to show the save status in
+     */
+    public AutosaveService(JLabel statusLabel) {
+        this.statusLabel = statusLabel;
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Label writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        timer = new Timer(AUTOSAVE_INTERVAL_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                autosave();
+            }
+        });
+
+        journalTimer = new Timer(JOURNAL_FLUSH_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                flushJournal();
+            }
+        });
+    }
+
+    /**
+     * Starts saving a collection automatically. Any collection that was being saved before is
+     * stopped first.
+     *
+     * @param rootDirectory the location of the root ImageLabeller directory
+     * @param collectionName the name of the collection
+     * @param images the images of the collection, which may change while it's being saved
+     * @param settings the settings of the collection
+     * @param journal the collection's label journal
+     */
+    public void start(String rootDirectory, String collectionName,
+            Map<String, LabelledImage> images, CollectionSettings settings,
+            LabelJournal journal) {
+        stop();
+
+        this.rootDirectory = rootDirectory;
+        this.collectionName = collectionName;
+        this.images = images;
+        this.settings = settings;
+        this.journal = journal;
+
+        failed = false;
+        statusLabel.setText(SAVED_STATUS);
+        timer.start();
+        journalTimer.start();
+    }
+
+    /**
+     * Saves any modified images of the current collection and folds its label journal into the
+     * label files, then stops saving it. Waits until everything has been written, so this
+     * should be called before the collection is reopened or the application exits.
+     */
+    public void stop() {
+        if (images == null) {
+            return;
+        }
+
+        timer.stop();
+        journalTimer.stop();
+        save(images.values(), true, null);
+        final LabelJournal stoppedJournal = journal;
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                stoppedJournal.close();
+            }
+        });
+
+        rootDirectory = null;
+        collectionName = null;
+        images = null;
+        settings = null;
+        journal = null;
+
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Nothing to do; just wait for everything before this.
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Can't happen, the task does nothing.
+        }
+
+        // The callbacks of the writes have been posted to this thread, but can't run until we
+        // return, and the session check means they will do nothing.
+        session++;
+        queuedWrites.clear();
+        statusLabel.setText(" ");
+    }
+
+    /**
+     * Saves images of the current collection in the background.
+     *
+     * @param imagesToSave the images to save
+     * @param onlyModified whether to skip the images that haven't been modified since they
+     *        were last saved
+     * @param listener told once the images have been saved, or null
+     */
+    public void save(Collection<LabelledImage> imagesToSave, boolean onlyModified,
+            final SaveListener listener) {
+        if (images == null) {
+            return;
+        }
+
+        final List<LabelledImage> savedImages = new ArrayList<LabelledImage>();
+        final List<Long> generations = new ArrayList<Long>();
+        final List<List<Polygon>> labels = new ArrayList<List<Polygon>>();
+        int skipped = 0;
+        for (LabelledImage image : imagesToSave) {
+            if (onlyModified && !image.isModified()) {
+                skipped++;
+                continue;
+            }
+            savedImages.add(image);
+            generations.add(image.getGeneration());
+            labels.add(image.getLabelsToSave());
+            Integer queued = queuedWrites.get(image);
+            queuedWrites.put(image, (queued == null) ? 1 : queued + 1);
+        }
+
+        final int skippedCount = skipped;
+        if (savedImages.isEmpty()) {
+            if (listener != null) {
+                listener.saveFinished(0, skippedCount, 0);
+            }
+            return;
+        }
+
+        statusLabel.setText(SAVING_STATUS);
+
+        final int savedSession = session;
+        final String savedRootDirectory = rootDirectory;
+        final String savedCollectionName = collectionName;
+        final CollectionSettings savedSettings = settings.copy();
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                final boolean[] written = new boolean[savedImages.size()];
+                for (int i = 0; i < savedImages.size(); i++) {
+                    try {
+                        ApplicationIO.saveLabels(savedRootDirectory, savedCollectionName,
+                                savedImages.get(i).getName(), labels.get(i), savedSettings);
+                        written[i] = true;
+                    } catch (IOException e) {
+                        System.err.println("Unable to save labels for "
+                                + savedImages.get(i).getName());
+                    }
+                }
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        savesFinished(savedSession, savedImages, generations, written,
+                                skippedCount, listener);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deletes the label files of an image that has been removed from the current collection.
+     * The files are deleted on the writer thread, after any writes already queued for the
+     * image, so that those writes don't put them back.
+     *
+     * @param imageName the name of the removed image
+     * @param onFailure run on the event dispatch thread if a label file couldn't be deleted, or
+     *        null
+     */
+    public void deleteLabels(final String imageName, final Runnable onFailure) {
+        if (images == null) {
+            return;
+        }
+
+        final String savedRootDirectory = rootDirectory;
+        final String savedCollectionName = collectionName;
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (!ApplicationIO.deleteLabels(savedRootDirectory, savedCollectionName,
+                        imageName)) {
+                    System.err.println("Unable to delete the label file for " + imageName);
+                    if (onFailure != null) {
+                        SwingUtilities.invokeLater(onFailure);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the edits recorded in the label journal since it was last flushed, on the writer
+     * thread.
+     */
+    private void flushJournal() {
+        if (journal == null || journalFlushQueued) {
+            return;
+        }
+
+        journalFlushQueued = true;
+        final LabelJournal flushedJournal = journal;
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                journalFlushQueued = false;
+                flushedJournal.flush();
+            }
+        });
+    }
+
+    /**
+     * Called on the event dispatch thread once a batch of saves has been written.
+     */
+    private void savesFinished(int savedSession, List<LabelledImage> savedImages,
+            List<Long> generations, boolean[] written, int skippedCount, SaveListener listener) {
+        if (savedSession != session) {
+            // The collection was closed, and everything was written before it was.
+            return;
+        }
+
+        int writtenCount = 0;
+        for (int i = 0; i < savedImages.size(); i++) {
+            LabelledImage image = savedImages.get(i);
+            if (written[i]) {
+                image.markSaved(generations.get(i));
+                writtenCount++;
+            }
+
+            Integer queued = queuedWrites.remove(image);
+            if (queued != null && queued > 1) {
+                queuedWrites.put(image, queued - 1);
+            }
+        }
+
+        int failedCount = savedImages.size() - writtenCount;
+        failed = failedCount > 0;
+        updateStatus();
+
+        if (listener != null) {
+            listener.saveFinished(writtenCount, skippedCount, failedCount);
+        }
+    }
+
+    /**
+     * Saves the modified images that don't already have a write queued, and every so often
+     * folds the label journal into the label files.
+     */
+    private void autosave() {
+        if (images == null) {
+            return;
+        }
+
+        List<LabelledImage> modifiedImages = new ArrayList<LabelledImage>();
+        for (LabelledImage image : images.values()) {
+            if (image.isModified() && !queuedWrites.containsKey(image)) {
+                modifiedImages.add(image);
+            }
+        }
+        save(modifiedImages, true, null);
+
+        autosaveCount++;
+        if (autosaveCount % AUTOSAVES_PER_COMPACTION == 0) {
+            // Rotated on the writer, after the saves queued above have been written and before
+            // any queued later.
+            final LabelJournal rotatedJournal = journal;
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (!rotatedJournal.rotate()) {
+                        return;
+                    }
+                    try {
+                        rotatedJournal.foldRotated();
+                    } catch (IOException e) {
+                        System.err.println("Unable to compact the label journal, will retry.");
+                    }
+                }
+            });
+        }
+    }
+
+    private void updateStatus() {
+        if (images == null) {
+            return;
+        }
+
+        if (!queuedWrites.isEmpty()) {
+            statusLabel.setText(SAVING_STATUS);
+        } else if (failed) {
+            statusLabel.setText(FAILED_STATUS);
+        } else {
+            statusLabel.setText(SAVED_STATUS);
+        }
+    }
+
+    /**
+     * Told when a save started with {@link AutosaveService#save} has finished.
+     */
+    public interface SaveListener {
+        /**
+         * Called on the event dispatch thread once the images have been saved.
+         *
+         * @param written the number of images that were written
+         * @param skipped the number of images that were skipped as they hadn't been modified
+         * @param failed the number of images that couldn't be written
+         */
+        void saveFinished(int written, int skipped, int failed);
+    }
+}
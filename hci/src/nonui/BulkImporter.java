@@ -0,0 +1,416 @@
+package src.nonui;
+
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.swing.ProgressMonitor;
+import javax.swing.Timer;
+
+import src.utils.ApplicationIO;
+import src.utils.ApplicationIO.ImportedImage;
+import src.utils.ImageStore;
+import src.utils.LabelledImage;
+
+/**
+ * Imports all of the images in a directory tree into a collection in the background. The tree
+ * is walked on its own thread, which hands the images to a small pool of import threads. Only a
+ * few images are queued or being imported at once, so the walk can't run far ahead of the
+ * imports and only a few decoded images are in memory at a time.
+ *
+ * Progress is shown in a dialog, from which the import can be cancelled. Imported images are
+ * passed back a batch at a time, and images whose names are already taken are not imported but
+ * collected into a summary that is passed back at the end.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+public class BulkImporter {
+    private static final int IMPORT_THREADS =
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // The most images that may be queued or being imported at once.
+    private static final int MAX_IN_FLIGHT = IMPORT_THREADS * 2;
+
+    // The extensions of the image files that can be imported.
+    private static final Set<String> IMAGE_SUFFIXES =
+        new HashSet<String>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+
+    // How often the progress is updated and imported images are passed back.
+    private static final int UPDATE_INTERVAL_MILLIS = 200;
+
+    private final ImageStore imageStore;
+    private final ImportListener listener;
+    private final ProgressMonitor progressMonitor;
+    private final Timer updateTimer;
+
+    // The names of the images in the collection. Only used by the walking thread once the
+    // import has started.
+    private final Set<String> takenNames;
+
+    private final ExecutorService importers;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private Thread walker = null;
+
+    // Filled in by the import threads and emptied on the event dispatch thread.
+    private final Queue<LabelledImage> importedImages = new ConcurrentLinkedQueue<LabelledImage>();
+    private final Summary summary = new Summary();
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private volatile int totalCount = -1;
+    private volatile boolean cancelled = false;
+    private volatile boolean finished = false;
+
+    // Whether the import was cancelled with cancel(), so nothing more should be passed back.
+    private boolean abandoned = false;
+
+    /**
+     * Creates a bulk importer.
+     *
+     * @param parent the component to show the progress dialog over
+     * @param imageStore the image store of the collection to import into
+     * @param existingNames the names of the images already in the collection
+     * @param listener told about the imported images
+     */
+    public BulkImporter(Component parent, ImageStore imageStore,
+            Collection<String> existingNames, ImportListener listener) {
+        this.imageStore = imageStore;
+        this.listener = listener;
+        this.takenNames = new HashSet<String>(existingNames);
+
+        progressMonitor = new ProgressMonitor(parent, "Importing images...", "Finding images...",
+                0, 1);
+
+        importers = Executors.newFixedThreadPool(IMPORT_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Image importer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        updateTimer = new Timer(UPDATE_INTERVAL_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+    }
+
+    /**
+     * Starts importing images.
+     *
+     * @param files the files to import; any directories are searched for images
+     * @param renameConflicts whether to import images whose names are taken under new names,
+     *        rather than skipping them
+     */
+    public void start(final List<File> files, final boolean renameConflicts) {
+        imageStore.setWritesDeferred(true);
+
+        walker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    importFiles(files, renameConflicts);
+                } finally {
+                    finish();
+                }
+            }
+        }, "Image import walker");
+        walker.setDaemon(true);
+        walker.start();
+
+        updateTimer.start();
+    }
+
+    /**
+     * Cancels the import, waiting for any images being imported to finish. Images that have
+     * already been imported are left in the collection, but nothing more is passed back.
+     */
+    public void cancel() {
+        abandoned = true;
+        cancelled = true;
+        updateTimer.stop();
+        progressMonitor.close();
+
+        walker.interrupt();
+        try {
+            walker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called on the walking thread to find the images and hand them to the import threads.
+     */
+    private void importFiles(List<File> files, boolean renameConflicts) {
+        List<File> imageFiles = new ArrayList<File>();
+        for (File file : files) {
+            findImages(file, imageFiles);
+        }
+        totalCount = imageFiles.size();
+
+        try {
+            for (File imageFile : imageFiles) {
+                if (cancelled) {
+                    break;
+                }
+
+                String name = ApplicationIO.stripExtension(imageFile.getName());
+                if (takenNames.contains(name)) {
+                    if (!renameConflicts) {
+                        summary.conflicts.add(imageFile);
+                        processedCount.incrementAndGet();
+                        continue;
+                    }
+                    name = findFreeName(name);
+                }
+                takenNames.add(name);
+
+                // Wait for room, so that only a few images are in flight at once.
+                inFlight.acquire();
+                importers.execute(new ImportTask(imageFile,
+                        name + ApplicationIO.getExtension(imageFile.getName())));
+            }
+        } catch (InterruptedException e) {
+            // Cancelled.
+        }
+    }
+
+    /**
+     * Called on the walking thread once every image has been handed out, or the import has
+     * been cancelled, to wait for the import threads to finish.
+     */
+    private void finish() {
+        importers.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (importers.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                // Still have to wait, so that nothing is imported after a cancel returns.
+                interrupted = true;
+            }
+        }
+
+        imageStore.setWritesDeferred(false);
+        finished = true;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds the image files in a directory tree to a list, in name order. A file is counted as
+     * an image if it has the extension of an image type that can be read. Stops early if the
+     * import is cancelled, so that cancelling doesn't wait for a large tree to be walked.
+     */
+    private void findImages(File file, List<File> imageFiles) {
+        if (cancelled || file.isHidden()) {
+            return;
+        }
+
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                System.err.println("Unable to list folder \"" + file.getAbsolutePath() + "\".");
+                return;
+            }
+
+            Arrays.sort(children);
+            for (File child : children) {
+                findImages(child, imageFiles);
+            }
+        } else if (isImageFile(file)) {
+            imageFiles.add(file);
+        }
+    }
+
+    private static boolean isImageFile(File file) {
+        String extension = ApplicationIO.getExtension(file.getName());
+        if (extension.length() < 2) {
+            return false;
+        }
+        return IMAGE_SUFFIXES.contains(extension.substring(1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns a variant of a name that isn't taken.
+     */
+    private String findFreeName(String name) {
+        int suffix = 2;
+        while (takenNames.contains(name + "_" + suffix)) {
+            suffix++;
+        }
+        return name + "_" + suffix;
+    }
+
+    /**
+     * Called by the timer on the event dispatch thread to pass back imported images and
+     * update the progress.
+     */
+    private void update() {
+        if (abandoned) {
+            return;
+        }
+        if (!cancelled && progressMonitor.isCanceled()) {
+            // Let the import threads finish the images they have started, then report.
+            cancelled = true;
+            summary.cancelled = true;
+            walker.interrupt();
+        }
+
+        // Check this before passing back the images, so that none are missed.
+        boolean done = finished;
+
+        List<LabelledImage> images = new ArrayList<LabelledImage>();
+        LabelledImage image;
+        while ((image = importedImages.poll()) != null) {
+            images.add(image);
+        }
+        if (!images.isEmpty()) {
+            listener.imagesImported(images);
+        }
+
+        if (done) {
+            updateTimer.stop();
+            progressMonitor.close();
+            listener.importFinished(summary);
+            return;
+        }
+
+        int total = totalCount;
+        if (total >= 0) {
+            int processed = processedCount.get();
+            // The monitor closes itself once the maximum is reached, so only let it get there
+            // once everything is finished.
+            progressMonitor.setMaximum(total + 1);
+            progressMonitor.setProgress(processed);
+            progressMonitor.setNote("Imported " + processed + " of " + total + " images");
+        }
+    }
+
+    /**
+     * Imports a single image on one of the import threads.
+     */
+    private class ImportTask implements Runnable {
+        private final File sourceFile;
+        private final String imageFileName;
+
+        private ImportTask(File sourceFile, String imageFileName) {
+            this.sourceFile = sourceFile;
+            this.imageFileName = imageFileName;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (cancelled) {
+                    return;
+                }
+
+                ImportedImage imported = imageStore.importImage(sourceFile, imageFileName, false);
+                importedImages.add(imported.getImage());
+                summary.importedCount.incrementAndGet();
+                if (imported.getDuplicateOf() != null) {
+                    summary.duplicateCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to import image file \""
+                        + sourceFile.getAbsolutePath() + "\".");
+                summary.failures.add(sourceFile);
+            } finally {
+                processedCount.incrementAndGet();
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * What happened in a bulk import.
+     */
+    public static final class Summary {
+        private final AtomicInteger importedCount = new AtomicInteger();
+        private final AtomicInteger duplicateCount = new AtomicInteger();
+        private final List<File> conflicts = Collections.synchronizedList(new ArrayList<File>());
+        private final List<File> failures = Collections.synchronizedList(new ArrayList<File>());
+        private volatile boolean cancelled = false;
+
+        private Summary() {
+            // Only created by the importer.
+        }
+
+        public int getImportedCount() {
+            return importedCount.get();
+        }
+
+        /**
+         * Returns how many of the imported images were already in the collection under other
+         * names, and so weren't copied again.
+         */
+        public int getDuplicateCount() {
+            return duplicateCount.get();
+        }
+
+        /**
+         * Returns the files that weren't imported because their names were already taken.
+         */
+        public List<File> getConflicts() {
+            return new ArrayList<File>(conflicts);
+        }
+
+        /**
+         * Returns the files that couldn't be imported.
+         */
+        public List<File> getFailures() {
+            return new ArrayList<File>(failures);
+        }
+
+        public boolean wasCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Told about the progress of a bulk import.
+     */
+    public interface ImportListener {
+        /**
+         * Called on the event dispatch thread with each batch of imported images.
+         *
+         * @param images the images that have been imported since the last batch
+         */
+        void imagesImported(List<LabelledImage> images);
+
+        /**
+         * Called on the event dispatch thread once the import has finished or been cancelled
+         * from the progress dialog. Not called if the import is cancelled with
+         * {@link BulkImporter#cancel}.
+         *
+         * @param summary what happened in the import
+         */
+        void importFinished(Summary summary);
+    }
+}
@@ -0,0 +1,292 @@
+package src.nonui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import src.utils.ApplicationIO;
+import src.utils.ApplicationIO.LabelParseException;
+import src.utils.LabelFormat;
+import src.utils.LabelledImage;
+import src.utils.Polygon;
+
+/**
+ * Keeps an open collection in step with changes made to its files by other programs, such as a
+ * script that drops new images or label files into the collection's folders. The "images" and
+ * "labels" directories are watched, and only the files that changed are read again; the
+ * collection is never rescanned.
+ *
+ * Changes are debounced: once a file changes, the watcher waits until nothing else has changed
+ * for a moment, so that a file being written, or a batch of files being copied, is read once
+ * rather than once per event. The changed files are read on the watching thread and passed back
+ * on the event dispatch thread. The application's own saves and imports are seen as well, so
+ * the changes should be checked against the collection before they are applied.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+public class CollectionWatcher {
+    // How long to wait after a change for the files to stop changing.
+    private static final int DEBOUNCE_MILLIS = 500;
+
+    // The longest that changes are held back while files keep changing.
+    private static final int MAX_DELAY_MILLIS = 5000;
+
+    private final File imagesDirectory;
+    private final File labelsDirectory;
+    private final SyncListener listener;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    // Set once the watcher is closed, so that nothing more is passed back.
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a watcher for a collection. Nothing is watched until it is started.
+     *
+     * @param collectionRoot the root directory of the collection
+     * @param listener told about the changed files
+     *
+     * @throws IOException if the collection's directories cannot be watched
+     */
+    public CollectionWatcher(File collectionRoot, SyncListener listener) throws IOException {
+        this.imagesDirectory = new File(collectionRoot, "images");
+        this.labelsDirectory = new File(collectionRoot, "labels");
+        this.listener = listener;
+
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            register(imagesDirectory);
+            register(labelsDirectory);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "Collection watcher");
+        watcher.setDaemon(true);
+    }
+
+    /**
+     * Starts watching the collection.
+     */
+    public void start() {
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the collection. Any changes that haven't been passed back yet are dropped.
+     */
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Unable to stop watching the collection.");
+        }
+    }
+
+    private void register(File directory) throws IOException {
+        directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Called on the watching thread to wait for changes, and pass them back a batch at a time.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                // The file names of the changed images, and the image names of the changed
+                // label files.
+                Set<String> changedImages = new HashSet<String>();
+                Set<String> changedLabels = new HashSet<String>();
+
+                WatchKey key = watchService.take();
+                long deadline = System.currentTimeMillis() + MAX_DELAY_MILLIS;
+                while (key != null) {
+                    collectEvents(key, changedImages, changedLabels);
+                    long wait = Math.min(DEBOUNCE_MILLIS, deadline - System.currentTimeMillis());
+                    key = (wait > 0) ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+
+                final Changes changes = readChanges(changedImages, changedLabels);
+                if (changes.isEmpty()) {
+                    continue;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!closed) {
+                            listener.collectionChanged(changes);
+                        }
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } catch (ClosedWatchServiceException e) {
+            // Closed.
+        }
+    }
+
+    /**
+     * Adds the files named in a key's events to the sets of changed files.
+     */
+    private void collectEvents(WatchKey key, Set<String> changedImages,
+            Set<String> changedLabels) {
+        boolean isImages = key.watchable().equals(imagesDirectory.toPath());
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Too much changed at once for every change to be recorded. Rather than
+                // rescanning, the changes that were lost are left until the collection is
+                // next opened.
+                System.err.println("Missed some changes to the collection's "
+                        + (isImages ? "images." : "labels."));
+                continue;
+            }
+
+            String fileName = ((Path) event.context()).getFileName().toString();
+            if (fileName.startsWith(".")) {
+                // Hidden files, such as the temporary files of other programs.
+                continue;
+            }
+            if (isImages) {
+                changedImages.add(fileName);
+            } else if (isLabelFile(fileName)) {
+                changedLabels.add(ApplicationIO.stripExtension(fileName));
+            }
+        }
+        key.reset();
+    }
+
+    private static boolean isLabelFile(String fileName) {
+        for (LabelFormat format : LabelFormat.values()) {
+            if (fileName.endsWith(format.getExtension())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the changed files. Images that have changed are loaded along with their labels,
+     * so their label files don't need to be read again separately.
+     */
+    private Changes readChanges(Set<String> changedImages, Set<String> changedLabels) {
+        Changes changes = new Changes();
+        for (String imageFileName : changedImages) {
+            File imageFile = new File(imagesDirectory, imageFileName);
+            String imageName = ApplicationIO.stripExtension(imageFileName);
+            changedLabels.remove(imageName);
+
+            if (!imageFile.isFile()) {
+                changes.removedImages.add(imageFile);
+                continue;
+            }
+
+            Map<String, Polygon> labels = readLabels(imageName);
+            if (labels == null) {
+                labels = new HashMap<String, Polygon>();
+            }
+            try {
+                changes.images.add(new LabelledImage(imageFile,
+                        new ArrayList<Polygon>(labels.values())));
+            } catch (IOException e) {
+                // Most likely still being written; it will change again once it is finished.
+                System.err.println("Unable to load image file: " + imageFileName);
+            }
+        }
+
+        for (String imageName : changedLabels) {
+            Map<String, Polygon> labels = readLabels(imageName);
+            if (labels != null) {
+                changes.labels.put(imageName, labels);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Reads the labels of an image as they are on disk, or returns null if they can't be read.
+     */
+    private Map<String, Polygon> readLabels(String imageName) {
+        try {
+            return ApplicationIO.readSavedLabels(labelsDirectory, imageName);
+        } catch (LabelParseException e) {
+            System.err.println("Unable to read labels: " + imageName);
+            return null;
+        }
+    }
+
+    /**
+     * The files of a collection that changed together.
+     */
+    public static final class Changes {
+        private final List<LabelledImage> images = new ArrayList<LabelledImage>();
+        private final List<File> removedImages = new ArrayList<File>();
+        private final Map<String, Map<String, Polygon>> labels =
+            new HashMap<String, Map<String, Polygon>>();
+
+        private Changes() {
+            // Only created by the watcher.
+        }
+
+        /**
+         * Returns the images that were added or changed, loaded along with their labels.
+         */
+        public List<LabelledImage> getImages() {
+            return images;
+        }
+
+        /**
+         * Returns the image files that were removed.
+         */
+        public List<File> getRemovedImages() {
+            return removedImages;
+        }
+
+        /**
+         * Returns the labels of the images whose label files changed, keyed by image name, as
+         * they are now on disk. An image whose label file was removed has no labels.
+         */
+        public Map<String, Map<String, Polygon>> getLabels() {
+            return labels;
+        }
+
+        private boolean isEmpty() {
+            return images.isEmpty() && removedImages.isEmpty() && labels.isEmpty();
+        }
+    }
+
+    /**
+     * Told about changes to the files of a collection.
+     */
+    public interface SyncListener {
+        /**
+         * Called on the event dispatch thread with each batch of changes.
+         *
+         * @param changes the files that changed
+         */
+        void collectionChanged(Changes changes);
+    }
+}
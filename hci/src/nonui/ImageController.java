@@ -2,6 +2,8 @@ package src.nonui;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -23,7 +25,8 @@ public class ImageController {
     // Used when adding/editing points.
     private Polygon polygonInCreation = new Polygon(); 
     private Polygon polygonInEditing = new Polygon();
-    private Point currentPoint = null;
+    // The index of the vertex of polygonInEditing that is selected, or -1 if there is none.
+    private int currentVertex = -1;
 
     public ImageController(AppController appController, JFrame appFrame) {
         this.appController = appController;
@@ -40,48 +43,28 @@ public class ImageController {
     }
 
     /**
-     * Returns a list of the points of the completed polygons.
+     * Returns the completed polygons of the current image, or an empty collection if there is
+     * no image. The polygons are not copied, so must not be changed.
      */
-    public List<List<Point>> getCompletedPolygonsPoints() {
-        Map<String, Polygon> completedPolygons = appController.getCompletedPolygons();        
-        List<List<Point>> points = new ArrayList<List<Point>>(completedPolygons.size());
-        for (Polygon polygon : completedPolygons.values()) {
-            points.add(new ArrayList<Point>(polygon.getPoints()));
-        }
-        return points;
-    }
-
-    /**
-     * Returns a list of the points of the currently selected polygons.
-     */
-    public List<List<Point>> getSelectedPolygonsPoints() {
-        List<Polygon> selectedPolygons = getSelectedPolygons();
-        List<List<Point>> points = new ArrayList<List<Point>>(selectedPolygons.size());
-        for (Polygon selectedPolygon : selectedPolygons) {
-            points.add(selectedPolygon.getPoints());
-        }
-        return points;
+    public Collection<Polygon> getCompletedPolygons() {
+        Map<String, Polygon> completedPolygons = appController.getCompletedPolygons();
+        return (completedPolygons != null) 
+                ? Collections.unmodifiableCollection(completedPolygons.values()) 
+                : Collections.<Polygon>emptyList();
     }
 
     /**
-     * Returns a list of the points of the polygon that is currently being created.
+     * Returns the polygon that is currently being created, or null if there is none.
      */
-    public List<Point> getCurrentPolygonPoints() {
-    	if (polygonInCreation != null)
-    		return polygonInCreation.getPoints();
-    	return null;
+    public Polygon getCurrentPolygon() {
+        return polygonInCreation;
     }
 
     /**
-     * Returns a list of the points of the polygon that is currently being edited,
-     * or null if no polygon is being edited.
+     * Checks whether a polygon is currently being edited, see {@link #getEditedPolygon()}.
      */
-    public List<Point> getEditedPolygonPoints() {
-        if (appController.getApplicationState() == ApplicationState.EDITING_POLYGON) {
-            return polygonInEditing.getPoints();
-        }
-
-        return null;
+    public boolean isEditingPolygon() {
+        return appController.getApplicationState() == ApplicationState.EDITING_POLYGON;
     }
 
     /**
@@ -165,7 +148,7 @@ public class ImageController {
     public void imageMouseReleased() {
         switch (appController.getApplicationState()) {
             case DEFAULT:
-                currentPoint = null;
+                currentVertex = -1;
                 polygonInCreation = new Polygon();
                 imagePanel.repaint();
                 break;
@@ -173,7 +156,7 @@ public class ImageController {
                 // Do nothing.
                 break;
             case EDITING_POLYGON:
-                currentPoint = null;
+                currentVertex = -1;
                 polygonInCreation = new Polygon();
                 break;
             default:
@@ -195,12 +178,10 @@ public class ImageController {
                 // Do nothing.
                 break;
             case EDITING_POLYGON:
-                if (currentPoint != null && polygonInEditing != null) {
+                if (polygonInEditing != null && currentVertex >= 0
+                        && currentVertex < polygonInEditing.size()) {
                     // Move the point.
-                    Point newPoint = new Point(x, y);
-                    if (polygonInEditing.replacePoint(currentPoint, newPoint)) {
-                        currentPoint = newPoint;
-                    }
+                    currentVertex = polygonInEditing.moveVertex(currentVertex, x, y);
                     imagePanel.repaint();
                 }
                 break;
@@ -218,7 +199,7 @@ public class ImageController {
             return;
         }
 
-        if (polygonInCreation.getPoints().size() < 3) {
+        if (polygonInCreation.size() < 3) {
             JOptionPane.showMessageDialog(appFrame,
                     "A label must have 3 or more vertices.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
@@ -252,7 +233,7 @@ public class ImageController {
         }
 
         polygonInCreation.setName(name);
-        appController.getCompletedPolygons().put(name, polygonInCreation);
+        appController.addCompletedPolygon(polygonInCreation);
         polygonInCreation = new Polygon();
 
         appController.finishedAddingPolygon(name);
@@ -317,7 +298,7 @@ public class ImageController {
     /**
      * Gets a list of the currently selected polygons.
      */
-    private List<Polygon> getSelectedPolygons() {
+    public List<Polygon> getSelectedPolygons() {
         Map<String, Polygon> completedPolygons = appController.getCompletedPolygons();
         List<String> selectedNames = appController.getSelectedNames();
         List<Polygon> selectedPolygons = new ArrayList<Polygon>(selectedNames.size());
@@ -335,29 +316,28 @@ public class ImageController {
      * @param y the y coordinate of the target
      */
     private boolean selectClosestPoint(int x, int y) {
-        Point targetPoint = new Point(x, y);
-        Point closestPoint = null;
         Polygon closestPolygon = null;
-
+        int closestIndex = -1;
         double smallestDistance = -1;
 
-        for (Polygon polygon : appController.getCompletedPolygons().values()) {
-            for (Point point : polygon.getPoints()) {
-                double distanceToTarget = targetPoint.distanceFrom(point);
-                if (distanceToTarget < smallestDistance || smallestDistance < 0) {
-                    if (isSelected(polygon)) {
-                        smallestDistance = distanceToTarget;
-                        closestPoint = point;
-                        closestPolygon = polygon;
-                    }
-                }
+        // Only the vertices of the selected polygons can be selected.
+        for (Polygon polygon : getSelectedPolygons()) {
+            int index = polygon.closestVertex(x, y);
+            if (index < 0) {
+                continue;
+            }
 
+            double distanceToTarget = distance(x, y, polygon.getX(index), polygon.getY(index));
+            if (distanceToTarget < smallestDistance || smallestDistance < 0) {
+                smallestDistance = distanceToTarget;
+                closestIndex = index;
+                closestPolygon = polygon;
             }
         }
 
         if (smallestDistance >= 0 && smallestDistance < EDITING_THRESHOLD_DISTANCE) {
             appController.setApplicationState(ApplicationState.EDITING_POLYGON);
-            currentPoint = closestPoint;
+            currentVertex = closestIndex;
             polygonInEditing = closestPolygon;
             return true;
         } else {
@@ -374,62 +354,61 @@ public class ImageController {
      * @param y the y coordinate of the point
      */
     private void addPointToCompletedPolygon(int x, int y) {
-    	Point targetPoint = new Point(x, y);
-    	
-    	polygonInCreation = null;
-    	
-    	for (Polygon polygon : getSelectedPolygons()) {
-	    	List<Point> polygonPoints = polygon.getPoints();
-	    	
-	    	for (int i = 0; i < polygonPoints.size(); i++) {
-	    		Point point1 = polygonPoints.get(i);
-	    		Point point2 = polygonPoints.get((i + 1) % polygonPoints.size());
-	    		
-	    		// y = mx + c
-	    		double m = (double) (point1.getY() - point2.getY()) / (double) (point1.getX() - point2.getX());
-	    		double c = point1.getY() - (double)(m * point1.getX());
-	    		
-	    		// Plug the new point into the line equation to see what the coordinates should be.
-	    		double expectedY = (m * (double) x) + c; 
-	    		double expectedX = ((double) y - c) / m;
-	    			    		
-	    		if (Math.abs(expectedY - (double) y) < EDITING_THRESHOLD_DISTANCE || 
-	    				Math.abs(expectedX - (double) x) < EDITING_THRESHOLD_DISTANCE) {
-
-                    if (withinBoundingBox(targetPoint, point1, point2)) {
-	    				polygon.addPointAt(targetPoint, ((i+1) % polygonPoints.size()));
-	    				appController.setApplicationState(ApplicationState.EDITING_POLYGON);
-	    				polygonInEditing = polygon;
-	    				currentPoint = targetPoint;
-	    				return;
-	    			}
-	    		}
-	    		
-	        }
-    	}
+        polygonInCreation = null;
+
+        for (Polygon polygon : getSelectedPolygons()) {
+            int size = polygon.size();
+            for (int i = 0; i < size; i++) {
+                int x1 = polygon.getX(i);
+                int y1 = polygon.getY(i);
+                int x2 = polygon.getX((i + 1) % size);
+                int y2 = polygon.getY((i + 1) % size);
+
+                // y = mx + c
+                double m = (double) (y1 - y2) / (double) (x1 - x2);
+                double c = y1 - (double) (m * x1);
+
+                // Plug the new point into the line equation to see what the coordinates
+                // should be.
+                double expectedY = (m * (double) x) + c;
+                double expectedX = ((double) y - c) / m;
+
+                if (Math.abs(expectedY - (double) y) < EDITING_THRESHOLD_DISTANCE
+                        || Math.abs(expectedX - (double) x) < EDITING_THRESHOLD_DISTANCE) {
+
+                    if (withinBoundingBox(x, y, x1, y1, x2, y2)) {
+                        int index = (i + 1) % size;
+                        polygon.addPointAt(new Point(x, y), index);
+                        appController.setApplicationState(ApplicationState.EDITING_POLYGON);
+                        polygonInEditing = polygon;
+                        currentVertex = index;
+                        return;
+                    }
+                }
+            }
+        }
     }
-    
+
     /**
      * Checks if a target point is within the bounding box created by two other points (with
      * a little leeway.)
      * 
-     * @param targetPoint the target point to check
-     * @param point1 one of the points that define the bounding box
-     * @param point2 the other point that defines the bounding box
+     * @param x the x coordinate of the target point
+     * @param y the y coordinate of the target point
+     * @param x1 the x coordinate of one of the points that define the bounding box
+     * @param y1 the y coordinate of that point
+     * @param x2 the x coordinate of the other point that defines the bounding box
+     * @param y2 the y coordinate of that point
      */
-    private boolean withinBoundingBox(Point targetPoint, Point point1, Point point2) {
-        int left = Math.min(point1.getX(), point2.getX());
-        int right = Math.max(point1.getX(), point2.getX());
-        int top = Math.min(point1.getY(), point2.getY());
-        int bottom = Math.max(point1.getY(), point2.getY());
-        
-        int x = targetPoint.getX();
-        int y = targetPoint.getY();
-        
+    private static boolean withinBoundingBox(int x, int y, int x1, int y1, int x2, int y2) {
+        int left = Math.min(x1, x2);
+        int right = Math.max(x1, x2);
+        int top = Math.min(y1, y2);
+        int bottom = Math.max(y1, y2);
+
         return x >= (left - 2) && x <= (right + 2) && y >= (top - 2) && y <= (bottom + 2);
-	}
+    }
 
-    
     /**
      * Checks if a set of coordinates is near the starting point of the in-progress
      * polygon.
@@ -437,23 +416,22 @@ public class ImageController {
      * @param x the x coordinate to check
      * @param y the y coordinate to check
      */
-	private boolean nearFirstPoint(int x, int y) {
-        if (polygonInCreation.getPoints().isEmpty()) {
-        	return false;
+    private boolean nearFirstPoint(int x, int y) {
+        if (polygonInCreation.size() == 0) {
+            return false;
         }
 
-        Point targetPoint = new Point(x, y);        
-        double distanceToTarget = targetPoint.distanceFrom(polygonInCreation.getPoints().get(0));
-
+        double distanceToTarget = distance(x, y, polygonInCreation.getX(0), 
+                polygonInCreation.getY(0));
         return distanceToTarget < EDITING_THRESHOLD_DISTANCE;
     }
 
     /**
-     * Returns true if a given polygon is currently selected.
-     * 
-     * @param polygon the polygon that may be selected
+     * Returns the Euclidean distance between two points, as {@link Point#distanceFrom} does.
      */
-    private boolean isSelected(Polygon polygon) {
-        return getSelectedPolygons().contains(polygon);
+    private static double distance(int x1, int y1, int x2, int y2) {
+        int dx = x1 - x2;
+        int dy = y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
     }
 }
@@ -7,7 +7,6 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.event.MouseEvent;
@@ -15,13 +14,13 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.JPanel;
 
 import src.nonui.ImageController;
-import src.utils.Point;
+import src.utils.DisplayImageReader;
+import src.utils.Polygon;
 
 /**
  * View for the image panel.
@@ -30,6 +29,9 @@ public class ImagePanelView extends JPanel implements MouseListener, MouseMotion
     // JPanel is serializable, so we need some ID to avoid compiler warnings.
     private static final long serialVersionUID = 1L;
 
+    // The stroke that the lines of polygons are drawn with.
+    private static final Stroke LINE_STROKE = new BasicStroke(2.0f);
+
     private final ImageController controller;
 
     // Image that is being worked on.
@@ -41,7 +43,8 @@ public class ImagePanelView extends JPanel implements MouseListener, MouseMotion
     public ImagePanelView(ImageController imageController) {
         this.controller = imageController;
 
-        Dimension panelSize = new Dimension(800, 600);
+        Dimension panelSize = new Dimension(DisplayImageReader.DISPLAY_WIDTH, 
+                DisplayImageReader.DISPLAY_HEIGHT);
         setSize(panelSize);
         setMinimumSize(panelSize);
         setPreferredSize(panelSize);
@@ -73,29 +76,25 @@ public class ImagePanelView extends JPanel implements MouseListener, MouseMotion
             g.drawImage(image, 0, 0, null);
 
             Graphics2D graphics2D = (Graphics2D) g;
+            graphics2D.setStroke(LINE_STROKE);
+            graphics2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
+                    RenderingHints.VALUE_ANTIALIAS_ON);
 
-            List<List<Point>> completedPoints = controller.getCompletedPolygonsPoints();
-            for (List<Point> points : completedPoints) {
-                drawPolygon(points, graphics2D, Color.BLUE);
-                drawLine(points.get(0), points.get(points.size() - 1), graphics2D, Color.BLUE);
+            for (Polygon polygon : controller.getCompletedPolygons()) {
+                drawPolygon(polygon, graphics2D, Color.BLUE, true);
             }
 
-            List<List<Point>> selectedPoints = controller.getSelectedPolygonsPoints();
-            for (List<Point> points : selectedPoints) {
-                drawPolygon(points, graphics2D, Color.GREEN);
-                drawLine(points.get(0), points.get(points.size() - 1), graphics2D, Color.GREEN);
+            for (Polygon polygon : controller.getSelectedPolygons()) {
+                drawPolygon(polygon, graphics2D, Color.GREEN, true);
             }
 
-            List<Point> currentPoints = controller.getCurrentPolygonPoints();
-            if (currentPoints != null) {
-                drawPolygon(currentPoints, graphics2D, Color.PINK);
+            Polygon currentPolygon = controller.getCurrentPolygon();
+            if (currentPolygon != null) {
+                drawPolygon(currentPolygon, graphics2D, Color.PINK, false);
             }
 
-            List<Point> editedPoints = controller.getEditedPolygonPoints();
-            if (editedPoints != null) {
-                drawPolygon(editedPoints, graphics2D, Color.YELLOW);
-                drawLine(editedPoints.get(0), editedPoints.get(editedPoints.size() - 1),
-                        graphics2D, Color.YELLOW);
+            if (controller.isEditingPolygon()) {
+                drawPolygon(controller.getEditedPolygon(), graphics2D, Color.YELLOW, true);
             }
         }
     }
@@ -159,37 +158,13 @@ public class ImagePanelView extends JPanel implements MouseListener, MouseMotion
     }
 
     /**
-     * Sets the image that is to be rendered in the panel.
+     * Sets the image that is to be rendered in the panel. The image must already be at its
+     * display size, as decoded by {@link DisplayImageReader}.
      * 
-     * @param helpImage the image to draw
+     * @param newImage the image to draw
      */
     public void setImage(BufferedImage newImage) {
         image = newImage;
-
-        if (image != null) {
-            boolean scaled = false;
-            int width = image.getWidth();
-            int height = image.getHeight();
-
-            if (width > 800 || height > 600) {
-                width = (width > 800) ? 800 : ((width * 600) / height);
-                height = (height > 600) ? 600 : ((height * 800) / width);
-
-                scaled = true;
-            } else if (width < 800 || height < 600) {
-                width = (width < 800) ? 800 : ((width * height) / 600);
-                height = (height < 600) ? 600 : ((height * width) / 800);
-
-                scaled = true;
-            }
-
-            if (scaled) {
-                Image scaledImage = image.getScaledInstance(width, height, Image.SCALE_FAST);
-                image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-                image.getGraphics().drawImage(scaledImage, 0, 0, this);
-            }
-        }
-
         repaint();
     }
     
@@ -211,44 +186,37 @@ public class ImagePanelView extends JPanel implements MouseListener, MouseMotion
     }
 
     /**
-     * Draws an unfinished polygon (i.e. with no line between the last and first
-     * vertices).
+     * Draws a polygon's vertices, and the lines between them. The vertices are read straight
+     * from the polygon, so nothing is allocated. The stroke and rendering hints are left as
+     * they are.
      * 
-     * @param points the points of the polygon to be drawn
+     * @param polygon the polygon to be drawn
      * @param graphics2d the graphics pane to draw it on
      * @param colour the colour to make the lines
+     * @param closed whether to draw a line between the last and first vertices, which
+     *        unfinished polygons don't have
      */
-    private static void drawPolygon(List<Point> points, Graphics2D graphics2d, Color colour) {
+    public static void drawPolygon(Polygon polygon, Graphics2D graphics2d, Color colour,
+            boolean closed) {
+        int size = polygon.size();
+        if (size == 0) {
+            return;
+        }
+
         Color originalColour = graphics2d.getColor();
         graphics2d.setColor(colour);
-        for (int i = 0; i < points.size(); i++) {
-            Point currentVertex = points.get(i);
+        for (int i = 0; i < size; i++) {
+            int x = polygon.getX(i);
+            int y = polygon.getY(i);
             if (i != 0) {
-                Point prevVertex = points.get(i - 1);
-                drawLine(prevVertex, currentVertex, graphics2d, colour);
+                graphics2d.drawLine(polygon.getX(i - 1), polygon.getY(i - 1), x, y);
             }
-            graphics2d.fillOval(currentVertex.getX() - 5, currentVertex.getY() - 5, 10, 10);
+            graphics2d.fillOval(x - 5, y - 5, 10, 10);
+        }
+        if (closed) {
+            graphics2d.drawLine(polygon.getX(0), polygon.getY(0), polygon.getX(size - 1),
+                    polygon.getY(size - 1));
         }
-        graphics2d.setColor(originalColour);
-    }
-
-    /**
-     * Draws a line between two points.
-     * 
-     * @param p1 the first point
-     * @param p2 the second point
-     * @param graphics2d the graphics pane to draw it on
-     * @param colour the colour to make the line
-     */
-    private static void drawLine(Point p1, Point p2, Graphics2D graphics2d, Color colour) {
-        Stroke stroke = new BasicStroke(2.0f);
-        graphics2d.setStroke(stroke);
-        graphics2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
-                RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        Color originalColour = graphics2d.getColor();
-        graphics2d.setColor(colour);
-        graphics2d.drawLine(p1.getX(), p1.getY(), p2.getX(), p2.getY());
         graphics2d.setColor(originalColour);
     }
 }
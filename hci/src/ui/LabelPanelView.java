@@ -279,16 +279,11 @@ public class LabelPanelView extends JPanel {
      * Returns the names of the currently selected polygons.
      */
     public List<String> getSelectedNames() {
-        List<Integer> indices = new ArrayList<Integer>(labelsList.getSelectedIndices().length);
-        for (int index : labelsList.getSelectedIndices()) {
-            indices.add(index);
-        }
-
-        List<String> names = new ArrayList<String>(labelsList.getSelectedIndices().length);
-        for (int i = 0; i < listModel.getSize(); i++) {
-            if (indices.contains(i)) {
-                names.add((String) listModel.get(i));
-            }
+        // The indices are in increasing order, so the names are in list order.
+        int[] indices = labelsList.getSelectedIndices();
+        List<String> names = new ArrayList<String>(indices.length);
+        for (int index : indices) {
+            names.add((String) listModel.get(index));
         }
 
         return names;
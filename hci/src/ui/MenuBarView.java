@@ -4,6 +4,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -26,9 +27,14 @@ public class MenuBarView extends JMenuBar {
     // Menu items that can be enabled/disabled.
     private JMenuItem closeCollection;
     private JMenuItem importImage;
+    private JMenuItem importFolder;
+    private JMenuItem importLabelFolder;
+    private JMenuItem exportCollection;
+    private JMenuItem exportMasks;
     private JMenuItem saveAllImages;
     private JMenuItem saveImage;
     private JMenuItem removeImage;
+    private JCheckBoxMenuItem compactLabels;
     private JMenuItem addPolygon;
     private JMenuItem renameSelected;
     private JMenuItem deleteSelected;
@@ -60,9 +66,14 @@ public class MenuBarView extends JMenuBar {
      * <li>Close Collection</li>
      * <li>Open Collection</li>
      * <li>Import Image</li>
+     * <li>Import Folder</li>
+     * <li>Import Label Folder</li>
+     * <li>Export as COCO JSON</li>
+     * <li>Export Label Masks</li>
      * <li>Save Current Image</li>
      * <li>Save All Images</li>
      * <li>Remove Image from Collection</li>
+     * <li>Save Labels in Compact Format</li>
      * <li>Exit</li>
      * </ul>
      */
@@ -108,6 +119,42 @@ public class MenuBarView extends JMenuBar {
             }
         });
 
+        importFolder = new JMenuItem("Import Folder");
+        importFolder.setMnemonic(KeyEvent.VK_F);
+        importFolder.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.importFolder();
+            }
+        });
+
+        importLabelFolder = new JMenuItem("Import Label Folder");
+        importLabelFolder.setMnemonic(KeyEvent.VK_L);
+        importLabelFolder.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.importLabelFolder();
+            }
+        });
+
+        exportCollection = new JMenuItem("Export as COCO JSON");
+        exportCollection.setMnemonic(KeyEvent.VK_E);
+        exportCollection.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.exportCollection();
+            }
+        });
+
+        exportMasks = new JMenuItem("Export Label Masks");
+        exportMasks.setMnemonic(KeyEvent.VK_M);
+        exportMasks.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.exportMasks();
+            }
+        });
+
         saveImage = new JMenuItem("Save Current Image");
         saveImage.setMnemonic(KeyEvent.VK_S);
         saveImage.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, ActionEvent.CTRL_MASK));
@@ -138,11 +185,19 @@ public class MenuBarView extends JMenuBar {
             }
         });
 
+        compactLabels = new JCheckBoxMenuItem("Save Labels in Compact Format");
+        compactLabels.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.setCompactLabelFormat(compactLabels.isSelected());
+            }
+        });
+
         JMenuItem exit = new JMenuItem("Exit");
         exit.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                System.exit(0);
+                controller.exit();
             }
         });
 
@@ -152,11 +207,18 @@ public class MenuBarView extends JMenuBar {
         fileMenu.addSeparator();
 
         fileMenu.add(importImage);
+        fileMenu.add(importFolder);
+        fileMenu.add(importLabelFolder);
+        fileMenu.add(exportCollection);
+        fileMenu.add(exportMasks);
         fileMenu.add(saveImage);
         fileMenu.add(saveAllImages);
         fileMenu.add(removeImage);
         fileMenu.addSeparator();
 
+        fileMenu.add(compactLabels);
+        fileMenu.addSeparator();
+
         fileMenu.add(exit);
 
         return fileMenu;
@@ -284,6 +346,22 @@ public class MenuBarView extends JMenuBar {
         importImage.setEnabled(enabled);
     }
 
+    public void setImportFolderEnabled(boolean enabled) {
+        importFolder.setEnabled(enabled);
+    }
+
+    public void setImportLabelFolderEnabled(boolean enabled) {
+        importLabelFolder.setEnabled(enabled);
+    }
+
+    public void setExportCollectionEnabled(boolean enabled) {
+        exportCollection.setEnabled(enabled);
+    }
+
+    public void setExportMasksEnabled(boolean enabled) {
+        exportMasks.setEnabled(enabled);
+    }
+
     public void setSaveImageEnabled(boolean enabled) {
         saveImage.setEnabled(enabled);
     }
@@ -296,6 +374,14 @@ public class MenuBarView extends JMenuBar {
         removeImage.setEnabled(enabled);
     }
 
+    public void setCompactLabelsEnabled(boolean enabled) {
+        compactLabels.setEnabled(enabled);
+    }
+
+    public void setCompactLabelsSelected(boolean selected) {
+        compactLabels.setSelected(selected);
+    }
+
     public void setAddPolygonEnabled(boolean enabled) {
         addPolygon.setEnabled(enabled);
     }
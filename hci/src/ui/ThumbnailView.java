@@ -5,7 +5,6 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.Stroke;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -13,6 +12,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,13 +22,14 @@ import javax.swing.JPanel;
 
 import src.nonui.AppController;
 import src.utils.LabelledImage;
+import src.utils.ThumbnailStore;
 
 public class ThumbnailView extends JPanel {
     private static final long serialVersionUID = 1L;
     
-    private static int COMPONENT_HEIGHT = 130;
+    private static int COMPONENT_HEIGHT = ThumbnailStore.THUMBNAIL_HEIGHT;
     private static int BUTTON_WIDTH = 40;
-    private static int THUMBNAIL_WIDTH = 175;
+    private static int THUMBNAIL_WIDTH = ThumbnailStore.THUMBNAIL_WIDTH;
     
     private AppController appController;
 
@@ -80,14 +81,21 @@ public class ThumbnailView extends JPanel {
     }
     
     public void addImage(LabelledImage image) {
-        middle.addImage(image.getName(), image.getImage());
+        middle.addImage(image);
+    }
+
+    /**
+     * Adds images to the end of the strip, without changing which image is selected.
+     * 
+     * @param labelledImages the images to add
+     */
+    public void appendImages(List<LabelledImage> labelledImages) {
+        middle.appendImages(labelledImages);
     }
 
     public void setImages(List<LabelledImage> labelledImages) {
         clear();
-        for (LabelledImage labelledImage : labelledImages) {
-            middle.addImage(labelledImage.getName(), labelledImage.getImage());
-        }
+        middle.addImages(labelledImages);
     }
     
     public void clear() {
@@ -102,6 +110,16 @@ public class ThumbnailView extends JPanel {
         middle.removeThumbnail(name);
     }
 
+    /**
+     * Replaces an image with a newer copy of itself, in the same place in the strip, so that
+     * its thumbnail is loaded again.
+     * 
+     * @param image the new copy of the image
+     */
+    public void replaceImage(LabelledImage image) {
+        middle.replaceImage(image);
+    }
+
     public void setThumbnailImage(String name) {
         middle.setThumbnailImage(name);
     }
@@ -109,7 +127,11 @@ public class ThumbnailView extends JPanel {
     private class FilmStrip extends JPanel implements MouseListener {
         private static final long serialVersionUID = 1L;
         
-        // Storage for the thumbnails.
+        // The number of thumbnails kept in memory. Thumbnails are only loaded when they are
+        // scrolled into view, so this just needs to cover a few screens' worth.
+        private static final int THUMBNAIL_CACHE_SIZE = 32;
+        
+        private final List<LabelledImage> images;
         private final Map<String, BufferedImage> thumbnails;
         private int index = 0;
         private int selectedIndex = -1;
@@ -117,23 +139,27 @@ public class ThumbnailView extends JPanel {
         public FilmStrip() {
             super();
             
-            // Use a linked hashmap to preserve the ordering.
-            thumbnails = new LinkedHashMap<String, BufferedImage>();
+            images = new ArrayList<LabelledImage>();
+            thumbnails = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                    return size() > THUMBNAIL_CACHE_SIZE;
+                }
+            };
             
             this.addMouseListener(this);
         }
 
         public void setThumbnailImage(String imageName) {
-            selectedIndex = 0;
-            for (String name : thumbnails.keySet()) {
-                if (name.equals(imageName)) {
-                    break;
-                }
-                selectedIndex++;
+            selectedIndex = indexOf(imageName);
+            if (selectedIndex < 0) {
+                selectedIndex = images.size();
             }
 
             // If we need to move the normal index, do so. Bit naughty to do it here though...
-            if (selectedIndex < thumbnails.size() &&
+            if (selectedIndex < images.size() &&
                     (index < (selectedIndex - 3) || index > selectedIndex)) {
                 index = Math.max(0, selectedIndex - 3);
             }
@@ -143,10 +169,9 @@ public class ThumbnailView extends JPanel {
 
         @Override
         protected void paintComponent(Graphics g) {            
-            List<BufferedImage> images = new ArrayList<BufferedImage>(thumbnails.values());
             int xcoord = 0;
             for (int i = index; i < index + 4 && i < images.size(); i++) {
-                g.drawImage(images.get(i), xcoord, 0, null);
+                g.drawImage(getThumbnail(images.get(i)), xcoord, 0, null);
                 
                 // Border.
                 if (i == selectedIndex) {
@@ -169,36 +194,37 @@ public class ThumbnailView extends JPanel {
             g.fillRect(xcoord, 0, remainingWidth, COMPONENT_HEIGHT);
         }
 
-        public void addImage(String name, BufferedImage image) {
-            // Scale image to have a height of COMPONENT_HEIGHT and a width of 175.
-            int width = image.getWidth();
-            int height = image.getHeight();
-
-            if (width > THUMBNAIL_WIDTH || height > COMPONENT_HEIGHT) {
-                width = (width > THUMBNAIL_WIDTH) 
-                        ? THUMBNAIL_WIDTH 
-                        : ((width * COMPONENT_HEIGHT) / height);
-                height = (height > COMPONENT_HEIGHT)
-                        ? COMPONENT_HEIGHT
-                        : (height * THUMBNAIL_WIDTH) / width;
-            } else if (width < THUMBNAIL_WIDTH || height < COMPONENT_HEIGHT) {
-                width = (width < THUMBNAIL_WIDTH)
-                        ? THUMBNAIL_WIDTH
-                        : ((width * height) / COMPONENT_HEIGHT);
-                height = (height < COMPONENT_HEIGHT)
-                        ? COMPONENT_HEIGHT
-                        : (height * width) / THUMBNAIL_WIDTH;
+        /**
+         * Returns the thumbnail for an image, loading it if it isn't already in memory.
+         */
+        private BufferedImage getThumbnail(LabelledImage image) {
+            BufferedImage thumbnail = thumbnails.get(image.getName());
+            if (thumbnail == null) {
+                thumbnail = image.getThumbnail();
+                if (thumbnail == null) {
+                    // The image couldn't be loaded, so show a blank thumbnail in its place.
+                    thumbnail = new BufferedImage(THUMBNAIL_WIDTH, COMPONENT_HEIGHT, 
+                            BufferedImage.TYPE_INT_RGB);
+                }
+                thumbnails.put(image.getName(), thumbnail);
+            }
+            return thumbnail;
+        }
+
+        public void addImage(LabelledImage image) {
+            addImages(Collections.singletonList(image));
+        }
+
+        public void addImages(List<LabelledImage> newImages) {
+            if (newImages.isEmpty()) {
+                return;
             }
             
-            BufferedImage imageThumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            Image scaledImage = image.getScaledInstance(width, height, Image.SCALE_FAST);
-            imageThumbnail.getGraphics().drawImage(scaledImage, 0, 0, this);
-            
-            thumbnails.put(name, imageThumbnail);
-            selectedIndex = thumbnails.size() - 1;
+            images.addAll(newImages);
+            selectedIndex = images.size() - 1;
 
             // If we need to move the normal index, do so. Bit naughty to do it here though...
-            if (selectedIndex < thumbnails.size() &&
+            if (selectedIndex < images.size() &&
                     (index < (selectedIndex - 3) || index > selectedIndex)) {
                 index = Math.max(0, selectedIndex - 3);
             }
@@ -206,6 +232,11 @@ public class ThumbnailView extends JPanel {
             repaint();
         }
         
+        public void appendImages(List<LabelledImage> newImages) {
+            images.addAll(newImages);
+            repaint();
+        }
+        
         public void right() {
             index++;
             repaint();
@@ -220,29 +251,51 @@ public class ThumbnailView extends JPanel {
 
         public void clear() {
             index = 0;
+            images.clear();
             thumbnails.clear();
             
             repaint();
         }
 
         public void removeThumbnail(String thumbnailName) {
-            int index = 0;
-            for (String name : thumbnails.keySet()) {
-                if (name.equals(thumbnailName)) {
-                    break;
-                }
-                index++;
+            int index = indexOf(thumbnailName);
+            if (index < 0) {
+                return;
             }
             
             if (selectedIndex == index) {
                 selectedIndex = -1;
+            } else if (selectedIndex > index) {
+                selectedIndex--;
             }
             
+            images.remove(index);
             thumbnails.remove(thumbnailName);
             
             repaint();
         }
 
+        public void replaceImage(LabelledImage image) {
+            int index = indexOf(image.getName());
+            if (index < 0) {
+                return;
+            }
+
+            images.set(index, image);
+            thumbnails.remove(image.getName());
+
+            repaint();
+        }
+
+        private int indexOf(String imageName) {
+            for (int i = 0; i < images.size(); i++) {
+                if (images.get(i).getName().equals(imageName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
         private boolean withinBounds(int x, int y) {
             return x >= 0 && x <= this.getWidth() && y >= 0 && y <= this.getHeight();
         }
@@ -258,18 +311,16 @@ public class ThumbnailView extends JPanel {
             
             // Work out which image was clicked on:
             int imageIndex = x / THUMBNAIL_WIDTH + index;
-            if (imageIndex >= thumbnails.size()) {
+            if (imageIndex >= images.size()) {
                 return;
             }
             
-            // Grab the name.
-            List<String> names = new ArrayList<String>(thumbnails.keySet());
-            setImage(names.get(imageIndex));
+            setImage(images.get(imageIndex).getName());
             
             selectedIndex = imageIndex;
 
             // If we need to move the normal index, do so. Bit naughty to do it here though...
-            if (selectedIndex < thumbnails.size() &&
+            if (selectedIndex < images.size() &&
                     (index < (selectedIndex - 3) || index > selectedIndex)) {
                 index = Math.max(0, selectedIndex - 3);
             }
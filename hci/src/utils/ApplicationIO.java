@@ -1,37 +1,49 @@
 package src.utils;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import src.utils.DisplayImageReader.DecodedImage;
 
 /**
  * Handles application-related IO, including writing labels to a file and reading them
@@ -51,336 +63,893 @@ public final class ApplicationIO {
         }
     }; 
 
+    // Imported images are digested with this algorithm.
+    private static final String IMPORT_DIGEST_ALGORITHM = "SHA-256";
+    private static final int IMPORT_BUFFER_SIZE = 64 * 1024;
+
+    // The number of threads used to load the images of a collection.
+    private static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // Shared, as creating a factory means a service lookup. Label files never
+    // contain a DTD, so there is no need to support one.
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    // The same declaration that the old DOM Transformer wrote, so files are unchanged.
+    private static final String XML_DECLARATION = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+    // The line breaks and indentation used for each depth when pretty printing.
+    private static final String[] INDENTS = { "\n", "\n  ", "\n    ", "\n      ", 
+        "\n        " };
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // Held while a label file is read or written, so that the label journal's compactor
+    // can't interleave with a save of the same file.
+    static final Object LABEL_FILE_LOCK = new Object();
+
     private ApplicationIO() {
         // Non-instantiable.
     }
     
 
     /**
-     * Saves a {@link LabelledImage}.
+     * Saves a {@link LabelledImage} in the XML label format.
      * 
      * @param labelledImage the image to save
      */
     public static void saveImage(String rootDirectory, String collectionName, 
             LabelledImage labelledImage) throws IOException {
-        String labelName = labelledImage.getName() + ".labels";
-        File labelFile = new File(rootDirectory + "/Collections/" + collectionName +
-                "/labels/" + labelName);
-        
-        writeLabels(labelFile, labelledImage.getLabels());
+        saveImage(rootDirectory, collectionName, labelledImage, new CollectionSettings());
     }
-    
+
     /**
-     * Copies a file from one location to another.
+     * Saves a {@link LabelledImage} in the label format chosen in the collection's settings.
+     * Any label file for the image in the other format is removed, so that it can't be picked
+     * up instead the next time the collection is opened. Once saved, the image is no longer
+     * marked as modified.
      * 
-     * @param sourceFile the source file to copy from
-     * @param destFile the destination file to copy to
+     * @param rootDirectory the location of the root ImageLabeller directory
+     * @param collectionName the name of the collection the image is in
+     * @param labelledImage the image to save
+     * @param settings the settings of the collection
+     */
+    public static void saveImage(String rootDirectory, String collectionName, 
+            LabelledImage labelledImage, CollectionSettings settings) throws IOException {
+        long generation = labelledImage.getGeneration();
+        saveLabels(rootDirectory, collectionName, labelledImage.getName(), 
+                labelledImage.getLabelsToSave(), settings);
+        labelledImage.markSaved(generation);
+    }
+
+    /**
+     * Saves a copy of an image's labels, in the label format chosen in the collection's
+     * settings. Unlike {@link #saveImage}, this can be called from any thread.
      * 
-     * @throws IOException if an IO-related exception occurs while trying to copy
+     * @param rootDirectory the location of the root ImageLabeller directory
+     * @param collectionName the name of the collection the image is in
+     * @param imageName the name of the image
+     * @param labels the labels to save
+     * @param settings the settings of the collection
      */
-    public static void copyFile(File sourceFile, File destFile) throws IOException {
-        FileChannel source = null;
-        FileChannel destination = null;
+    public static void saveLabels(String rootDirectory, String collectionName, String imageName,
+            List<Polygon> labels, CollectionSettings settings) throws IOException {
+        File labelsDirectory = new File(rootDirectory + "/Collections/" + collectionName 
+                + "/labels");
+        synchronized (LABEL_FILE_LOCK) {
+            writeLabelFile(labelsDirectory, imageName, labels, settings);
+        }
+    }
 
-        try {
-            if (!destFile.exists()) {
-                destFile.createNewFile();
-            }
+    /**
+     * Writes the label file of an image in the given collection settings' format, and removes
+     * any label file for the image in the other format. Callers should hold
+     * {@link #LABEL_FILE_LOCK}.
+     * 
+     * @param labelsDirectory the collection's label directory
+     * @param imageName the name of the image
+     * @param labels the labels to write
+     * @param settings the settings of the collection
+     */
+    static void writeLabelFile(File labelsDirectory, String imageName, List<Polygon> labels,
+            CollectionSettings settings) throws IOException {
+        LabelFormat format = settings.getLabelFormat();
+        File labelFile = new File(labelsDirectory, imageName + format.getExtension());
 
-            source = new FileInputStream(sourceFile).getChannel();
-            destination = new FileOutputStream(destFile).getChannel();
-            destination.transferFrom(source, 0, source.size());
-        } finally {
-            if (source != null) {
-                source.close();
+        if (format == LabelFormat.BINARY) {
+            writeBinaryLabels(labelFile, labels);
+        } else {
+            writeLabels(labelFile, labels, settings.isPrettyPrint());
+        }
+
+        for (LabelFormat otherFormat : LabelFormat.values()) {
+            if (otherFormat != format) {
+                new File(labelsDirectory, imageName + otherFormat.getExtension()).delete();
             }
-            if (destination != null) {
-                destination.close();
+        }
+    }
+
+    /**
+     * Reads the label file of an image, in whichever format it was saved. Callers should hold
+     * {@link #LABEL_FILE_LOCK}.
+     * 
+     * @param labelsDirectory the collection's label directory
+     * @param imageName the name of the image
+     * 
+     * @return the image's labels, or an empty map if it has no label file
+     * 
+     * @throws LabelParseException if the label file can't be parsed
+     */
+    static Map<String, Polygon> readLabelFile(File labelsDirectory, String imageName) 
+            throws LabelParseException {
+        File labelFile = null;
+        for (LabelFormat format : LabelFormat.values()) {
+            File file = new File(labelsDirectory, imageName + format.getExtension());
+            if (file.exists() && (labelFile == null 
+                    || file.lastModified() > labelFile.lastModified())) {
+                labelFile = file;
             }
         }
+        return (labelFile != null) ? readLabels(labelFile) : new HashMap<String, Polygon>();
     }
-    
+
     /**
-     * Writes a given collection name and image name to the settings file.
+     * Reads the label file of an image as it is now on disk, in whichever format it was saved.
+     * Can be called from any thread.
      * 
-     * @param rootDirectory the location of the root ImageLabeller directory
-     * @param collectionName the name of the collection to write
-     * @param imageName the name of the image to write
+     * @param labelsDirectory the collection's label directory
+     * @param imageName the name of the image
+     * 
+     * @return the image's labels, or an empty map if it has no label file
+     * 
+     * @throws LabelParseException if the label file can't be parsed
      */
-    public static boolean writeToSettingsFile(String rootDirectory, String collectionName, 
-            String imageName) {
-        File settingsFile = new File(rootDirectory + "/.settings");
-        if (!settingsFile.canWrite()) {
-            System.err.println("Cannot write to Settings file.");
-            return false;
+    public static Map<String, Polygon> readSavedLabels(File labelsDirectory, String imageName)
+            throws LabelParseException {
+        synchronized (LABEL_FILE_LOCK) {
+            return readLabelFile(labelsDirectory, imageName);
         }
+    }
 
-        try {
-            BufferedWriter out = new BufferedWriter(new FileWriter(settingsFile, false));
-
-            out.write(collectionName);
-            if (!collectionName.isEmpty()) {
-                out.newLine();
-                out.write(imageName);
-                if (!imageName.isEmpty()) {
-                    out.newLine();
+    /**
+     * Deletes the label files of an image, in whichever formats they exist.
+     * 
+     * @param rootDirectory the location of the root ImageLabeller directory
+     * @param collectionName the name of the collection the image is in
+     * @param imageName the name of the image
+     * 
+     * @return false if a label file exists but couldn't be deleted, true otherwise
+     */
+    public static boolean deleteLabels(String rootDirectory, String collectionName, 
+            String imageName) {
+        boolean deleted = true;
+        synchronized (LABEL_FILE_LOCK) {
+            for (LabelFormat format : LabelFormat.values()) {
+                File labelFile = new File(rootDirectory + "/Collections/" + collectionName + 
+                        "/labels/" + imageName + format.getExtension());
+                if (labelFile.exists() && !labelFile.delete()) {
+                    deleted = false;
                 }
             }
-            out.close();
-        } catch (IOException e) {
-            System.err.println("Cannot write to Settings file.");
-            return false;
         }
+        return deleted;
+    }
+    
+    /**
+     * Imports an image file into a collection. The source file is read once, and as its bytes
+     * are read they are copied to the destination and added to a digest of the file's contents.
+     * The copy is then decoded at display size, while it is still in the operating system's
+     * file cache. The decoded image is put in the shared {@link ImageCache}, ready to be
+     * displayed. If the file cannot be decoded, the copy is deleted.
+     * 
+     * @param sourceFile the image file to import
+     * @param destFile the file in the collection to copy it to
+     * 
+     * @throws IOException if the file cannot be copied or is not a supported image
+     */
+    public static ImportedImage importImage(File sourceFile, File destFile) throws IOException {
+        MessageDigest digest = createImageDigest();
+        DecodedImage image = copyAndDecode(sourceFile, destFile, digest);
 
-        return true;
+        ImageCache.getSharedCache().put(destFile, image.displayImage);
+        LabelledImage labelledImage = new LabelledImage(destFile, 
+                new Dimension(image.width, image.height), new ArrayList<Polygon>());
+        return new ImportedImage(labelledImage, toHexString(digest.digest()), null);
     }
 
     /**
-     * Loads data from the setting file, returning a pair of the collection
-     * name and (optionally) the image name.
+     * Copies an image file, digesting it as it is read, and decodes the copy at display size.
+     * The copy is decoded from the file, as {@link DisplayImageReader#read(File)} does, so
+     * even images much larger than the heap can be imported. If the file cannot be decoded,
+     * the copy is deleted.
      * 
-     * @param rootDirectory the location of the root ImageLabeller directory
+     * @param sourceFile the image file to copy
+     * @param destFile the file to copy it to
+     * @param digest the digest to add the file's contents to
      * 
-     * @return a list of the collection name and either the image name if it
-     *         exists, or null otherwise
+     * @throws IOException if the file cannot be copied or is not a supported image
      */
-    public static List<String> loadSettingsFile(String rootDirectory) {
-        File settingsFile = new File(rootDirectory + "/.settings");
-        if (!settingsFile.exists() || !settingsFile.canRead()) {
-            return null;
+    static DecodedImage copyAndDecode(File sourceFile, File destFile, MessageDigest digest) 
+            throws IOException {
+        InputStream source = new FileInputStream(sourceFile);
+        OutputStream destination = null;
+        DecodedImage image = null;
+        try {
+            destination = new FileOutputStream(destFile);
+            byte[] buffer = new byte[IMPORT_BUFFER_SIZE];
+            int count;
+            while ((count = source.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+                destination.write(buffer, 0, count);
+            }
+            destination.close();
+            destination = null;
+
+            image = DisplayImageReader.decode(destFile);
+        } finally {
+            source.close();
+            if (destination != null) {
+                destination.close();
+            }
+            if (image == null) {
+                // Make sure to clean up the bad file.
+                destFile.delete();
+            }
         }
-        
-        String collectionName;
-        String imageName;
+        return image;
+    }
 
-        BufferedReader in;
+    /**
+     * Returns the digest of a file's contents, without copying or decoding it.
+     * 
+     * @param file the file to digest
+     * 
+     * @throws IOException if the file cannot be read
+     */
+    static String digestFile(File file) throws IOException {
+        MessageDigest digest = createImageDigest();
+        InputStream in = new FileInputStream(file);
         try {
-            in = new BufferedReader(new FileReader(settingsFile));
-            collectionName = in.readLine();
-        } catch (IOException e) {
-            return null;
+            byte[] buffer = new byte[IMPORT_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
         }
+        return toHexString(digest.digest());
+    }
 
+    /**
+     * Creates a digest for identifying the contents of image files.
+     */
+    static MessageDigest createImageDigest() throws IOException {
         try {
-            imageName = in.readLine();
-        } catch (IOException e) {
-            // An image name isn't compulsory, so we can ignore this exception.
-            imageName = null;
+            return MessageDigest.getInstance(IMPORT_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IOException("Unable to compute image digest: " + e.getMessage());
         }
-        
-        List<String> collectionInformation = new ArrayList<String>(2);
-        collectionInformation.add(collectionName);
-        collectionInformation.add(imageName);
-        
-        return collectionInformation;
     }
 
+    static String toHexString(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Opens a collection, loading all of its images and their labels. Any files that fail to
+     * load are skipped.
+     * 
+     * @param collectionRoot the root directory of the collection
+     */
     public static Map<String, LabelledImage> openCollection(File collectionRoot) {
+        return openCollection(collectionRoot, new ArrayList<String>());
+    }
+
+    /**
+     * Opens a collection, loading all of its images and their labels. The image headers are
+     * read (and their label files parsed) in parallel on a pool of {@link #LOADER_THREADS} threads,
+     * but the returned map preserves the order of the image directory listing.
+     * 
+     * Any label edits left in the collection's journal are first written to the label files.
+     * Images and label files that haven't changed since the collection's manifest was last
+     * written aren't read at all: their dimensions and thumbnails come from the manifest, and
+     * their labels are only read when they are first used. The manifest is rewritten once the
+     * collection has been opened.
+     * 
+     * @param collectionRoot the root directory of the collection
+     * @param failures a list to which a message is added for each file that failed to load
+     */
+    public static Map<String, LabelledImage> openCollection(File collectionRoot, 
+            List<String> failures) {
         Map<String, LabelledImage> collectionEntries = new LinkedHashMap<String, LabelledImage>();
         
+        // Bring the label files up to date with any edits that weren't folded into them.
+        LabelJournal.replay(collectionRoot);
+        
         File imageDir = new File(collectionRoot.getAbsolutePath() + "/images");
         File labelsDir = new File(collectionRoot.getAbsolutePath() + "/labels");
-        FileFilter fileFilter = new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isFile();
-            }
-        };
         
-        File[] imageFiles = imageDir.listFiles(fileFilter);
-        File[] labelFiles = labelsDir.listFiles(fileFilter);
+        File[] imageFiles = imageDir.listFiles(FILE_FILTER);
+        final Map<String, File> labelFiles = indexLabelFiles(labelsDir.listFiles(FILE_FILTER));
         
         if (imageFiles == null || imageFiles.length == 0) {
             return collectionEntries;
         }
         
-        for (int i = 0; i < imageFiles.length; i++) {
-            File imageFile = imageFiles[i];
-            String imageName = stripExtension(imageFile.getName());
-            String extension = getExtension(imageFile.getName());
-            
-            BufferedImage image;
-            try {
-                image = ImageIO.read(imageFile);
-            } catch (IOException e) {
-                System.err.println("Unable to load image file: " + imageFile.getName());
-                continue;
-            }
-            
-            Map<String, Polygon> labels = null;
-            for (int j = 0; j < labelFiles.length; j++) {
-                File labelFile = labelFiles[j];
-                if (imageName.equals(stripExtension(labelFile.getName()))) {
-                    try {
-                        labels = ApplicationIO.readLabels(labelFile);
-                    } catch (LabelParseException e) {
-                        System.err.println("Unable to read labels");
+        final Map<String, CollectionManifest.Entry> manifest = 
+            CollectionManifest.read(collectionRoot);
+        final ThumbnailStore thumbnailStore = new ThumbnailStore(collectionRoot);
+        List<CollectionManifest.Entry> manifestEntries = 
+            new ArrayList<CollectionManifest.Entry>(imageFiles.length);
+        
+        ExecutorService loader = Executors.newFixedThreadPool(
+                Math.min(LOADER_THREADS, imageFiles.length));
+        try {
+            List<Future<LoadedImage>> results = 
+                new ArrayList<Future<LoadedImage>>(imageFiles.length);
+            for (final File imageFile : imageFiles) {
+                results.add(loader.submit(new Callable<LoadedImage>() {
+                    @Override
+                    public LoadedImage call() throws IOException {
+                        return loadImage(imageFile, 
+                                labelFiles.get(stripExtension(imageFile.getName())),
+                                manifest.get(imageFile.getName()), thumbnailStore);
                     }
+                }));
+            }
+
+            // Collect the results in submission order, so the map is ordered as before.
+            for (int i = 0; i < imageFiles.length; i++) {
+                LoadedImage loadedImage;
+                try {
+                    loadedImage = results.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println("Unable to load image file: " + imageFiles[i].getName());
+                    failures.add("Unable to load image file: " + imageFiles[i].getName());
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                     break;
                 }
+                
+                if (loadedImage.labelError != null) {
+                    System.err.println(loadedImage.labelError);
+                    failures.add(loadedImage.labelError);
+                }
+                collectionEntries.put(loadedImage.image.getName(), loadedImage.image);
+                manifestEntries.add(loadedImage.manifestEntry);
             }
-            
-            LabelledImage labelledImage;
-            if (labels != null) {
-                labelledImage = new LabelledImage(imageName + extension, image, 
-                        new ArrayList<Polygon>(labels.values()));
-            } else {
-                labelledImage = new LabelledImage(imageName + extension, image);
-            }
-            
-            collectionEntries.put(imageName, labelledImage);
+        } finally {
+            loader.shutdownNow();
+        }
+        
+        try {
+            thumbnailStore.compact(manifestEntries);
+            CollectionManifest.write(collectionRoot, manifestEntries);
+        } catch (IOException e) {
+            System.err.println("Unable to update the collection manifest.");
+        }
+        
+        // Compacting the store may have moved the thumbnails.
+        for (CollectionManifest.Entry entry : manifestEntries) {
+            LabelledImage image = collectionEntries.get(stripExtension(entry.imageFileName));
+            image.setThumbnail(thumbnailStore, entry.thumbnailOffset, entry.thumbnailLength);
         }
         
         return collectionEntries;
     }
 
     /**
-     * Writes out a list of {@link Polygon}s to a specified file. The output
-     * file is written in XML.
+     * Indexes a collection's label files by the name of the image they belong to, so that
+     * each image's label file can be found without scanning the whole directory. If an image
+     * has label files in more than one format, the most recently written one is used.
      * 
-     * @param file the file to write to
-     * @param polygons the polygons that are to be recorded in the file
+     * @param labelFiles the label files in the collection, or null if there are none
+     */
+    private static Map<String, File> indexLabelFiles(File[] labelFiles) {
+        if (labelFiles == null) {
+            return new HashMap<String, File>();
+        }
+
+        Map<String, File> index = new HashMap<String, File>(labelFiles.length * 2);
+        for (File labelFile : labelFiles) {
+            File previous = index.put(stripExtension(labelFile.getName()), labelFile);
+            if (previous != null && previous.lastModified() > labelFile.lastModified()) {
+                index.put(stripExtension(labelFile.getName()), previous);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Reads the label files in a folder that belong to the images of a collection, such as
+     * labels made elsewhere for the whole collection. A label file belongs to an image if it
+     * has the image's name and the extension of one of the {@link LabelFormat}s; if an image
+     * has more than one, the most recently written one is used. The files are parsed in
+     * parallel on a pool of {@link #LOADER_THREADS} threads.
+     * 
+     * @param folder the folder of label files
+     * @param imageNames the names of the images in the collection
+     * @param failures a list to which a message is added for each label file that couldn't
+     *        be parsed
+     * @param unmatchedFiles a list to which the label files that belong to no image are added
+     * 
+     * @return the labels of each image that has a label file, keyed by image name
      * 
-     * @throws IOException
-     * @throws IllegalStateException
+     * @throws IOException if the folder cannot be listed
      */
-    public static void writeLabels(File file, List<Polygon> polygons) throws IOException {
-        StreamResult result = new StreamResult(new FileWriter(file));
+    public static Map<String, Map<String, Polygon>> readLabelFolder(File folder, 
+            Set<String> imageNames, List<String> failures, List<File> unmatchedFiles) 
+            throws IOException {
+        File[] files = folder.listFiles(FILE_FILTER);
+        if (files == null) {
+            throw new IOException("Unable to list the folder " + folder.getName());
+        }
+
+        List<File> labelFiles = new ArrayList<File>();
+        for (File file : files) {
+            for (LabelFormat format : LabelFormat.values()) {
+                if (file.getName().endsWith(format.getExtension())) {
+                    if (imageNames.contains(stripExtension(file.getName()))) {
+                        labelFiles.add(file);
+                    } else {
+                        unmatchedFiles.add(file);
+                    }
+                    break;
+                }
+            }
+        }
+
+        final Map<String, File> index = indexLabelFiles(
+                labelFiles.toArray(new File[labelFiles.size()]));
+        Map<String, Map<String, Polygon>> labels = 
+            new LinkedHashMap<String, Map<String, Polygon>>();
+        if (index.isEmpty()) {
+            return labels;
+        }
 
-        Document document;
+        List<String> matchedNames = new ArrayList<String>(index.keySet());
+        Collections.sort(matchedNames);
+        ExecutorService parser = Executors.newFixedThreadPool(
+                Math.min(LOADER_THREADS, matchedNames.size()));
         try {
-            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-        } catch (ParserConfigurationException e) {
-            // If this happens without us actually configuring the parser, the
-            // world is doomed anyway.
-            throw new IllegalStateException();
+            List<Future<Map<String, Polygon>>> results = 
+                new ArrayList<Future<Map<String, Polygon>>>(matchedNames.size());
+            for (final String imageName : matchedNames) {
+                results.add(parser.submit(new Callable<Map<String, Polygon>>() {
+                    @Override
+                    public Map<String, Polygon> call() throws LabelParseException {
+                        return readLabels(index.get(imageName));
+                    }
+                }));
+            }
+
+            for (int i = 0; i < matchedNames.size(); i++) {
+                String imageName = matchedNames.get(i);
+                try {
+                    labels.put(imageName, results.get(i).get());
+                } catch (ExecutionException e) {
+                    failures.add("Unable to read labels: " + index.get(imageName).getName());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            parser.shutdownNow();
         }
-        Node mainNode = document.createElement("ImageLabels");
+        return labels;
+    }
 
-        for (Polygon polygon : polygons) {
-            Node polygonNode = document.createElement("Label");
-            Node nameNode = document.createElement("Name");
-            nameNode.setTextContent(polygon.getName());
+    /**
+     * Reads the dimensions of an image from its header, without decoding any pixels.
+     * 
+     * @param imageFile the image file to read
+     * 
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static Dimension readImageSize(File imageFile) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(imageFile);
+        if (input == null) {
+            throw new IOException("Unable to open image file: " + imageFile.getName());
+        }
 
-            Node pointsNode = document.createElement("Points");
-            for (Point point : polygon.getPoints()) {
-                Node pointNode = document.createElement("Point");
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader for image file: " + imageFile.getName());
+            }
 
-                Node xNode = document.createElement("x");
-                Node yNode = document.createElement("y");
-                xNode.setTextContent(Integer.toString(point.getX()));
-                yNode.setTextContent(Integer.toString(point.getY()));
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+    }
 
-                pointNode.appendChild(xNode);
-                pointNode.appendChild(yNode);
+    /**
+     * Loads a single image and, if there is one, its label file. If the image is unchanged
+     * since its manifest entry was recorded, nothing is read from it; otherwise it is decoded
+     * once at display size to find its size and to store its thumbnail. Likewise, unchanged
+     * label files are left to be read when they are first needed, and any others are parsed
+     * now. Called from the collection loader threads.
+     * 
+     * @param imageFile the image file to load
+     * @param labelFile the image's label file, or null if it has none
+     * @param entry the image's manifest entry, or null if it has none
+     * @param thumbnailStore the collection's thumbnail store
+     * 
+     * @throws IOException if the image cannot be read
+     */
+    private static LoadedImage loadImage(File imageFile, File labelFile, 
+            CollectionManifest.Entry entry, ThumbnailStore thumbnailStore) throws IOException {
+        CollectionManifest.Entry newEntry = new CollectionManifest.Entry();
+        newEntry.imageFileName = imageFile.getName();
+        newEntry.imageSize = imageFile.length();
+        newEntry.imageModified = imageFile.lastModified();
 
-                pointsNode.appendChild(pointNode);
+        if (entry != null && entry.matchesImage(imageFile)) {
+            newEntry.width = entry.width;
+            newEntry.height = entry.height;
+            newEntry.thumbnailOffset = entry.thumbnailOffset;
+            newEntry.thumbnailLength = entry.thumbnailLength;
+        } else {
+            BufferedImage displayImage;
+            ImageInputStream input = ImageIO.createImageInputStream(imageFile);
+            if (input == null) {
+                throw new IOException("Unable to open image file: " + imageFile.getName());
             }
+            try {
+                DecodedImage image = DisplayImageReader.read(input, imageFile.getName());
+                displayImage = image.displayImage;
+                newEntry.width = image.width;
+                newEntry.height = image.height;
+            } finally {
+                input.close();
+            }
+            
+            byte[] thumbnail = ThumbnailStore.encode(
+                    ThumbnailStore.createThumbnail(displayImage));
+            newEntry.thumbnailOffset = thumbnailStore.append(thumbnail);
+            newEntry.thumbnailLength = thumbnail.length;
+        }
+        Dimension size = new Dimension(newEntry.width, newEntry.height);
+
+        if (entry != null && labelFile != null && entry.matchesLabels(labelFile)) {
+            newEntry.setLabels(labelFile, entry.labelCount);
+            return new LoadedImage(
+                    new LabelledImage(imageFile, size, labelFile, entry.labelCount),
+                    newEntry, null);
+        }
 
-            polygonNode.appendChild(nameNode);
-            polygonNode.appendChild(pointsNode);
+        Map<String, Polygon> labels = null;
+        String labelError = null;
+        if (labelFile != null) {
+            try {
+                labels = ApplicationIO.readLabels(labelFile);
+            } catch (LabelParseException e) {
+                labelError = "Unable to read labels: " + labelFile.getName();
+            }
+        }
 
-            mainNode.appendChild(polygonNode);
+        LabelledImage labelledImage;
+        if (labels != null) {
+            labelledImage = new LabelledImage(imageFile, size, 
+                    new ArrayList<Polygon>(labels.values()));
+            newEntry.setLabels(labelFile, labels.size());
+        } else {
+            labelledImage = new LabelledImage(imageFile, size, new ArrayList<Polygon>());
+            newEntry.setLabels(labelFile, (labelFile != null) ? -1 : 0);
         }
 
-        document.appendChild(mainNode);
+        return new LoadedImage(labelledImage, newEntry, labelError);
+    }
 
-        Transformer transformer;
-        try {
-            transformer = TransformerFactory.newInstance().newTransformer();
-        } catch (TransformerFactoryConfigurationError e) {
-            // As above - no configuration has been done, so we're doomed if
-            // this is thrown.
-            throw new IllegalStateException();
-        } catch (TransformerConfigurationException e) {
-            // As above - no configuration has been done, so we're doomed if
-            // this is thrown.
-            throw new IllegalStateException();
-        }
-
-        /*
-         * Uncomment the following to pretty up the XML. Not turned on by
-         * default as parsing whitespace filled XML in Java requires that you
-         * set up a schema (or it reads in the blank whitespace nodes), and I'm
-         * not that dedicated -_-.
-         */
-        // transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
-        // transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-        // transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        // transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount",
-        // "2");
+    /**
+     * Writes out a list of {@link Polygon}s to a specified file. The output
+     * file is written in XML.
+     * 
+     * @param file the file to write to
+     * @param polygons the polygons that are to be recorded in the file
+     * 
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeLabels(File file, List<Polygon> polygons) throws IOException {
+        writeLabels(file, polygons, false);
+    }
+
+    /**
+     * Writes out a list of {@link Polygon}s to a specified file. The output
+     * file is written in XML, streamed straight to the file without building
+     * a document first.
+     * 
+     * @param file the file to write to
+     * @param polygons the polygons that are to be recorded in the file
+     * @param prettyPrint whether to put each element on its own, indented line
+     * 
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeLabels(File file, List<Polygon> polygons, boolean prettyPrint) 
+            throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), 
+                "UTF-8"), WRITE_BUFFER_SIZE);
 
-        DOMSource source = new DOMSource(document);
         try {
-            transformer.transform(source, result);
-        } catch (TransformerException e) {
+            // Written by hand so the output matches what the old DOM writer produced.
+            out.write(XML_DECLARATION);
+
+            XMLStreamWriter writer;
+            synchronized (XML_OUTPUT_FACTORY) {
+                writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out);
+            }
+            writeLabels(writer, polygons, prettyPrint);
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
             // It's not really an IO exception, but close enough.
             throw new IOException(e.getMessage());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the labels as XML. Closing the writer is left to the caller.
+     * 
+     * @param writer the stream to write to
+     * @param polygons the polygons to write
+     * @param prettyPrint whether to put each element on its own, indented line
+     */
+    private static void writeLabels(XMLStreamWriter writer, List<Polygon> polygons, 
+            boolean prettyPrint) throws XMLStreamException {
+        if (prettyPrint) {
+            writer.writeCharacters("\n");
+        }
+        if (polygons.isEmpty()) {
+            writer.writeEmptyElement("ImageLabels");
+            newLine(writer, prettyPrint, 0);
+            return;
         }
 
-        result.getWriter().close();
+        writer.writeStartElement("ImageLabels");
+        for (Polygon polygon : polygons) {
+            newLine(writer, prettyPrint, 1);
+            writer.writeStartElement("Label");
+
+            newLine(writer, prettyPrint, 2);
+            writer.writeStartElement("Name");
+            writer.writeCharacters(polygon.getName());
+            writer.writeEndElement();
+
+            newLine(writer, prettyPrint, 2);
+            writer.writeStartElement("Points");
+            for (int i = 0; i < polygon.size(); i++) {
+                newLine(writer, prettyPrint, 3);
+                writer.writeStartElement("Point");
+
+                newLine(writer, prettyPrint, 4);
+                writer.writeStartElement("x");
+                writer.writeCharacters(Integer.toString(polygon.getX(i)));
+                writer.writeEndElement();
+
+                newLine(writer, prettyPrint, 4);
+                writer.writeStartElement("y");
+                writer.writeCharacters(Integer.toString(polygon.getY(i)));
+                writer.writeEndElement();
+
+                newLine(writer, prettyPrint, 3);
+                writer.writeEndElement();
+            }
+            newLine(writer, prettyPrint, 2);
+            writer.writeEndElement();
+
+            newLine(writer, prettyPrint, 1);
+            writer.writeEndElement();
+        }
+        newLine(writer, prettyPrint, 0);
+        writer.writeEndElement();
+        newLine(writer, prettyPrint, 0);
+    }
+
+    /**
+     * If pretty printing, starts a new line indented to the given depth.
+     */
+    private static void newLine(XMLStreamWriter writer, boolean prettyPrint, int depth)
+            throws XMLStreamException {
+        if (prettyPrint) {
+            writer.writeCharacters(INDENTS[depth]);
+        }
     }
 
     /**
      * Reads in an XML document from a specified file, and returns a hashmap of
-     * polygon names to {@link Polygon}s, extracted from the file.
+     * polygon names to {@link Polygon}s, extracted from the file. The file is
+     * streamed with a pull parser, so the coordinates are read straight into
+     * arrays without building a document tree.
      * 
      * @param file the file to read the data from
      * 
      * @throws LabelParseException if an error occurs while parsing
      */
     public static Map<String, Polygon> readLabels(File file) throws LabelParseException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        Document document;
+        InputStream in = null;
+        XMLStreamReader reader = null;
 
         try {
-            document = factory.newDocumentBuilder().parse(file);
-        } catch (Exception e) {
-            // Naughty to catch plain Exception, but we are only currently
-            // interested in giving the user a "bad parse" error.
+            in = new BufferedInputStream(new FileInputStream(file));
+
+            // Files in the binary format are recognised by their magic number.
+            byte[] header = new byte[BinaryLabelFormat.MAGIC.length];
+            in.mark(header.length);
+            int headerLength = in.read(header);
+            in.reset();
+            if (BinaryLabelFormat.hasMagic(header, headerLength)) {
+                return BinaryLabelFormat.read(readFully(in, file.length()));
+            }
+
+            // XMLInputFactory isn't guaranteed to be thread-safe, and the collection loader
+            // reads label files from several threads.
+            synchronized (XML_INPUT_FACTORY) {
+                reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            }
+
+            return readLabels(reader);
+        } catch (IOException e) {
+            throw new LabelParseException("Unable to parse file.");
+        } catch (XMLStreamException e) {
+            throw new LabelParseException("Unable to parse file.");
+        } catch (NumberFormatException e) {
             throw new LabelParseException("Unable to parse file.");
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+                if (in != null) {
+                    in.close();
+                }
+            } catch (Exception e) {
+                // Nothing useful can be done if closing fails.
+            }
+        }
+    }
+
+    /**
+     * Writes out a list of {@link Polygon}s to a specified file, in the
+     * compact binary label format. The binary format also records the tags
+     * of each polygon. {@link #readLabels(File)} recognises either format.
+     * 
+     * @param file the file to write to
+     * @param polygons the polygons that are to be recorded in the file
+     * 
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeBinaryLabels(File file, List<Polygon> polygons) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 
+                WRITE_BUFFER_SIZE);
+        try {
+            BinaryLabelFormat.write(out, polygons);
+        } finally {
+            out.close();
         }
+    }
 
-        NodeList labels = document.getDocumentElement().getChildNodes();
+    /**
+     * Reads the rest of a stream into an array.
+     * 
+     * @param in the stream to read
+     * @param expectedLength the expected number of bytes, used to size the array
+     */
+    private static byte[] readFully(InputStream in, long expectedLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) expectedLength);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
 
+    /**
+     * Reads the labels from an XML stream. The stream must match the format
+     * written by {@link #writeLabels(File, List)}:
+     * {@code ImageLabels/Label/(Name, Points/Point/(x, y))}, with at least one
+     * point per label. Whitespace between elements is ignored.
+     * 
+     * @param reader the stream to read from, positioned at the start of the document
+     */
+    private static Map<String, Polygon> readLabels(XMLStreamReader reader) 
+            throws XMLStreamException, LabelParseException {
         Map<String, Polygon> polygons = new HashMap<String, Polygon>();
 
-        for (int i = 0; i < labels.getLength(); i++) {
-            Node label = labels.item(i);
+        // Reused between labels, and grown as necessary.
+        int[] xs = new int[16];
+        int[] ys = new int[16];
 
-            NodeList labelNodes = label.getChildNodes();
-            if (labelNodes.getLength() != 2) {
-                throw new LabelParseException("Unable to parse file.");
-            }
+        expectStartElement(reader, "ImageLabels");
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            requireElement(reader, "Label");
+
+            expectStartElement(reader, "Name");
+            String name = reader.getElementText();
 
-            String name = labelNodes.item(0).getTextContent();
+            expectStartElement(reader, "Points");
+            int size = 0;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                requireElement(reader, "Point");
+
+                if (size == xs.length) {
+                    xs = Arrays.copyOf(xs, size * 2);
+                    ys = Arrays.copyOf(ys, size * 2);
+                }
 
-            NodeList pointsNodes = labelNodes.item(1).getChildNodes();
-            if (pointsNodes.getLength() < 1) {
+                expectStartElement(reader, "x");
+                xs[size] = Integer.parseInt(reader.getElementText());
+                expectStartElement(reader, "y");
+                ys[size] = Integer.parseInt(reader.getElementText());
+                size++;
+
+                expectEndElement(reader, "Point");
+            }
+            if (size < 1) {
                 throw new LabelParseException("Unable to parse file.");
             }
 
-            List<Point> points = new ArrayList<Point>(pointsNodes.getLength());
-            for (int index = 0; index < pointsNodes.getLength(); index++) {
-                Node pointNode = pointsNodes.item(index);
+            expectEndElement(reader, "Label");
 
-                int x;
-                int y;
+            polygons.put(name, new Polygon(name, xs, ys, size));
+        }
 
-                try {
-                    x = Integer.parseInt(pointNode.getChildNodes().item(0).getTextContent());
-                    y = Integer.parseInt(pointNode.getChildNodes().item(1).getTextContent());
-                } catch (NumberFormatException nfe) {
-                    throw new LabelParseException("Unable to parse file.");
-                }
+        return polygons;
+    }
 
-                points.add(new Point(x, y));
-            }
+    /**
+     * Moves the reader to the next start element, checking that it has the given name.
+     */
+    private static void expectStartElement(XMLStreamReader reader, String name)
+            throws XMLStreamException, LabelParseException {
+        if (reader.nextTag() != XMLStreamConstants.START_ELEMENT) {
+            throw new LabelParseException("Unable to parse file.");
+        }
+        requireElement(reader, name);
+    }
 
-            polygons.put(name, new Polygon(name, points));
+    /**
+     * Moves the reader to the next end element, checking that it has the given name.
+     */
+    private static void expectEndElement(XMLStreamReader reader, String name)
+            throws XMLStreamException, LabelParseException {
+        if (reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
+            throw new LabelParseException("Unable to parse file.");
         }
+        requireElement(reader, name);
+    }
 
-        return polygons;
+    /**
+     * Checks that the reader's current element has the given name.
+     */
+    private static void requireElement(XMLStreamReader reader, String name)
+            throws LabelParseException {
+        if (!name.equals(reader.getLocalName())) {
+            throw new LabelParseException("Unable to parse file.");
+        }
     }
 
     public static String stripExtension(String name) {
@@ -399,6 +968,56 @@ public final class ApplicationIO {
         return name.substring(extensionIndex, name.length());
     }
 
+    /**
+     * The result of loading a single image of a collection.
+     */
+    private static final class LoadedImage {
+        private final LabelledImage image;
+        private final CollectionManifest.Entry manifestEntry;
+        private final String labelError;
+
+        private LoadedImage(LabelledImage image, CollectionManifest.Entry manifestEntry, 
+                String labelError) {
+            this.image = image;
+            this.manifestEntry = manifestEntry;
+            this.labelError = labelError;
+        }
+    }
+
+    /**
+     * An image that has been imported into a collection, along with the digest of its file.
+     */
+    public static final class ImportedImage {
+        private final LabelledImage image;
+        private final String digest;
+        private final String duplicateOf;
+
+        ImportedImage(LabelledImage image, String digest, String duplicateOf) {
+            this.image = image;
+            this.digest = digest;
+            this.duplicateOf = duplicateOf;
+        }
+
+        public LabelledImage getImage() {
+            return image;
+        }
+
+        /**
+         * Returns the SHA-256 digest of the image file, as a lowercase hex string.
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * Returns the file name of an image already in the collection with the same contents,
+         * or null if the imported image's contents were new.
+         */
+        public String getDuplicateOf() {
+            return duplicateOf;
+        }
+    }
+
     /**
      * Represents an error that occurs while parsing a label file.
      */
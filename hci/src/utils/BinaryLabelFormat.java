@@ -0,0 +1,222 @@
+package src.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import src.utils.ApplicationIO.LabelParseException;
+
+/**
+ * Reads and writes the compact binary label format. A file starts with the magic number
+ * {@link #MAGIC} and a version byte, followed by the number of labels. Each label is then
+ * stored as its name, its tags, and its vertices.
+ *
+ * Strings are stored as their length followed by their UTF-8 bytes, and all counts and
+ * coordinates as variable-length integers (seven bits per byte, low bits first). Each vertex is
+ * stored as the difference from the one before it, zig-zag encoded so that small negative steps
+ * stay small, which means most vertices of a traced outline take two or three bytes.
+ */
+final class BinaryLabelFormat {
+    // Starts with a non-ASCII byte, so it can never be mistaken for the start of an XML file.
+    static final byte[] MAGIC = { (byte) 0x89, 'L', 'B', 'L' };
+    static final int VERSION = 1;
+
+    private BinaryLabelFormat() {
+        // Non-instantiable.
+    }
+
+    /**
+     * Checks whether the start of a file is the binary label format's magic number.
+     *
+     * @param header the first bytes of the file
+     * @param length the number of valid bytes in the header
+     */
+    static boolean hasMagic(byte[] header, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a list of polygons in the binary format. The stream is not closed.
+     *
+     * @param out the stream to write to, which should be buffered
+     * @param polygons the polygons to write
+     */
+    static void write(OutputStream out, List<Polygon> polygons) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarInt(out, polygons.size());
+
+        for (Polygon polygon : polygons) {
+            writeString(out, polygon.getName());
+
+            List<String> tags = polygon.getTags();
+            writeVarInt(out, tags.size());
+            for (String tag : tags) {
+                writeString(out, tag);
+            }
+
+            int size = polygon.size();
+            writeVarInt(out, size);
+            int previousX = 0;
+            int previousY = 0;
+            for (int i = 0; i < size; i++) {
+                int x = polygon.getX(i);
+                int y = polygon.getY(i);
+                writeVarInt(out, zigZag(x - previousX));
+                writeVarInt(out, zigZag(y - previousY));
+                previousX = x;
+                previousY = y;
+            }
+        }
+    }
+
+    /**
+     * Reads the polygons from the contents of a binary label file.
+     *
+     * @param data the whole contents of the file
+     *
+     * @throws LabelParseException if the data is not a valid binary label file
+     */
+    static Map<String, Polygon> read(byte[] data) throws LabelParseException {
+        if (!hasMagic(data, data.length) || data.length <= MAGIC.length
+                || data[MAGIC.length] != VERSION) {
+            throw new LabelParseException("Unable to parse file.");
+        }
+
+        Reader reader = new Reader(data, MAGIC.length + 1);
+        int polygonCount = reader.readCount();
+        Map<String, Polygon> polygons = new HashMap<String, Polygon>(polygonCount * 2);
+
+        // Reused between labels, and grown as necessary.
+        int[] xs = new int[16];
+        int[] ys = new int[16];
+
+        for (int i = 0; i < polygonCount; i++) {
+            String name = reader.readString();
+
+            int tagCount = reader.readCount();
+            String[] tags = new String[tagCount];
+            for (int j = 0; j < tagCount; j++) {
+                tags[j] = reader.readString();
+            }
+
+            int size = reader.readCount();
+            if (size < 1) {
+                throw new LabelParseException("Unable to parse file.");
+            }
+            if (size > xs.length) {
+                xs = new int[size];
+                ys = new int[size];
+            }
+            int x = 0;
+            int y = 0;
+            for (int j = 0; j < size; j++) {
+                x += unZigZag(reader.readVarInt());
+                y += unZigZag(reader.readVarInt());
+                xs[j] = x;
+                ys[j] = y;
+            }
+
+            Polygon polygon = new Polygon(name, xs, ys, size);
+            for (String tag : tags) {
+                polygon.addTag(tag);
+            }
+            polygons.put(name, polygon);
+        }
+
+        if (reader.position != data.length) {
+            throw new LabelParseException("Unable to parse file.");
+        }
+
+        return polygons;
+    }
+
+    private static void writeString(OutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Maps signed integers onto unsigned ones so that numbers close to zero, whatever their
+     * sign, have small encodings: 0, -1, 1, -2, 2... become 0, 1, 2, 3, 4...
+     */
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads values out of a byte array, failing cleanly on truncated data.
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        private Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        private int readVarInt() throws LabelParseException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position >= data.length) {
+                    throw new LabelParseException("Unable to parse file.");
+                }
+                int b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new LabelParseException("Unable to parse file.");
+        }
+
+        /**
+         * Reads a count, which can't be larger than the number of bytes left.
+         */
+        private int readCount() throws LabelParseException {
+            int count = readVarInt();
+            if (count < 0 || count > data.length - position) {
+                throw new LabelParseException("Unable to parse file.");
+            }
+            return count;
+        }
+
+        private String readString() throws LabelParseException {
+            int length = readCount();
+            String string;
+            try {
+                string = new String(data, position, length, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                // Every JVM has to support UTF-8.
+                throw new IllegalStateException();
+            }
+            position += length;
+            return string;
+        }
+    }
+}
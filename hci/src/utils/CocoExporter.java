@@ -0,0 +1,314 @@
+package src.utils;
+
+import java.awt.Dimension;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import src.utils.ApplicationIO.LabelParseException;
+
+/**
+ * Exports the labels of a collection in the COCO object detection format, which is a single
+ * JSON file listing the images, the categories of object, and an annotation for each label
+ * giving its outline, bounding box and area. Each label's name is used as its category.
+ *
+ * The file is streamed straight to disk, and only one image's labels are read at a time, so
+ * exporting a large collection needs no more memory than a small one. Labels are drawn on the
+ * image at its display size, so their coordinates are scaled up (or down) to pixels of the
+ * image file, which is what other tools expect.
+ *
+ * The label files are read as they are on disk, so any edits that haven't been saved must be
+ * passed in, and any left in the journal replayed, for them to be exported.
+ */
+public class CocoExporter {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File collectionRoot;
+
+    /**
+     * Creates an exporter for a collection.
+     *
+     * @param collectionRoot the root directory of the collection
+     */
+    public CocoExporter(File collectionRoot) {
+        this.collectionRoot = collectionRoot;
+    }
+
+    /**
+     * Writes the collection to a COCO JSON file, as its label files are on disk.
+     *
+     * @param outputFile the file to write
+     *
+     * @return what was exported
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public Summary export(File outputFile) throws IOException {
+        return export(outputFile, new HashMap<String, List<Polygon>>());
+    }
+
+    /**
+     * Writes the collection to a COCO JSON file. Images whose size can't be read, and label
+     * files that can't be parsed, are left out and listed in the summary. If the file can't
+     * be written, any part of it that was written is deleted.
+     *
+     * @param outputFile the file to write
+     * @param unsavedLabels the labels of any images that have been edited since they were last
+     *        saved, keyed by image name, which are exported instead of their label files; they
+     *        must not be changed until the export has finished
+     *
+     * @return what was exported
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public Summary export(File outputFile, Map<String, List<Polygon>> unsavedLabels)
+            throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(outputFile), "UTF-8"), WRITE_BUFFER_SIZE);
+        boolean written = false;
+        try {
+            Summary summary = export(new JsonWriter(out), unsavedLabels);
+            out.close();
+            written = true;
+            return summary;
+        } finally {
+            if (!written) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failing.
+                }
+                outputFile.delete();
+            }
+        }
+    }
+
+    private Summary export(JsonWriter writer, Map<String, List<Polygon>> unsavedLabels)
+            throws IOException {
+        File imagesDirectory = new File(collectionRoot, "images");
+        File labelsDirectory = new File(collectionRoot, "labels");
+
+        File[] imageFiles = imagesDirectory.listFiles(ApplicationIO.FILE_FILTER);
+        if (imageFiles == null) {
+            throw new IOException("Unable to list the collection's images.");
+        }
+        Arrays.sort(imageFiles);
+
+        Summary summary = new Summary();
+
+        writer.beginObject();
+        writer.name("info");
+        writer.beginObject();
+        writer.name("description");
+        writer.value(collectionRoot.getName());
+        writer.endObject();
+
+        // The images are written first, reading just their sizes. Images whose sizes can't be
+        // read are left with a size of 0, and skipped when writing the annotations.
+        int[] widths = new int[imageFiles.length];
+        int[] heights = new int[imageFiles.length];
+        Map<String, CollectionManifest.Entry> manifest = CollectionManifest.read(collectionRoot);
+
+        writer.name("images");
+        writer.beginArray();
+        for (int i = 0; i < imageFiles.length; i++) {
+            Dimension size = CollectionManifest.readImageSize(imageFiles[i], manifest);
+            if (size == null) {
+                summary.failures.add("Unable to read image file: " + imageFiles[i].getName());
+                continue;
+            }
+            widths[i] = size.width;
+            heights[i] = size.height;
+
+            writer.beginObject();
+            writer.name("id");
+            writer.value(i + 1);
+            writer.name("file_name");
+            writer.value(imageFiles[i].getName());
+            writer.name("width");
+            writer.value(size.width);
+            writer.name("height");
+            writer.value(size.height);
+            writer.endObject();
+            summary.imageCount++;
+        }
+        writer.endArray();
+
+        // Then each image's labels are read in turn and written as annotations. Category ids
+        // are given out as new label names are found.
+        Map<String, Integer> categories = new LinkedHashMap<String, Integer>();
+        writer.name("annotations");
+        writer.beginArray();
+        for (int i = 0; i < imageFiles.length; i++) {
+            if (widths[i] == 0) {
+                continue;
+            }
+
+            String imageName = ApplicationIO.stripExtension(imageFiles[i].getName());
+            Collection<Polygon> labels = unsavedLabels.get(imageName);
+            if (labels == null) {
+                try {
+                    synchronized (ApplicationIO.LABEL_FILE_LOCK) {
+                        labels = ApplicationIO.readLabelFile(labelsDirectory, imageName).values();
+                    }
+                } catch (LabelParseException e) {
+                    summary.failures.add("Unable to read labels: " + imageName);
+                    continue;
+                }
+            }
+
+            Dimension displaySize = DisplayImageReader.getDisplaySize(widths[i], heights[i]);
+            double xScale = (double) widths[i] / displaySize.width;
+            double yScale = (double) heights[i] / displaySize.height;
+
+            for (Polygon label : labels) {
+                // Labels with fewer than three points don't enclose anything.
+                List<Point> points = label.getPoints();
+                if (points.size() < 3) {
+                    continue;
+                }
+
+                Integer categoryId = categories.get(label.getName());
+                if (categoryId == null) {
+                    categoryId = categories.size() + 1;
+                    categories.put(label.getName(), categoryId);
+                }
+
+                summary.annotationCount++;
+                writeAnnotation(writer, points, summary.annotationCount, i + 1, categoryId,
+                        xScale, yScale);
+            }
+        }
+        writer.endArray();
+
+        writer.name("categories");
+        writer.beginArray();
+        for (Map.Entry<String, Integer> category : categories.entrySet()) {
+            writer.beginObject();
+            writer.name("id");
+            writer.value(category.getValue());
+            writer.name("name");
+            writer.value(category.getKey());
+            writer.endObject();
+        }
+        writer.endArray();
+        summary.categoryCount = categories.size();
+
+        writer.endObject();
+        writer.flush();
+        return summary;
+    }
+
+    /**
+     * Writes a single label as an annotation, with its outline scaled to the image's pixels.
+     * The bounding box and area are worked out from the scaled outline, the area using the
+     * shoelace formula.
+     */
+    private static void writeAnnotation(JsonWriter writer, List<Point> points, int id,
+            int imageId, int categoryId, double xScale, double yScale) throws IOException {
+        writer.beginObject();
+        writer.name("id");
+        writer.value(id);
+        writer.name("image_id");
+        writer.value(imageId);
+        writer.name("category_id");
+        writer.value(categoryId);
+
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        double twiceArea = 0;
+
+        Point last = points.get(points.size() - 1);
+        double lastX = scale(last.getX(), xScale);
+        double lastY = scale(last.getY(), yScale);
+
+        writer.name("segmentation");
+        writer.beginArray();
+        writer.beginArray();
+        for (Point point : points) {
+            double x = scale(point.getX(), xScale);
+            double y = scale(point.getY(), yScale);
+            writer.value(x);
+            writer.value(y);
+
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            twiceArea += lastX * y - x * lastY;
+            lastX = x;
+            lastY = y;
+        }
+        writer.endArray();
+        writer.endArray();
+
+        writer.name("area");
+        writer.value(round(Math.abs(twiceArea) / 2));
+        writer.name("bbox");
+        writer.beginArray();
+        writer.value(minX);
+        writer.value(minY);
+        writer.value(round(maxX - minX));
+        writer.value(round(maxY - minY));
+        writer.endArray();
+        writer.name("iscrowd");
+        writer.value(0);
+        writer.endObject();
+    }
+
+    /**
+     * Scales a coordinate from the display size to the image's pixels, to two decimal places.
+     */
+    private static double scale(int coordinate, double scale) {
+        return round(coordinate * scale);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * What was exported.
+     */
+    public static final class Summary {
+        private int imageCount = 0;
+        private int annotationCount = 0;
+        private int categoryCount = 0;
+        private final List<String> failures = new ArrayList<String>();
+
+        private Summary() {
+            // Only created by the exporter.
+        }
+
+        public int getImageCount() {
+            return imageCount;
+        }
+
+        public int getAnnotationCount() {
+            return annotationCount;
+        }
+
+        public int getCategoryCount() {
+            return categoryCount;
+        }
+
+        /**
+         * Returns a message for each image or label file that couldn't be read.
+         */
+        public List<String> getFailures() {
+            return failures;
+        }
+    }
+}
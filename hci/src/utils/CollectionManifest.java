@@ -0,0 +1,205 @@
+package src.utils;
+
+import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes a collection's manifest, "collection.idx" in the collection root. The
+ * manifest records what was learnt about each image the last time the collection was opened:
+ * its dimensions, the size and modification time of its image and label files, how many labels
+ * it has, and where its thumbnail is in the {@link ThumbnailStore}. Images whose files haven't
+ * changed since can then be opened without reading either file.
+ */
+final class CollectionManifest {
+    private static final String MANIFEST_FILE_NAME = "collection.idx";
+    private static final int MAGIC = 0x494C4958;
+    private static final int VERSION = 1;
+
+    private CollectionManifest() {
+        // Non-instantiable.
+    }
+
+    /**
+     * Reads a collection's manifest. A missing, unreadable or out of date manifest is treated
+     * as empty, so that every image is rescanned.
+     *
+     * @param collectionRoot the root directory of the collection
+     *
+     * @return the manifest entries, keyed by image file name
+     */
+    static Map<String, Entry> read(File collectionRoot) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        File manifestFile = new File(collectionRoot, MANIFEST_FILE_NAME);
+        if (!manifestFile.exists()) {
+            return entries;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(manifestFile)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return entries;
+                }
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Entry entry = new Entry();
+                    entry.imageFileName = in.readUTF();
+                    entry.width = in.readInt();
+                    entry.height = in.readInt();
+                    entry.imageSize = in.readLong();
+                    entry.imageModified = in.readLong();
+                    entry.labelFileName = in.readUTF();
+                    entry.labelSize = in.readLong();
+                    entry.labelModified = in.readLong();
+                    entry.labelCount = in.readInt();
+                    entry.thumbnailOffset = in.readLong();
+                    entry.thumbnailLength = in.readInt();
+                    entries.put(entry.imageFileName, entry);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read the collection manifest, rescanning.");
+            entries.clear();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Writes a collection's manifest. The manifest is written to a temporary file first, so
+     * that a failed write never leaves a half-written manifest behind.
+     *
+     * @param collectionRoot the root directory of the collection
+     * @param entries the entries to write
+     */
+    static void write(File collectionRoot, Collection<Entry> entries) throws IOException {
+        File manifestFile = new File(collectionRoot, MANIFEST_FILE_NAME);
+        File temporaryFile = new File(collectionRoot, MANIFEST_FILE_NAME + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporaryFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.imageFileName);
+                out.writeInt(entry.width);
+                out.writeInt(entry.height);
+                out.writeLong(entry.imageSize);
+                out.writeLong(entry.imageModified);
+                out.writeUTF(entry.labelFileName);
+                out.writeLong(entry.labelSize);
+                out.writeLong(entry.labelModified);
+                out.writeInt(entry.labelCount);
+                out.writeLong(entry.thumbnailOffset);
+                out.writeInt(entry.thumbnailLength);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temporaryFile.renameTo(manifestFile)) {
+            manifestFile.delete();
+            if (!temporaryFile.renameTo(manifestFile)) {
+                throw new IOException("Unable to replace the collection manifest.");
+            }
+        }
+    }
+
+    /**
+     * Returns the size of an image, from its manifest entry if the image hasn't changed since,
+     * or else from the image's header.
+     *
+     * @param imageFile the image file
+     * @param entries the manifest entries, keyed by image file name
+     *
+     * @return the size of the image, or null if it can't be read
+     */
+    static Dimension readImageSize(File imageFile, Map<String, Entry> entries) {
+        Entry entry = entries.get(imageFile.getName());
+        if (entry != null && entry.matchesImage(imageFile)) {
+            return new Dimension(entry.width, entry.height);
+        }
+
+        try {
+            return ApplicationIO.readImageSize(imageFile);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * What is known about a single image in the collection.
+     */
+    static final class Entry {
+        String imageFileName;
+        int width;
+        int height;
+        long imageSize;
+        long imageModified;
+        // Empty if the image had no label file.
+        String labelFileName = "";
+        long labelSize;
+        long labelModified;
+        // -1 if the label file couldn't be parsed.
+        int labelCount;
+        // -1 if there is no stored thumbnail.
+        long thumbnailOffset = -1;
+        int thumbnailLength;
+
+        /**
+         * Checks whether an image file is unchanged since this entry was recorded.
+         */
+        boolean matchesImage(File imageFile) {
+            return imageFile.length() == imageSize && imageFile.lastModified() == imageModified;
+        }
+
+        /**
+         * Checks whether an image's label file (which may be null if it has none) is unchanged
+         * since this entry was recorded, and was parsed successfully.
+         */
+        boolean matchesLabels(File labelFile) {
+            if (labelFile == null) {
+                return labelFileName.isEmpty();
+            }
+            return labelCount >= 0 && labelFile.getName().equals(labelFileName)
+                    && labelFile.length() == labelSize
+                    && labelFile.lastModified() == labelModified;
+        }
+
+        /**
+         * Records the current state of an image's label file.
+         *
+         * @param labelFile the label file, or null if the image has none
+         * @param labelCount the number of labels in the file, or -1 if it couldn't be parsed
+         */
+        void setLabels(File labelFile, int labelCount) {
+            if (labelFile == null) {
+                this.labelFileName = "";
+                this.labelSize = 0;
+                this.labelModified = 0;
+            } else {
+                this.labelFileName = labelFile.getName();
+                this.labelSize = labelFile.length();
+                this.labelModified = labelFile.lastModified();
+            }
+            this.labelCount = labelCount;
+        }
+    }
+}
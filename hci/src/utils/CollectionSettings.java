@@ -0,0 +1,126 @@
+package src.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Settings that belong to a single collection, stored in a properties file in the collection's
+ * root directory.
+ */
+public class CollectionSettings {
+    private static final String SETTINGS_FILE_NAME = "collection.properties";
+
+    private static final String LABEL_FORMAT = "labelFormat";
+    private static final String PRETTY_PRINT = "prettyPrint";
+
+    private LabelFormat labelFormat = LabelFormat.XML;
+    private boolean prettyPrint = false;
+
+    /**
+     * Loads the settings for a collection. If the collection has no settings file, or it
+     * can't be read, the default settings are returned.
+     *
+     * @param collectionRoot the root directory of the collection
+     */
+    public static CollectionSettings load(File collectionRoot) {
+        CollectionSettings settings = new CollectionSettings();
+
+        File settingsFile = new File(collectionRoot, SETTINGS_FILE_NAME);
+        if (!settingsFile.exists()) {
+            return settings;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(settingsFile));
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read collection settings, using the defaults.");
+            return settings;
+        }
+
+        try {
+            settings.labelFormat = LabelFormat.valueOf(
+                    properties.getProperty(LABEL_FORMAT, LabelFormat.XML.name()));
+        } catch (IllegalArgumentException e) {
+            // Unknown format - stick with the default.
+        }
+        settings.prettyPrint = Boolean.parseBoolean(properties.getProperty(PRETTY_PRINT));
+
+        return settings;
+    }
+
+    /**
+     * Saves the settings to a collection's settings file.
+     *
+     * @param collectionRoot the root directory of the collection
+     *
+     * @throws IOException if the settings file can't be written
+     */
+    public void save(File collectionRoot) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(LABEL_FORMAT, labelFormat.name());
+        properties.setProperty(PRETTY_PRINT, Boolean.toString(prettyPrint));
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                new File(collectionRoot, SETTINGS_FILE_NAME)));
+        try {
+            properties.store(out, "ImageLabeller collection settings");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns a copy of the settings.
+     */
+    public CollectionSettings copy() {
+        CollectionSettings copy = new CollectionSettings();
+        copy.labelFormat = labelFormat;
+        copy.prettyPrint = prettyPrint;
+        return copy;
+    }
+
+    /**
+     * Returns the format that labels are saved in.
+     */
+    public LabelFormat getLabelFormat() {
+        return labelFormat;
+    }
+
+    /**
+     * Sets the format that labels are saved in.
+     *
+     * @param labelFormat the new format
+     */
+    public void setLabelFormat(LabelFormat labelFormat) {
+        this.labelFormat = labelFormat;
+    }
+
+    /**
+     * Returns whether XML label files are pretty printed.
+     */
+    public boolean isPrettyPrint() {
+        return prettyPrint;
+    }
+
+    /**
+     * Sets whether XML label files are pretty printed.
+     *
+     * @param prettyPrint whether to pretty print
+     */
+    public void setPrettyPrint(boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+    }
+}
@@ -0,0 +1,194 @@
+package src.utils;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes images at the size they are displayed at. Images are labelled on a fixed size canvas,
+ * so rather than decoding a large photo at full resolution and then shrinking it, the decoder is
+ * asked to skip the rows and columns that won't be needed, and only the much smaller result is
+ * resampled to the exact canvas size. The full resolution image is never held in memory.
+ */
+public final class DisplayImageReader {
+    public static final int DISPLAY_WIDTH = 800;
+    public static final int DISPLAY_HEIGHT = 600;
+
+    private DisplayImageReader() {
+        // Non-instantiable.
+    }
+
+    /**
+     * Returns the size an image is displayed at on the canvas. Label coordinates are relative
+     * to this size.
+     *
+     * @param width the width of the full image
+     * @param height the height of the full image
+     */
+    public static Dimension getDisplaySize(int width, int height) {
+        if (width > DISPLAY_WIDTH || height > DISPLAY_HEIGHT) {
+            width = (width > DISPLAY_WIDTH)
+                    ? DISPLAY_WIDTH
+                    : ((width * DISPLAY_HEIGHT) / height);
+            height = (height > DISPLAY_HEIGHT)
+                    ? DISPLAY_HEIGHT
+                    : ((height * DISPLAY_WIDTH) / width);
+        } else if (width < DISPLAY_WIDTH || height < DISPLAY_HEIGHT) {
+            width = (width < DISPLAY_WIDTH)
+                    ? DISPLAY_WIDTH
+                    : ((width * height) / DISPLAY_HEIGHT);
+            height = (height < DISPLAY_HEIGHT)
+                    ? DISPLAY_HEIGHT
+                    : ((height * width) / DISPLAY_WIDTH);
+        }
+        return new Dimension(Math.max(1, width), Math.max(1, height));
+    }
+
+    /**
+     * Decodes an image file at its display size. Images stored in tiles are decoded a tile at
+     * a time through a {@link TiledImageReader}, so the full image is never held in memory.
+     * The tiles aren't kept, since the display image they make up is. Other images are decoded
+     * at once, with the reader that was opened to find out whether they are tiled.
+     *
+     * @param imageFile the image file to decode
+     *
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static BufferedImage read(File imageFile) throws IOException {
+        return decode(imageFile).displayImage;
+    }
+
+    /**
+     * Decodes an image file at its display size, as {@link #read(File)} does, and finds the
+     * size of the full image.
+     *
+     * @param imageFile the image file to decode
+     *
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    static DecodedImage decode(File imageFile) throws IOException {
+        TiledImageReader tiledReader = new TiledImageReader(imageFile);
+        try {
+            if (tiledReader.isTiled()) {
+                int width = tiledReader.getWidth();
+                int height = tiledReader.getHeight();
+                Dimension displaySize = getDisplaySize(width, height);
+                int level = TiledImageReader.getLevel(width, height, displaySize.width,
+                        displaySize.height);
+                BufferedImage image = tiledReader.readRegion(
+                        new Rectangle(0, 0, width, height), level, false);
+                return new DecodedImage(resample(image, displaySize.width, displaySize.height),
+                        width, height);
+            }
+            return decode(tiledReader.getImageReader());
+        } finally {
+            tiledReader.close();
+        }
+    }
+
+    /**
+     * Decodes an image from a stream at its display size, and finds the size of the full image.
+     * The stream is left open.
+     *
+     * @param input the stream to decode
+     * @param name the name of the image, for error messages
+     *
+     * @throws IOException if the stream cannot be read or is not a supported image
+     */
+    static DecodedImage read(ImageInputStream input, String name) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("No reader for image file: " + name);
+        }
+
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            return decode(reader);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Decodes the first image of a reader at its display size.
+     */
+    private static DecodedImage decode(ImageReader reader) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        Dimension displaySize = getDisplaySize(width, height);
+
+        // Only read every nth pixel, keeping at least as many as will be displayed.
+        ImageReadParam param = reader.getDefaultReadParam();
+        int xSubsampling = Math.max(1, width / displaySize.width);
+        int ySubsampling = Math.max(1, height / displaySize.height);
+        if (xSubsampling > 1 || ySubsampling > 1) {
+            param.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+        }
+
+        BufferedImage image = reader.read(0, param);
+        return new DecodedImage(resample(image, displaySize.width, displaySize.height),
+                width, height);
+    }
+
+    /**
+     * Resamples an image to a given size with bilinear interpolation. Large reductions are done
+     * by halving the image a step at a time, since a single bilinear step would skip over most
+     * of the pixels.
+     *
+     * @param image the image to resample
+     * @param width the width to resample it to
+     * @param height the height to resample it to
+     */
+    public static BufferedImage resample(BufferedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height
+                && image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+
+        while (image.getWidth() / 2 >= width && image.getHeight() / 2 >= height) {
+            image = scale(image, image.getWidth() / 2, image.getHeight() / 2);
+        }
+        return scale(image, width, height);
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+                    RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * An image decoded at its display size, along with the size of the full image.
+     */
+    static final class DecodedImage {
+        final BufferedImage displayImage;
+        final int width;
+        final int height;
+
+        private DecodedImage(BufferedImage displayImage, int width, int height) {
+            this.displayImage = displayImage;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package src.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of decoded images, keyed by image file. Images are decoded at the
+ * size they are displayed at, by {@link DisplayImageReader}. The tiles decoded from very large
+ * images by {@link TiledImageReader} are kept here too, so that they share the same budget. The
+ * cache is bounded by the amount of memory taken up by the decoded pixels rather than by the
+ * number of images.
+ */
+public final class ImageCache {
+    // The default memory budget for the shared cache, in megabytes. Can be overridden with the
+    // "imagelabeller.imageCacheMB" system property.
+    private static final int DEFAULT_BUDGET_MB = 256;
+
+    private static final ImageCache SHARED_CACHE = new ImageCache(
+            Integer.getInteger("imagelabeller.imageCacheMB", DEFAULT_BUDGET_MB));
+
+    private final long budgetBytes;
+
+    // An access-ordered map, so iteration starts at the least recently used image. Display
+    // images are keyed by their file, and tiles by their TiledImageReader.TileKey.
+    private final Map<Object, BufferedImage> images =
+        new LinkedHashMap<Object, BufferedImage>(16, 0.75f, true);
+    private long usedBytes = 0;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param budgetMegabytes the most memory the cached images may use, in megabytes
+     */
+    public ImageCache(int budgetMegabytes) {
+        this.budgetBytes = budgetMegabytes * 1024L * 1024L;
+    }
+
+    /**
+     * Returns the cache shared by all {@link LabelledImage}s.
+     */
+    public static ImageCache getSharedCache() {
+        return SHARED_CACHE;
+    }
+
+    /**
+     * Returns the display image for a file, decoding it if it is not already in the cache.
+     *
+     * @param imageFile the image file to decode
+     *
+     * @throws IOException if the image cannot be decoded
+     */
+    public BufferedImage getDisplayImage(File imageFile) throws IOException {
+        synchronized (this) {
+            BufferedImage image = images.get(imageFile);
+            if (image != null) {
+                return image;
+            }
+        }
+
+        // Decode outside of the lock, so that a slow decode doesn't hold up other callers.
+        BufferedImage image = DisplayImageReader.read(imageFile);
+        put(imageFile, image);
+        return image;
+    }
+
+    /**
+     * Returns a cached image or tile, or null if it isn't in the cache.
+     *
+     * @param key the file of the image, or the key of the tile
+     */
+    synchronized BufferedImage get(Object key) {
+        return images.get(key);
+    }
+
+    /**
+     * Removes an image, and any tiles decoded from it, from the cache. Should be called when
+     * the file backing the image is changed or deleted.
+     *
+     * @param imageFile the file of the image to remove
+     */
+    public synchronized void remove(File imageFile) {
+        Iterator<Map.Entry<Object, BufferedImage>> entries = images.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Object, BufferedImage> entry = entries.next();
+            Object key = entry.getKey();
+            if (key.equals(imageFile) || (key instanceof TiledImageReader.TileKey
+                    && ((TiledImageReader.TileKey) key).isTileOf(imageFile))) {
+                usedBytes -= sizeOf(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all images from the cache.
+     */
+    public synchronized void clear() {
+        images.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Returns the memory currently used by the cached images, in bytes.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Adds an image or tile to the cache, evicting the least recently used images until the
+     * cache is back within its budget. Images must be at their display size. An image larger
+     * than the whole budget is still cached on its own, so that the image currently being
+     * worked on is never re-decoded on every access.
+     */
+    synchronized void put(Object key, BufferedImage image) {
+        BufferedImage previous = images.put(key, image);
+        if (previous != null) {
+            usedBytes -= sizeOf(previous);
+        }
+        usedBytes += sizeOf(image);
+
+        Iterator<BufferedImage> leastRecentlyUsed = images.values().iterator();
+        while (usedBytes > budgetBytes && images.size() > 1) {
+            BufferedImage evicted = leastRecentlyUsed.next();
+            if (evicted == image) {
+                continue;
+            }
+            usedBytes -= sizeOf(evicted);
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the pixels of an image.
+     */
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * (DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+    }
+}
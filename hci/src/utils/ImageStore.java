@@ -0,0 +1,377 @@
+package src.utils;
+
+import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import src.utils.ApplicationIO.ImportedImage;
+import src.utils.DisplayImageReader.DecodedImage;
+
+/**
+ * Stores the image files of a collection by their contents. Each distinct image is stored once,
+ * in the "objects" directory of the collection, under the digest of its contents. The files in
+ * the "images" directory are links to those objects, so the rest of the application can go on
+ * reading them by name. Which digest each image file links to is recorded in
+ * "collection.digests" in the collection root.
+ *
+ * Importing an image whose contents are already stored only adds a link, so the same frames
+ * imported under different names take up no extra space. If the file system doesn't support
+ * links, the object is copied instead. Images imported before the store existed are plain
+ * files that aren't in the store, and are left alone.
+ *
+ * Objects are made read-only, so that writing over an image file in place, which would change
+ * every image linked to the same object, fails rather than corrupting the store. An object is
+ * checked against its digest before the first import that is linked to it, and again when an
+ * image linked to it changes; an object that no longer matches is dropped from the store, and
+ * the images linked to it are left as plain files.
+ */
+public class ImageStore {
+    private static final String OBJECTS_DIRECTORY_NAME = "objects";
+    private static final String DIGESTS_FILE_NAME = "collection.digests";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File imagesDirectory;
+    private final File objectsDirectory;
+    private final File digestsFile;
+
+    // The digest of each stored image, keyed by image file name.
+    private final Map<String, String> digests = new HashMap<String, String>();
+
+    // The sizes of the stored objects. Only files of one of these sizes can be duplicates, so
+    // other files don't need to be digested before they are copied. Sizes aren't removed when
+    // objects are deleted, which only costs an unnecessary digest.
+    private final Set<Long> objectSizes = new HashSet<Long>();
+
+    // The digests of the objects known to still match their contents.
+    private final Set<String> verifiedDigests = new HashSet<String>();
+
+    // Whether writing the digests file is being put off until the end of a bulk import, and
+    // whether it has changed since it was last written.
+    private boolean deferringWrites = false;
+    private boolean digestsChanged = false;
+
+    /**
+     * Opens the image store of a collection, cleaning up after any imports that didn't finish.
+     *
+     * @param collectionRoot the root directory of the collection
+     */
+    public ImageStore(File collectionRoot) {
+        imagesDirectory = new File(collectionRoot, "images");
+        objectsDirectory = new File(collectionRoot, OBJECTS_DIRECTORY_NAME);
+        digestsFile = new File(collectionRoot, DIGESTS_FILE_NAME);
+
+        Properties properties = new Properties();
+        if (digestsFile.exists()) {
+            try {
+                InputStream in = new BufferedInputStream(new FileInputStream(digestsFile));
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to read the collection's image digests.");
+            }
+        }
+        for (String imageFileName : properties.stringPropertyNames()) {
+            digests.put(imageFileName, properties.getProperty(imageFileName));
+        }
+
+        File[] objects = objectsDirectory.listFiles();
+        if (objects != null) {
+            for (File object : objects) {
+                if (object.getName().endsWith(TEMPORARY_SUFFIX)) {
+                    object.delete();
+                } else {
+                    // Objects stored before they were made read-only.
+                    object.setReadOnly();
+                    objectSizes.add(object.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the digest of an image's contents, or null if the image isn't in the store.
+     *
+     * @param imageFileName the name of the image's file
+     */
+    public synchronized String getDigest(String imageFileName) {
+        return digests.get(imageFileName);
+    }
+
+    /**
+     * Imports an image file into the collection. If its contents are already stored, the
+     * image is only linked to them; otherwise it is copied into the store, digested and
+     * decoded in a single pass, and the decoded image is put in the shared {@link ImageCache}.
+     * Any existing image file with the same name is replaced.
+     *
+     * @param sourceFile the image file to import
+     * @param imageFileName the name to give the image's file in the collection
+     *
+     * @throws IOException if the file cannot be imported or is not a supported image
+     */
+    public ImportedImage importImage(File sourceFile, String imageFileName) throws IOException {
+        return importImage(sourceFile, imageFileName, true);
+    }
+
+    /**
+     * Imports an image file into the collection, as {@link #importImage(File, String)} does.
+     * Can be called from several threads at once.
+     *
+     * @param sourceFile the image file to import
+     * @param imageFileName the name to give the image's file in the collection
+     * @param cacheImage whether to put the decoded image in the shared {@link ImageCache};
+     *        bulk imports shouldn't, so as not to push out the images being worked on
+     *
+     * @throws IOException if the file cannot be imported or is not a supported image
+     */
+    public ImportedImage importImage(File sourceFile, String imageFileName, boolean cacheImage)
+            throws IOException {
+        File imageFile = new File(imagesDirectory, imageFileName);
+
+        boolean possibleDuplicate;
+        synchronized (this) {
+            possibleDuplicate = objectSizes.contains(sourceFile.length());
+        }
+
+        if (possibleDuplicate) {
+            String digest = ApplicationIO.digestFile(sourceFile);
+            verifyObject(digest);
+            synchronized (this) {
+                if (getObjectFile(digest).exists()) {
+                    String duplicateOf = link(digest, imageFile);
+                    return new ImportedImage(new LabelledImage(imageFile), digest, duplicateOf);
+                }
+            }
+        }
+
+        if (!objectsDirectory.exists() && !objectsDirectory.mkdir()) {
+            throw new IOException("Unable to create the collection's objects folder.");
+        }
+
+        File temporaryFile = File.createTempFile("import", TEMPORARY_SUFFIX, objectsDirectory);
+        MessageDigest messageDigest = ApplicationIO.createImageDigest();
+        DecodedImage image = ApplicationIO.copyAndDecode(sourceFile, temporaryFile,
+                messageDigest);
+        String digest = ApplicationIO.toHexString(messageDigest.digest());
+        // An object that was changed to a size no stored object had isn't checked above.
+        verifyObject(digest);
+
+        String duplicateOf;
+        synchronized (this) {
+            File objectFile = getObjectFile(digest);
+            if (objectFile.exists()) {
+                // The same contents were stored while this copy was being made.
+                temporaryFile.delete();
+            } else if (!temporaryFile.renameTo(objectFile)) {
+                temporaryFile.delete();
+                throw new IOException("Unable to store image file: " + sourceFile.getName());
+            } else {
+                objectFile.setReadOnly();
+                verifiedDigests.add(digest);
+            }
+            objectSizes.add(objectFile.length());
+            duplicateOf = link(digest, imageFile);
+        }
+
+        if (cacheImage) {
+            ImageCache.getSharedCache().put(imageFile, image.displayImage);
+        }
+        LabelledImage labelledImage = new LabelledImage(imageFile,
+                new Dimension(image.width, image.height), new ArrayList<Polygon>());
+        return new ImportedImage(labelledImage, digest, duplicateOf);
+    }
+
+    /**
+     * Sets whether to put off writing the digests file until writes are no longer deferred,
+     * rather than rewriting it after every import. Used by bulk imports; if the application
+     * exits part way through one, the images imported so far are still stored and found as
+     * duplicates, but their names aren't recorded.
+     *
+     * @param deferred whether to defer writes
+     */
+    public synchronized void setWritesDeferred(boolean deferred) {
+        deferringWrites = deferred;
+        if (!deferred && digestsChanged) {
+            writeDigests();
+        }
+    }
+
+    /**
+     * Removes an image from the store, deleting its contents if no other image has the same
+     * contents. The image file itself is left for the caller to delete.
+     *
+     * @param imageFileName the name of the image's file
+     */
+    public synchronized void removeImage(String imageFileName) {
+        String digest = digests.remove(imageFileName);
+        if (digest == null) {
+            return;
+        }
+
+        writeDigests();
+        deleteIfUnused(digest);
+    }
+
+    /**
+     * Takes an image whose file has changed out of the store. If the file was written over in
+     * place, the object it is linked to has changed too, so the object is checked against its
+     * digest and dropped from the store if it no longer matches, leaving the other images
+     * linked to it as plain files. Reads the object, so shouldn't be called on the event
+     * dispatch thread.
+     *
+     * @param imageFileName the name of the image's file
+     */
+    public void imageFileChanged(String imageFileName) {
+        String digest;
+        synchronized (this) {
+            digest = digests.remove(imageFileName);
+            if (digest == null) {
+                return;
+            }
+            writeDigests();
+            verifiedDigests.remove(digest);
+        }
+
+        verifyObject(digest);
+        synchronized (this) {
+            deleteIfUnused(digest);
+        }
+    }
+
+    /**
+     * Checks that the object with a digest, if there is one, still has the contents the digest
+     * was made from, and drops it from the store if it doesn't. Objects are only read the first
+     * time they are checked.
+     */
+    private void verifyObject(String digest) {
+        File objectFile;
+        synchronized (this) {
+            objectFile = getObjectFile(digest);
+            if (verifiedDigests.contains(digest) || !objectFile.exists()) {
+                return;
+            }
+        }
+
+        boolean intact;
+        try {
+            intact = ApplicationIO.digestFile(objectFile).equals(digest);
+        } catch (IOException e) {
+            intact = false;
+        }
+
+        synchronized (this) {
+            if (intact) {
+                verifiedDigests.add(digest);
+                return;
+            }
+
+            System.err.println("Stored image " + digest + " has changed; dropping it.");
+            digests.values().removeAll(Collections.singleton(digest));
+            writeDigests();
+            deleteObject(digest);
+        }
+    }
+
+    /**
+     * Links an image file to a stored object, replacing the image file if it exists.
+     *
+     * @return the name of another image file with the same contents, or null if there is none
+     */
+    private String link(String digest, File imageFile) throws IOException {
+        String duplicateOf = null;
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            if (entry.getValue().equals(digest) && !entry.getKey().equals(imageFile.getName())
+                    && new File(imagesDirectory, entry.getKey()).exists()) {
+                duplicateOf = entry.getKey();
+                break;
+            }
+        }
+
+        File objectFile = getObjectFile(digest);
+        Files.deleteIfExists(imageFile.toPath());
+        try {
+            Files.createLink(imageFile.toPath(), objectFile.toPath());
+        } catch (UnsupportedOperationException e) {
+            Files.copy(objectFile.toPath(), imageFile.toPath());
+        } catch (IOException e) {
+            // Some file systems can't link files.
+            Files.copy(objectFile.toPath(), imageFile.toPath());
+        }
+
+        String previousDigest = digests.put(imageFile.getName(), digest);
+        writeDigests();
+        if (previousDigest != null && !previousDigest.equals(digest)) {
+            deleteIfUnused(previousDigest);
+        }
+        return duplicateOf;
+    }
+
+    private void deleteIfUnused(String digest) {
+        if (!digests.containsValue(digest)) {
+            deleteObject(digest);
+        }
+    }
+
+    private void deleteObject(String digest) {
+        verifiedDigests.remove(digest);
+        File objectFile = getObjectFile(digest);
+        // Read-only files can't be deleted on some platforms.
+        objectFile.setWritable(true);
+        objectFile.delete();
+    }
+
+    private File getObjectFile(String digest) {
+        return new File(objectsDirectory, digest);
+    }
+
+    /**
+     * Writes the digests file. The file is written to a temporary file first, so that a failed
+     * write never leaves a half-written file behind.
+     */
+    private void writeDigests() {
+        if (deferringWrites) {
+            digestsChanged = true;
+            return;
+        }
+        digestsChanged = false;
+
+        Properties properties = new Properties();
+        properties.putAll(digests);
+
+        File temporaryFile = new File(digestsFile.getPath() + TEMPORARY_SUFFIX);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+            try {
+                properties.store(out, "Image file digests");
+            } finally {
+                out.close();
+            }
+
+            if (!temporaryFile.renameTo(digestsFile)) {
+                digestsFile.delete();
+                if (!temporaryFile.renameTo(digestsFile)) {
+                    throw new IOException("Unable to replace the digests file.");
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write the collection's image digests.");
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package src.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON to a stream a token at a time, in the same way as an XMLStreamWriter, so that
+ * documents of any size can be written without building them in memory first. Commas and
+ * colons are written as needed; the caller is trusted to open and close objects and arrays in
+ * a sensible order. No whitespace is written.
+ */
+final class JsonWriter {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    // Whether anything has been written yet in each enclosing object or array, so that the
+    // next value needs a comma before it.
+    private boolean[] hasValues = new boolean[8];
+    private int depth = 0;
+
+    // Whether a name has just been written, so that the next value doesn't need a comma.
+    private boolean afterName = false;
+
+    /**
+     * Creates a writer. The stream should be buffered, since it is written a few characters at
+     * a time.
+     *
+     * @param out the stream to write to
+     */
+    JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    void beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        push();
+    }
+
+    void endObject() throws IOException {
+        depth--;
+        out.write('}');
+    }
+
+    void beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        push();
+    }
+
+    void endArray() throws IOException {
+        depth--;
+        out.write(']');
+    }
+
+    /**
+     * Writes the name of the next member of an object.
+     *
+     * @param name the name of the member
+     */
+    void name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+    }
+
+    void value(String value) throws IOException {
+        beforeValue();
+        writeString(value);
+    }
+
+    void value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+    }
+
+    /**
+     * Writes a number. Whole numbers are written without a decimal point.
+     *
+     * @param value the number to write, which must be finite
+     */
+    void value(double value) throws IOException {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            value((long) value);
+        } else {
+            beforeValue();
+            out.write(Double.toString(value));
+        }
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private void push() {
+        depth++;
+        if (depth == hasValues.length) {
+            boolean[] grown = new boolean[hasValues.length * 2];
+            System.arraycopy(hasValues, 0, grown, 0, hasValues.length);
+            hasValues = grown;
+        }
+        hasValues[depth] = false;
+    }
+
+    /**
+     * Writes a comma if the value about to be written isn't the first in its object or array.
+     */
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (hasValues[depth]) {
+            out.write(',');
+        }
+        hasValues[depth] = true;
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+
+            out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write("\\u00");
+                    out.write(HEX_DIGITS[c >> 4]);
+                    out.write(HEX_DIGITS[c & 0xF]);
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
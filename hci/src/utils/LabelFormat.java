@@ -0,0 +1,24 @@
+package src.utils;
+
+/**
+ * The on-disk formats that labels can be saved in.
+ */
+public enum LabelFormat {
+    // The original, human-readable XML format.
+    XML(".labels"),
+    // The compact binary format, see BinaryLabelFormat.
+    BINARY(".labelsbin");
+
+    private final String extension;
+
+    private LabelFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the file extension used for label files in this format.
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,606 @@
+package src.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import src.utils.ApplicationIO.LabelParseException;
+
+/**
+ * An append-only journal of the label edits made to a collection, stored in "collection.journal"
+ * in the collection root. Every edit is recorded as a small record as soon as it is made, so
+ * edits survive the application exiting without a save. Records are buffered in memory and
+ * written to the journal file by {@link #flush()}, so that recording an edit does no IO; the
+ * autosave writer flushes the journal about once a second. The journal is periodically rotated
+ * and folded into the label files, see {@link #rotate()}.
+ *
+ * Each record is stored as its length and a CRC32 checksum, followed by the record itself, so
+ * that a record left half-written by a crash is detected and ignored when the journal is
+ * replayed. If any other record is damaged, the images it may have affected are left as they
+ * are, and the journal is kept aside so that its edits can still be recovered. Records hold the resulting state (a whole polygon, or a vertex's new position)
+ * rather than a difference wherever possible, and an explicit save records the whole set of
+ * labels that was written, so replaying records over a label file that already contains them
+ * still gives the right result.
+ */
+public class LabelJournal {
+    private static final String JOURNAL_FILE_NAME = "collection.journal";
+    // The journal being folded into the label files, while a new one is written.
+    private static final String COMPACTING_FILE_NAME = "collection.journal.old";
+    // Journals that couldn't be folded completely are kept under this name, followed by the
+    // time they were kept.
+    private static final String DAMAGED_FILE_PREFIX = "collection.journal.damaged-";
+
+    private static final int MAGIC = 0x4C4A4E4C;
+    private static final int VERSION = 1;
+
+    // Record types.
+    private static final byte SET_LABELS = 1;
+    private static final byte PUT_LABEL = 2;
+    private static final byte REMOVE_LABEL = 3;
+    private static final byte RENAME_LABEL = 4;
+    private static final byte MOVE_VERTEX = 5;
+    private static final byte INSERT_VERTEX = 6;
+
+    private final File collectionRoot;
+    private final File journalFile;
+    private final File compactingFile;
+
+    // Null until the first record is written after the journal is opened or rotated.
+    private DataOutputStream out;
+    // Records that haven't been written to the journal file yet.
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private boolean failed = false;
+
+    // Held while folding, so that the same journal is never folded twice at once.
+    private final Object foldLock = new Object();
+
+    /**
+     * Creates the journal for a collection. Nothing is written until the first edit is
+     * recorded.
+     *
+     * @param collectionRoot the root directory of the collection
+     */
+    public LabelJournal(File collectionRoot) {
+        this.collectionRoot = collectionRoot;
+        this.journalFile = new File(collectionRoot, JOURNAL_FILE_NAME);
+        this.compactingFile = new File(collectionRoot, COMPACTING_FILE_NAME);
+    }
+
+    /**
+     * Moves the journal aside so that it can be folded into the label files by
+     * {@link #foldRotated()}, while new edits carry on being recorded in a new journal. If the
+     * last journal that was moved aside hasn't been folded yet, the journal is left alone.
+     *
+     * Edits are folded over whatever is in the label files when the fold happens, so the
+     * journal should be rotated at a point where every earlier save has been queued and every
+     * later save hasn't, and folded after the earlier saves have finished. Any records that
+     * haven't been flushed are written to the journal before it is moved aside.
+     *
+     * @return true if there is a journal waiting to be folded
+     */
+    public synchronized boolean rotate() {
+        flush();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                recordFailed();
+            }
+            out = null;
+        }
+
+        if (compactingFile.exists()) {
+            return true;
+        }
+        return journalFile.exists() && journalFile.renameTo(compactingFile);
+    }
+
+    /**
+     * Folds the journal that was last moved aside by {@link #rotate()} into the label files.
+     *
+     * @throws IOException if the journal can't be folded, in which case it is kept and folded
+     *         again next time
+     */
+    public void foldRotated() throws IOException {
+        synchronized (foldLock) {
+            if (compactingFile.exists()) {
+                fold(collectionRoot, compactingFile);
+            }
+        }
+    }
+
+    /**
+     * Folds everything in the journal into the label files. No more edits should be recorded
+     * once the journal is closed.
+     */
+    public void close() {
+        try {
+            // Any journal left over from a failed fold has to be folded before the current one.
+            foldRotated();
+            if (rotate()) {
+                foldRotated();
+            }
+        } catch (IOException e) {
+            // The journal is still on disk, and will be replayed when the collection is opened.
+            System.err.println("Unable to compact the label journal.");
+        }
+    }
+
+    /**
+     * Folds any journals left behind by a previous session into the collection's label files.
+     * Problems are reported on System.err, and leave the journals in place. Must not be
+     * called while the collection is open.
+     *
+     * @param collectionRoot the root directory of the collection
+     */
+    public static void replay(File collectionRoot) {
+        File[] journalFiles = { new File(collectionRoot, COMPACTING_FILE_NAME),
+                new File(collectionRoot, JOURNAL_FILE_NAME) };
+        for (File journalFile : journalFiles) {
+            if (!journalFile.exists()) {
+                continue;
+            }
+            try {
+                fold(collectionRoot, journalFile);
+            } catch (IOException e) {
+                System.err.println("Unable to replay the label journal: " + journalFile.getName());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records that all of an image's labels were replaced, or saved.
+     *
+     * @param imageName the name of the image
+     * @param labels the image's labels
+     */
+    public void recordSetLabels(String imageName, Collection<Polygon> labels) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = startRecord(bytes, SET_LABELS, imageName);
+            writePolygons(record, new ArrayList<Polygon>(labels));
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            recordFailed();
+        }
+    }
+
+    /**
+     * Records that a label was added to an image, or changed in a way that doesn't have a
+     * more specific record.
+     *
+     * @param imageName the name of the image
+     * @param label the label
+     */
+    void recordPutLabel(String imageName, Polygon label) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = startRecord(bytes, PUT_LABEL, imageName);
+            writePolygons(record, Collections.singletonList(label));
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            recordFailed();
+        }
+    }
+
+    /**
+     * Records that a label was removed from an image.
+     *
+     * @param imageName the name of the image
+     * @param labelName the name of the removed label
+     */
+    void recordRemoveLabel(String imageName, String labelName) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = startRecord(bytes, REMOVE_LABEL, imageName);
+            record.writeUTF(labelName);
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            recordFailed();
+        }
+    }
+
+    /**
+     * Records that a label was renamed.
+     *
+     * @param imageName the name of the image
+     * @param oldName the old name of the label
+     * @param newName the new name of the label
+     */
+    void recordRenameLabel(String imageName, String oldName, String newName) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = startRecord(bytes, RENAME_LABEL, imageName);
+            record.writeUTF(oldName);
+            record.writeUTF(newName);
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            recordFailed();
+        }
+    }
+
+    /**
+     * Records that a vertex of a label was moved.
+     *
+     * @param imageName the name of the image
+     * @param labelName the name of the label
+     * @param index the index of the vertex
+     * @param point the new position of the vertex
+     */
+    void recordMoveVertex(String imageName, String labelName, int index, Point point) {
+        recordVertex(MOVE_VERTEX, imageName, labelName, index, point);
+    }
+
+    /**
+     * Records that a vertex was inserted into a label.
+     *
+     * @param imageName the name of the image
+     * @param labelName the name of the label
+     * @param index the index the vertex was inserted at
+     * @param point the position of the vertex
+     */
+    void recordInsertVertex(String imageName, String labelName, int index, Point point) {
+        recordVertex(INSERT_VERTEX, imageName, labelName, index, point);
+    }
+
+    private void recordVertex(byte type, String imageName, String labelName, int index,
+            Point point) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = startRecord(bytes, type, imageName);
+            record.writeUTF(labelName);
+            record.writeInt(index);
+            record.writeInt(point.getX());
+            record.writeInt(point.getY());
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            recordFailed();
+        }
+    }
+
+    private static DataOutputStream startRecord(ByteArrayOutputStream bytes, byte type,
+            String imageName) throws IOException {
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(type);
+        record.writeUTF(imageName);
+        return record;
+    }
+
+    /**
+     * Appends a record to the records waiting to be flushed to the journal.
+     */
+    private synchronized void append(byte[] bytes) throws IOException {
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+
+        DataOutputStream record = new DataOutputStream(pending);
+        record.writeInt(bytes.length);
+        record.writeInt((int) checksum.getValue());
+        record.write(bytes);
+    }
+
+    /**
+     * Writes the records made since the journal was last flushed to the journal file, so that
+     * they survive the application exiting. Records that can't be written are dropped, and the
+     * failure reported; the edits are still kept when they are saved.
+     */
+    public synchronized void flush() {
+        if (pending.size() == 0) {
+            return;
+        }
+
+        try {
+            if (out == null) {
+                boolean isNew = !journalFile.exists() || journalFile.length() == 0;
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(journalFile, true)));
+                if (isNew) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                }
+            }
+            pending.writeTo(out);
+            out.flush();
+            failed = false;
+        } catch (IOException e) {
+            recordFailed();
+        } finally {
+            pending.reset();
+        }
+    }
+
+    /**
+     * Reports a failure to write a record, once per run of failures.
+     */
+    private synchronized void recordFailed() {
+        if (!failed) {
+            System.err.println("Unable to write to the label journal. "
+                    + "Edits will only be kept when they are saved.");
+            failed = true;
+        }
+    }
+
+    private static void writePolygons(DataOutputStream record, List<Polygon> polygons)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryLabelFormat.write(bytes, polygons);
+        record.writeInt(bytes.size());
+        bytes.writeTo(record);
+    }
+
+    private static Map<String, Polygon> readPolygons(DataInputStream record)
+            throws IOException, LabelParseException {
+        byte[] bytes = new byte[record.readInt()];
+        record.readFully(bytes);
+        return BinaryLabelFormat.read(bytes);
+    }
+
+    /**
+     * Applies the records in a journal to the collection's label files, then deletes the
+     * journal. Each image's label file is only read and written once, however many records it
+     * has. Records for images that are no longer in the collection are dropped.
+     *
+     * An image with a record that can't be applied is left as it is, since the records after
+     * it may depend on it. If that happens, or a damaged record is found part way through the
+     * journal, the journal is kept aside rather than deleted.
+     *
+     * @throws IOException if the journal can't be read, or a label file can't be written
+     */
+    private static void fold(File collectionRoot, File journalFile) throws IOException {
+        boolean[] damaged = new boolean[1];
+        Map<String, List<byte[]>> records = readRecords(journalFile, damaged);
+        boolean folded = !damaged[0];
+
+        if (!records.isEmpty()) {
+            File labelsDirectory = new File(collectionRoot, "labels");
+            CollectionSettings settings = CollectionSettings.load(collectionRoot);
+
+            Set<String> imageNames = new HashSet<String>();
+            File[] imageFiles = new File(collectionRoot, "images").listFiles(
+                    ApplicationIO.FILE_FILTER);
+            if (imageFiles != null) {
+                for (File imageFile : imageFiles) {
+                    imageNames.add(ApplicationIO.stripExtension(imageFile.getName()));
+                }
+            }
+
+            for (Map.Entry<String, List<byte[]>> entry : records.entrySet()) {
+                if (!imageNames.contains(entry.getKey())) {
+                    continue;
+                }
+                synchronized (ApplicationIO.LABEL_FILE_LOCK) {
+                    if (!foldImage(labelsDirectory, entry.getKey(), entry.getValue(),
+                            settings)) {
+                        folded = false;
+                    }
+                }
+            }
+        }
+
+        if (!folded) {
+            File keptFile = new File(collectionRoot, 
+                    DAMAGED_FILE_PREFIX + System.currentTimeMillis());
+            if (!journalFile.renameTo(keptFile)) {
+                throw new IOException("Unable to keep the damaged journal.");
+            }
+            System.err.println("The label journal is damaged, so some edits couldn't be "
+                    + "replayed. It has been kept as " + keptFile.getName() + ".");
+        } else if (!journalFile.delete()) {
+            throw new IOException("Unable to delete the folded journal.");
+        }
+    }
+
+    /**
+     * Applies an image's journal records to its label file.
+     *
+     * @return false if the label file couldn't be read or a record couldn't be applied, in
+     *         which case the label file is left as it is
+     */
+    private static boolean foldImage(File labelsDirectory, String imageName,
+            List<byte[]> records, CollectionSettings settings) throws IOException {
+        // Only the records after the last SET_LABELS record matter, and if there is one the
+        // label file doesn't need reading.
+        int start = 0;
+        for (int i = records.size() - 1; i >= 0; i--) {
+            if (records.get(i)[0] == SET_LABELS) {
+                start = i;
+                break;
+            }
+        }
+
+        Map<String, EditedLabel> labels = new LinkedHashMap<String, EditedLabel>();
+        if (records.get(start)[0] != SET_LABELS) {
+            try {
+                for (Polygon polygon : ApplicationIO.readLabelFile(labelsDirectory, imageName)
+                        .values()) {
+                    labels.put(polygon.getName(), new EditedLabel(polygon));
+                }
+            } catch (LabelParseException e) {
+                System.err.println("Unable to read labels for " + imageName
+                        + ", so the journal can't be replayed over them.");
+                return false;
+            }
+        }
+
+        for (int i = start; i < records.size(); i++) {
+            try {
+                applyRecord(labels, records.get(i));
+            } catch (LabelParseException e) {
+                System.err.println("Corrupt journal record for " + imageName
+                        + ", leaving its labels as they were.");
+                return false;
+            } catch (IOException e) {
+                // Only possible if the record is shorter than its type says it should be.
+                System.err.println("Corrupt journal record for " + imageName
+                        + ", leaving its labels as they were.");
+                return false;
+            }
+        }
+
+        List<Polygon> polygons = new ArrayList<Polygon>(labels.size());
+        for (EditedLabel label : labels.values()) {
+            polygons.add(label.toPolygon());
+        }
+        ApplicationIO.writeLabelFile(labelsDirectory, imageName, polygons, settings);
+        return true;
+    }
+
+    /**
+     * Applies a single record to a set of labels. Records that refer to labels or vertices that
+     * don't exist are ignored.
+     */
+    private static void applyRecord(Map<String, EditedLabel> labels, byte[] bytes)
+            throws IOException, LabelParseException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = record.readByte();
+        record.readUTF();
+
+        switch (type) {
+            case SET_LABELS:
+            case PUT_LABEL:
+                if (type == SET_LABELS) {
+                    labels.clear();
+                }
+                for (Polygon polygon : readPolygons(record).values()) {
+                    labels.put(polygon.getName(), new EditedLabel(polygon));
+                }
+                break;
+            case REMOVE_LABEL:
+                labels.remove(record.readUTF());
+                break;
+            case RENAME_LABEL: {
+                String oldName = record.readUTF();
+                String newName = record.readUTF();
+                EditedLabel label = labels.remove(oldName);
+                if (label != null) {
+                    label.name = newName;
+                    labels.put(newName, label);
+                }
+                break;
+            }
+            case MOVE_VERTEX:
+            case INSERT_VERTEX: {
+                EditedLabel label = labels.get(record.readUTF());
+                int index = record.readInt();
+                Point point = new Point(record.readInt(), record.readInt());
+                if (label == null || index < 0 || index > label.points.size()
+                        || (type == MOVE_VERTEX && index == label.points.size())) {
+                    break;
+                }
+                if (type == MOVE_VERTEX) {
+                    label.points.set(index, point);
+                } else {
+                    label.points.add(index, point);
+                }
+                break;
+            }
+            default:
+                throw new LabelParseException("Unknown journal record type: " + type);
+        }
+    }
+
+    /**
+     * Reads the records in a journal, grouped by image in the order they were written. Reading
+     * stops at the first incomplete or corrupt record. If that is the last record, it was left
+     * half-written by a crash; otherwise the journal is damaged, and any records after it are
+     * lost.
+     *
+     * @param damaged set to true if the journal is damaged
+     */
+    private static Map<String, List<byte[]>> readRecords(File journalFile, boolean[] damaged)
+            throws IOException {
+        Map<String, List<byte[]>> records = new LinkedHashMap<String, List<byte[]>>();
+
+        long remaining = journalFile.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journalFile)));
+        try {
+            if (remaining < 8 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.err.println("Ignoring unreadable label journal: " + journalFile.getName());
+                return records;
+            }
+            remaining -= 8;
+
+            while (remaining >= 8) {
+                int length = in.readInt();
+                int expectedChecksum = in.readInt();
+                remaining -= 8;
+                if (length < 3 || length > remaining) {
+                    break;
+                }
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                remaining -= length;
+
+                CRC32 checksum = new CRC32();
+                checksum.update(bytes);
+                if ((int) checksum.getValue() != expectedChecksum) {
+                    damaged[0] = remaining > 0;
+                    break;
+                }
+
+                String imageName = new DataInputStream(new ByteArrayInputStream(bytes, 1,
+                        length - 1)).readUTF();
+                List<byte[]> imageRecords = records.get(imageName);
+                if (imageRecords == null) {
+                    imageRecords = new ArrayList<byte[]>();
+                    records.put(imageName, imageRecords);
+                }
+                imageRecords.add(bytes);
+            }
+
+            if (remaining > 0 && !damaged[0]) {
+                System.err.println("Ignoring " + remaining
+                        + " bytes of incomplete label journal records.");
+            }
+        } catch (EOFException e) {
+            // Only possible if the file shrank while being read; use what was read.
+        } finally {
+            in.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * A label being rebuilt from journal records.
+     */
+    private static final class EditedLabel {
+        private String name;
+        private final List<Point> points;
+        private final List<String> tags;
+
+        private EditedLabel(Polygon polygon) {
+            this.name = polygon.getName();
+            this.points = polygon.getPoints();
+            this.tags = polygon.getTags();
+        }
+
+        private Polygon toPolygon() {
+            Polygon polygon = new Polygon(name, points);
+            for (String tag : tags) {
+                polygon.addTag(tag);
+            }
+            return polygon;
+        }
+    }
+}
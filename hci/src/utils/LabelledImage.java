@@ -1,82 +1,420 @@
 package src.utils;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import src.utils.ApplicationIO.LabelParseException;
+
+/**
+ * An image in a collection, along with its labels. Only the image file and its dimensions are
+ * kept; the pixels are decoded on demand through the shared {@link ImageCache}. Images opened
+ * from a collection manifest also load their labels on demand, the first time they are used.
+ */
 public class LabelledImage {
     private final String name;
     private final String imageExtension;
-    private final BufferedImage image;
+    private final File imageFile;
+    private final int width;
+    private final int height;
+
+    // When the image file was last modified, and its length, when the image was created.
+    private final long imageModified;
+    private final long imageLength;
+
+    // Null until the labels are loaded from labelFile.
     private Map<String, Polygon> labels;
+    private File labelFile;
+    private int labelCount;
+
+    // Where the image's thumbnail is stored, if it has been stored.
+    private ThumbnailStore thumbnailStore;
+    private long thumbnailOffset = -1;
+    private int thumbnailLength;
+
+    // Bumped whenever a label is added, removed or replaced; changes to the labels themselves
+    // are tracked by the polygons' own generations.
+    private long generation;
+    private long savedGeneration;
+
+    // Where edits to the labels are recorded, if anywhere.
+    private LabelJournal journal;
     
-    public LabelledImage(String name, BufferedImage image) {
-        this.name = ApplicationIO.stripExtension(name);
-        this.imageExtension = ApplicationIO.getExtension(name);
-        this.image = image;
-        this.labels = new HashMap<String, Polygon>();
+    /**
+     * Creates a labelled image with no labels. Only the image header is read.
+     * 
+     * @param imageFile the file the image is stored in
+     * 
+     * @throws IOException if the image header cannot be read
+     */
+    public LabelledImage(File imageFile) throws IOException {
+        this(imageFile, new ArrayList<Polygon>());
     }
     
-    public LabelledImage(String name, BufferedImage image, List<Polygon> labels) {
-        this.name = ApplicationIO.stripExtension(name);
-        this.imageExtension = ApplicationIO.getExtension(name);
-        this.image = image;
-        this.labels = listToMap(labels);
+    /**
+     * Creates a labelled image. Only the image header is read.
+     * 
+     * @param imageFile the file the image is stored in
+     * @param labels the labels of the image
+     * 
+     * @throws IOException if the image header cannot be read
+     */
+    public LabelledImage(File imageFile, List<Polygon> labels) throws IOException {
+        this(imageFile, ApplicationIO.readImageSize(imageFile), labels);
+    }
+
+    /**
+     * Creates a labelled image whose dimensions are already known.
+     * 
+     * @param imageFile the file the image is stored in
+     * @param size the dimensions of the image
+     * @param labels the labels of the image
+     */
+    public LabelledImage(File imageFile, Dimension size, List<Polygon> labels) {
+        this.name = ApplicationIO.stripExtension(imageFile.getName());
+        this.imageExtension = ApplicationIO.getExtension(imageFile.getName());
+        this.imageFile = imageFile;
+        this.width = size.width;
+        this.height = size.height;
+        this.imageModified = imageFile.lastModified();
+        this.imageLength = imageFile.length();
+        this.labels = adopt(listToMap(labels));
+        this.savedGeneration = getGeneration();
+    }
+
+    /**
+     * Creates a labelled image whose dimensions are already known, and whose labels are read
+     * from a label file the first time they are needed.
+     * 
+     * @param imageFile the file the image is stored in
+     * @param size the dimensions of the image
+     * @param labelFile the file the labels are stored in
+     * @param labelCount the number of labels in the label file
+     */
+    public LabelledImage(File imageFile, Dimension size, File labelFile, int labelCount) {
+        this.name = ApplicationIO.stripExtension(imageFile.getName());
+        this.imageExtension = ApplicationIO.getExtension(imageFile.getName());
+        this.imageFile = imageFile;
+        this.width = size.width;
+        this.height = size.height;
+        this.imageModified = imageFile.lastModified();
+        this.imageLength = imageFile.length();
+        this.labels = null;
+        this.labelFile = labelFile;
+        this.labelCount = labelCount;
     }
 
     public String getName() {
         return name;
     }
     
-    public BufferedImage getImage() {
-        return image;
+    /**
+     * Returns the image at the size it is displayed at, or null if it can no longer be
+     * decoded.
+     */
+    public BufferedImage getDisplayImage() {
+        try {
+            return ImageCache.getSharedCache().getDisplayImage(imageFile);
+        } catch (IOException e) {
+            System.err.println("Unable to load image file: " + imageFile.getName());
+            return null;
+        }
+    }
+
+    /**
+     * Drops the decoded image, and any tiles decoded from it, from the shared cache. Should be
+     * called when the image is removed from its collection or its file is overwritten.
+     */
+    public void releaseImage() {
+        ImageCache.getSharedCache().remove(imageFile);
+    }
+
+    public File getImageFile() {
+        return imageFile;
+    }
+
+    /**
+     * Checks whether the image file has been changed or removed since this image was created,
+     * such as by another program.
+     */
+    public boolean hasImageFileChanged() {
+        return imageFile.lastModified() != imageModified || imageFile.length() != imageLength;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
     }
     
+    /**
+     * Returns the image's thumbnail, reading it from the collection's thumbnail store if it has
+     * been stored there and otherwise creating it from the display image. Returns null if neither
+     * can be read.
+     */
+    public BufferedImage getThumbnail() {
+        if (thumbnailStore != null && thumbnailOffset >= 0) {
+            try {
+                return thumbnailStore.read(thumbnailOffset, thumbnailLength);
+            } catch (IOException e) {
+                System.err.println("Unable to read thumbnail for: " + imageFile.getName());
+            }
+        }
+
+        BufferedImage image = getDisplayImage();
+        return (image != null) ? ThumbnailStore.createThumbnail(image) : null;
+    }
+
+    /**
+     * Sets where the image's thumbnail is stored.
+     * 
+     * @param store the collection's thumbnail store
+     * @param offset the offset of the thumbnail in the store, or -1 if it isn't stored
+     * @param length the length of the stored thumbnail
+     */
+    void setThumbnail(ThumbnailStore store, long offset, int length) {
+        this.thumbnailStore = store;
+        this.thumbnailOffset = offset;
+        this.thumbnailLength = length;
+    }
+
+    /**
+     * Returns a copy of the labels, which isn't affected by later edits to the image and can be
+     * handed to another thread. The polygons are copied with {@link Polygon#copy()}, so their
+     * vertices are only copied if they are edited. Code that just reads the labels should use
+     * {@link #getLabelsView()} or {@link #labelCount()} instead.
+     */
     public List<Polygon> getLabels() {
-        return mapToList(labels);
+        return mapToList(labels());
+    }
+
+    /**
+     * Returns a read-only view of the labels, for iterating over them without copying. The view
+     * follows the image as labels are added and removed, and the polygons are the image's own,
+     * so they must not be kept or changed by code that only wants to read them.
+     */
+    public Collection<Polygon> getLabelsView() {
+        return Collections.unmodifiableCollection(labels().values());
     }
 
     public List<String> getLabelNames() {
-        return new ArrayList<String>(labels.keySet());
+        return new ArrayList<String>(labels().keySet());
     }
 
     public void setLabels(Map<String, Polygon> labels) {
-        this.labels = labels;
+        this.labels = adopt(labels);
+        generation = Polygon.nextGeneration();
+        if (journal != null) {
+            journal.recordSetLabels(name, labels.values());
+        }
     }
     
     public void setLabels(List<Polygon> labels) {
-        this.labels = listToMap(labels);
+        setLabels(listToMap(labels));
+    }
+
+    /**
+     * Replaces the labels with ones that are already saved, such as labels written to the
+     * image's label file by another program. The image isn't marked as modified, but the new
+     * labels are still journalled, so that earlier records aren't replayed over them.
+     * 
+     * @param labels the saved labels
+     */
+    public void setSavedLabels(Map<String, Polygon> labels) {
+        setLabels(labels);
+        savedGeneration = getGeneration();
+    }
+
+    /**
+     * Checks whether the image has the same labels as some others, with the same names and
+     * points.
+     * 
+     * @param otherLabels the labels to compare with
+     */
+    public boolean hasSameLabels(Map<String, Polygon> otherLabels) {
+        Map<String, Polygon> labels = labels();
+        if (labels.size() != otherLabels.size()) {
+            return false;
+        }
+        for (Polygon label : labels.values()) {
+            Polygon otherLabel = otherLabels.get(label.getName());
+            if (otherLabel == null || !label.getPoints().equals(otherLabel.getPoints())) {
+                return false;
+            }
+        }
+        return true;
     }
     
     public void addLabel(Polygon label) {
-        labels.put(label.getName(), label);
+        labels().put(label.getName(), label);
+        label.owner = this;
+        generation = Polygon.nextGeneration();
+        if (journal != null) {
+            journal.recordPutLabel(name, label);
+        }
     }
 
     public void renameLabel(String oldName, String newName) {
-        Polygon polygon = labels.remove(oldName);
+        Polygon polygon = labels().remove(oldName);
         if (polygon != null) {
+            // The polygon tells us about the new name, see labelRenamed.
             polygon.setName(newName);
-            labels.put(newName, polygon);
+            labels().put(newName, polygon);
         }
     }
 
     public Polygon removeLabel(String name) {
-        return labels.remove(name);
+        Polygon polygon = labels().remove(name);
+        if (polygon != null) {
+            polygon.owner = null;
+            generation = Polygon.nextGeneration();
+            if (journal != null) {
+                journal.recordRemoveLabel(this.name, name);
+            }
+        }
+        return polygon;
     }
 
     public Polygon getLabel(String name) {
-        return labels.get(name);
+        return labels().get(name);
+    }
+
+    /**
+     * Returns the image's generation, which increases every time its labels are modified.
+     */
+    public long getGeneration() {
+        long latestGeneration = generation;
+        if (labels != null) {
+            for (Polygon polygon : labels.values()) {
+                latestGeneration = Math.max(latestGeneration, polygon.getGeneration());
+            }
+        }
+        return latestGeneration;
+    }
+
+    /**
+     * Checks whether the labels have been modified since they were loaded or last saved.
+     */
+    public boolean isModified() {
+        return getGeneration() > savedGeneration;
+    }
+
+    /**
+     * Returns a copy of the labels, to be saved. If edits to the labels are being journalled,
+     * the copy is recorded in the journal too: earlier records may already be in the saved
+     * file, and replaying them over it isn't safe unless the saved labels are recorded as well.
+     */
+    public List<Polygon> getLabelsToSave() {
+        List<Polygon> labels = getLabels();
+        if (journal != null) {
+            journal.recordSetLabels(name, labels);
+        }
+        return labels;
+    }
+
+    /**
+     * Records that the labels have been saved.
+     * 
+     * @param savedGeneration the generation of the image when its labels were copied to be
+     *        saved
+     */
+    public void markSaved(long savedGeneration) {
+        this.savedGeneration = Math.max(this.savedGeneration, savedGeneration);
+    }
+
+    /**
+     * Sets the journal that edits to the image's labels are recorded in.
+     * 
+     * @param journal the collection's label journal, or null to stop recording edits
+     */
+    public void setJournal(LabelJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Called by a label when it has been changed in a way that has no more specific callback.
+     */
+    void labelChanged(Polygon label) {
+        if (journal != null) {
+            journal.recordPutLabel(name, label);
+        }
+    }
+
+    /**
+     * Called by a label when it has been renamed.
+     */
+    void labelRenamed(String oldName, Polygon label) {
+        if (journal != null) {
+            journal.recordRenameLabel(name, oldName, label.getName());
+        }
+    }
+
+    /**
+     * Called by a label when one of its vertices has been moved.
+     */
+    void vertexMoved(Polygon label, int index, Point point) {
+        if (journal != null) {
+            journal.recordMoveVertex(name, label.getName(), index, point);
+        }
+    }
+
+    /**
+     * Called by a label when a vertex has been inserted into it.
+     */
+    void vertexInserted(Polygon label, int index, Point point) {
+        if (journal != null) {
+            journal.recordInsertVertex(name, label.getName(), index, point);
+        }
+    }
+
+    /**
+     * Returns the number of labels, without loading them if they haven't been loaded yet.
+     */
+    public int labelCount() {
+        return (labels != null) ? labels.size() : labelCount;
+    }
+
+    /**
+     * Returns the labels, loading them from the label file first if necessary. If the label
+     * file can't be parsed, the image is treated as having no labels.
+     */
+    private Map<String, Polygon> labels() {
+        if (labels == null) {
+            try {
+                labels = adopt(ApplicationIO.readLabels(labelFile));
+            } catch (LabelParseException e) {
+                System.err.println("Unable to read labels: " + labelFile.getName());
+                labels = new HashMap<String, Polygon>();
+            }
+            // Reading the labels isn't a modification.
+            savedGeneration = getGeneration();
+        }
+        return labels;
     }
     
+    /**
+     * Makes this image the owner of a set of labels, so that it hears about changes to them.
+     */
+    private Map<String, Polygon> adopt(Map<String, Polygon> labels) {
+        for (Polygon label : labels.values()) {
+            label.owner = this;
+        }
+        return labels;
+    }
+
     private static Map<String, Polygon> listToMap(List<Polygon> list) {
         Map<String, Polygon> map = new HashMap<String, Polygon>(list.size());
         for (Polygon polygon : list) {
-            String polygonName = polygon.getName();
-            // No need to deep copy this, points are immutable.
-            List<Point> points = new ArrayList<Point>(polygon.getPoints());
-            map.put(polygonName, new Polygon(polygonName, points));
+            map.put(polygon.getName(), polygon.copy());
         }
         return map;
     }
@@ -84,9 +422,7 @@ public class LabelledImage {
     private static List<Polygon> mapToList(Map<String, Polygon> map) {
         List<Polygon> list = new ArrayList<Polygon>(map.size());
         for (Polygon polygon : map.values()) {
-            // No need to deep copy this, points are immutable.
-            List<Point> points = new ArrayList<Point>(polygon.getPoints());
-            list.add(new Polygon(polygon.getName(), points));
+            list.add(polygon.copy());
         }
         return list;
     }
@@ -95,7 +431,11 @@ public class LabelledImage {
         return imageExtension;
     }
 
+    /**
+     * Returns the labels themselves, rather than a copy. Labels should be added and removed
+     * through the image, so that the change is tracked; editing the polygons is fine.
+     */
     public Map<String, Polygon> getLabelsMap() {
-        return labels;
+        return labels();
     }
 }
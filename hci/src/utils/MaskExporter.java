@@ -0,0 +1,522 @@
+package src.utils;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import src.utils.ApplicationIO.LabelParseException;
+
+/**
+ * Exports the labels of a collection as instance masks: for each image, a PNG the size of the
+ * image file in which every pixel holds the number of the label covering it, or 0 for none.
+ * Next to each mask, a text file lists the number and name of each label. Labels are numbered
+ * in name order, and where labels overlap the later one wins. Masks of images with up to 255
+ * labels are 8 bit indexed PNGs with a palette that tells the labels apart; masks of images
+ * with more are 16 bit greyscale.
+ *
+ * The images are exported in parallel on a fork-join pool. Each mask is filled a row at a
+ * time, straight from the outlines of the labels, and each row is compressed and written as
+ * soon as it is filled, so even masks of very large images take very little memory.
+ */
+public class MaskExporter {
+    private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // The most labels that fit in an indexed mask, as index 0 is the background.
+    private static final int MAX_INDEXED_LABELS = 255;
+
+    private static final Comparator<Polygon> NAME_ORDER = new Comparator<Polygon>() {
+        @Override
+        public int compare(Polygon first, Polygon second) {
+            return first.getName().compareTo(second.getName());
+        }
+    };
+
+    private final File collectionRoot;
+    private final int threads;
+
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private volatile int imageCount = -1;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates an exporter for a collection, which uses a thread per processor.
+     *
+     * @param collectionRoot the root directory of the collection
+     */
+    public MaskExporter(File collectionRoot) {
+        this(collectionRoot, DEFAULT_THREADS);
+    }
+
+    /**
+     * Creates an exporter for a collection.
+     *
+     * @param collectionRoot the root directory of the collection
+     * @param threads the number of images to export at once
+     */
+    public MaskExporter(File collectionRoot, int threads) {
+        this.collectionRoot = collectionRoot;
+        this.threads = threads;
+    }
+
+    /**
+     * Writes a mask for each image in the collection, as its label files are on disk.
+     *
+     * @param outputDirectory the folder to write the masks to, which is created if necessary
+     *
+     * @return what was exported
+     *
+     * @throws IOException if the folder cannot be created, or the images cannot be listed
+     */
+    public Summary export(File outputDirectory) throws IOException {
+        return export(outputDirectory, new HashMap<String, List<Polygon>>());
+    }
+
+    /**
+     * Writes a mask for each image in the collection. Images whose size can't be read, label
+     * files that can't be parsed and masks that can't be written are listed in the summary.
+     *
+     * @param outputDirectory the folder to write the masks to, which is created if necessary
+     * @param unsavedLabels the labels of any images that have been edited since they were last
+     *        saved, keyed by image name, which are exported instead of their label files; they
+     *        must not be changed until the export has finished
+     *
+     * @return what was exported
+     *
+     * @throws IOException if the folder cannot be created, or the images cannot be listed
+     */
+    public Summary export(File outputDirectory, Map<String, List<Polygon>> unsavedLabels)
+            throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Unable to create the folder " + outputDirectory.getName());
+        }
+
+        File[] imageFiles = new File(collectionRoot, "images").listFiles(
+                ApplicationIO.FILE_FILTER);
+        if (imageFiles == null) {
+            throw new IOException("Unable to list the collection's images.");
+        }
+        Arrays.sort(imageFiles);
+        imageCount = imageFiles.length;
+
+        Export export = new Export(imageFiles, outputDirectory, unsavedLabels);
+        if (imageFiles.length > 0) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new ExportTask(export, 0, imageFiles.length));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        export.summary.cancelled = cancelled;
+        return export.summary;
+    }
+
+    /**
+     * Returns the number of images being exported, or -1 if they haven't been listed yet.
+     */
+    public int getImageCount() {
+        return imageCount;
+    }
+
+    /**
+     * Returns the number of images that have been exported, or have failed to be.
+     */
+    public int getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * Stops the export once the images being exported have been written. Can be called from
+     * any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Writes a single mask.
+     *
+     * @param maskFile the file to write
+     * @param size the size of the image
+     * @param labels the image's labels, in the order to number them
+     */
+    private static void writeMask(File maskFile, Dimension size, List<Polygon> labels)
+            throws IOException {
+        Dimension displaySize = DisplayImageReader.getDisplaySize(size.width, size.height);
+        double xScale = (double) size.width / displaySize.width;
+        double yScale = (double) size.height / displaySize.height;
+
+        List<ScanlineFiller> fillers = new ArrayList<ScanlineFiller>(labels.size());
+        for (int i = 0; i < labels.size(); i++) {
+            fillers.add(new ScanlineFiller(labels.get(i).getPoints(), xScale, yScale, i + 1));
+        }
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(maskFile));
+        boolean written = false;
+        try {
+            PngRowWriter writer = (labels.size() <= MAX_INDEXED_LABELS)
+                    ? PngRowWriter.indexed(out, size.width, size.height,
+                            createPalette(labels.size()))
+                    : PngRowWriter.greyscale16(out, size.width, size.height);
+            try {
+                int[] row = new int[size.width];
+                for (int y = 0; y < size.height; y++) {
+                    Arrays.fill(row, 0);
+                    for (ScanlineFiller filler : fillers) {
+                        filler.fillRow(y, row);
+                    }
+                    writer.writeRow(row);
+                }
+            } finally {
+                writer.close();
+            }
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failing.
+                }
+                maskFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the number and name of each label in a mask, a line per label.
+     */
+    private static void writeLabelNames(File namesFile, List<Polygon> labels)
+            throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(namesFile), "UTF-8"));
+        try {
+            for (int i = 0; i < labels.size(); i++) {
+                out.write((i + 1) + "\t" + labels.get(i).getName() + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates a palette with black for the background, and a colour for each label that is
+     * easy to tell apart from its neighbours.
+     */
+    private static int[] createPalette(int labelCount) {
+        int[] palette = new int[labelCount + 1];
+        for (int i = 1; i <= labelCount; i++) {
+            // Stepping round the hues by the golden ratio keeps neighbouring colours apart.
+            float hue = (i * 0.618034f) % 1;
+            palette[i] = Color.HSBtoRGB(hue, 0.8f, 1) & 0xFFFFFF;
+        }
+        return palette;
+    }
+
+    /**
+     * The state shared by the tasks of a single export.
+     */
+    private final class Export {
+        private final File[] imageFiles;
+        private final File outputDirectory;
+        private final File labelsDirectory;
+        private final Map<String, List<Polygon>> unsavedLabels;
+        private final Map<String, CollectionManifest.Entry> manifest;
+        private final Summary summary = new Summary();
+
+        private Export(File[] imageFiles, File outputDirectory,
+                Map<String, List<Polygon>> unsavedLabels) {
+            this.imageFiles = imageFiles;
+            this.outputDirectory = outputDirectory;
+            this.labelsDirectory = new File(collectionRoot, "labels");
+            this.unsavedLabels = unsavedLabels;
+            this.manifest = CollectionManifest.read(collectionRoot);
+        }
+
+        /**
+         * Exports the mask of a single image. Called from the pool's threads.
+         */
+        private void exportImage(File imageFile) {
+            if (cancelled) {
+                return;
+            }
+
+            try {
+                Dimension size = CollectionManifest.readImageSize(imageFile, manifest);
+                if (size == null) {
+                    summary.failures.add("Unable to read image file: " + imageFile.getName());
+                    return;
+                }
+
+                String imageName = ApplicationIO.stripExtension(imageFile.getName());
+                Collection<Polygon> labels = unsavedLabels.get(imageName);
+                if (labels == null) {
+                    try {
+                        synchronized (ApplicationIO.LABEL_FILE_LOCK) {
+                            labels = ApplicationIO.readLabelFile(labelsDirectory, imageName)
+                                    .values();
+                        }
+                    } catch (LabelParseException e) {
+                        summary.failures.add("Unable to read labels: " + imageName);
+                        return;
+                    }
+                }
+
+                // Labels with fewer than three points don't cover anything.
+                List<Polygon> maskLabels = new ArrayList<Polygon>(labels.size());
+                for (Polygon label : labels) {
+                    if (label.getPoints().size() >= 3) {
+                        maskLabels.add(label);
+                    }
+                }
+                Collections.sort(maskLabels, NAME_ORDER);
+
+                try {
+                    writeMask(new File(outputDirectory, imageName + ".png"), size, maskLabels);
+                    writeLabelNames(new File(outputDirectory, imageName + ".txt"), maskLabels);
+                } catch (IOException e) {
+                    summary.failures.add("Unable to write the mask of " + imageName);
+                    return;
+                }
+                summary.maskCount.incrementAndGet();
+                summary.labelCount.addAndGet(maskLabels.size());
+            } finally {
+                processedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Exports a range of images, splitting it in half until there is a single image to
+     * export, so that the pool can share out the images between its threads.
+     */
+    private static final class ExportTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Export export;
+        private final int start;
+        private final int end;
+
+        private ExportTask(Export export, int start, int end) {
+            this.export = export;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                export.exportImage(export.imageFiles[start]);
+                return;
+            }
+
+            int middle = (start + end) >>> 1;
+            invokeAll(new ExportTask(export, start, middle), new ExportTask(export, middle, end));
+        }
+    }
+
+    /**
+     * Fills a polygon into the rows of a mask, a row at a time and from the top down, using
+     * the even-odd rule. A pixel is inside the polygon if its centre is. The polygon's edges
+     * are kept sorted by the first row they cross, and only the edges crossing the current
+     * row are looked at, so each row takes time in proportion to the edges crossing it.
+     */
+    private static final class ScanlineFiller {
+        private final int value;
+
+        // The edges, sorted by first row. Each edge is stored as its upper end, the change in
+        // x per row, and the first and last rows whose centres it crosses.
+        private final double[] xs;
+        private final double[] ys;
+        private final double[] slopes;
+        private final int[] firstRows;
+        private final int[] lastRows;
+        private final int edgeCount;
+
+        private final int firstRow;
+        private final int lastRow;
+
+        // The next edge to reach the current row, and the edges crossing it.
+        private int nextEdge = 0;
+        private final int[] activeEdges;
+        private int activeCount = 0;
+        private final double[] crossings;
+
+        /**
+         * Creates a filler for a polygon.
+         *
+         * @param points the polygon's points, on the display canvas
+         * @param xScale the amount to scale the points' x coordinates by
+         * @param yScale the amount to scale the points' y coordinates by
+         * @param value the value to fill the polygon with
+         */
+        private ScanlineFiller(List<Point> points, double xScale, double yScale, int value) {
+            this.value = value;
+
+            int count = points.size();
+            final double[] edgeXs = new double[count];
+            final double[] edgeYs = new double[count];
+            final double[] edgeSlopes = new double[count];
+            final int[] edgeFirstRows = new int[count];
+            final int[] edgeLastRows = new int[count];
+            int edges = 0;
+            int top = Integer.MAX_VALUE;
+            int bottom = Integer.MIN_VALUE;
+
+            Point previous = points.get(count - 1);
+            for (Point point : points) {
+                double x0 = previous.getX() * xScale;
+                double y0 = previous.getY() * yScale;
+                double x1 = point.getX() * xScale;
+                double y1 = point.getY() * yScale;
+                previous = point;
+                if (y0 > y1) {
+                    double swap = x0;
+                    x0 = x1;
+                    x1 = swap;
+                    swap = y0;
+                    y0 = y1;
+                    y1 = swap;
+                }
+
+                // The rows whose centres are in [y0, y1); none, if the edge is horizontal.
+                int first = (int) Math.ceil(y0 - 0.5);
+                int last = (int) Math.ceil(y1 - 0.5) - 1;
+                if (first > last) {
+                    continue;
+                }
+
+                edgeXs[edges] = x0;
+                edgeYs[edges] = y0;
+                edgeSlopes[edges] = (x1 - x0) / (y1 - y0);
+                edgeFirstRows[edges] = first;
+                edgeLastRows[edges] = last;
+                edges++;
+                top = Math.min(top, first);
+                bottom = Math.max(bottom, last);
+            }
+
+            Integer[] order = new Integer[edges];
+            for (int i = 0; i < edges; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer first, Integer second) {
+                    return edgeFirstRows[first] - edgeFirstRows[second];
+                }
+            });
+
+            xs = new double[edges];
+            ys = new double[edges];
+            slopes = new double[edges];
+            firstRows = new int[edges];
+            lastRows = new int[edges];
+            for (int i = 0; i < edges; i++) {
+                xs[i] = edgeXs[order[i]];
+                ys[i] = edgeYs[order[i]];
+                slopes[i] = edgeSlopes[order[i]];
+                firstRows[i] = edgeFirstRows[order[i]];
+                lastRows[i] = edgeLastRows[order[i]];
+            }
+            edgeCount = edges;
+            firstRow = top;
+            lastRow = bottom;
+
+            activeEdges = new int[edges];
+            crossings = new double[edges];
+        }
+
+        /**
+         * Fills the part of a row inside the polygon. Must be called for each row in turn.
+         *
+         * @param y the row
+         * @param row the values of the row's pixels
+         */
+        private void fillRow(int y, int[] row) {
+            if (y < firstRow || y > lastRow) {
+                return;
+            }
+
+            while (nextEdge < edgeCount && firstRows[nextEdge] <= y) {
+                activeEdges[activeCount++] = nextEdge++;
+            }
+
+            double centre = y + 0.5;
+            int crossingCount = 0;
+            for (int i = 0; i < activeCount;) {
+                int edge = activeEdges[i];
+                if (lastRows[edge] < y) {
+                    activeEdges[i] = activeEdges[--activeCount];
+                    continue;
+                }
+                crossings[crossingCount++] = xs[edge] + (centre - ys[edge]) * slopes[edge];
+                i++;
+            }
+            Arrays.sort(crossings, 0, crossingCount);
+
+            // Fill the pixels whose centres are between each pair of crossings.
+            for (int i = 0; i + 1 < crossingCount; i += 2) {
+                int from = Math.max(0, (int) Math.ceil(crossings[i] - 0.5));
+                int to = Math.min(row.length, (int) Math.ceil(crossings[i + 1] - 0.5));
+                if (from < to) {
+                    Arrays.fill(row, from, to, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * What was exported.
+     */
+    public static final class Summary {
+        private final AtomicInteger maskCount = new AtomicInteger();
+        private final AtomicInteger labelCount = new AtomicInteger();
+        private final List<String> failures =
+            Collections.synchronizedList(new ArrayList<String>());
+        private volatile boolean cancelled = false;
+
+        private Summary() {
+            // Only created by the exporter.
+        }
+
+        public int getMaskCount() {
+            return maskCount.get();
+        }
+
+        public int getLabelCount() {
+            return labelCount.get();
+        }
+
+        /**
+         * Returns a message for each image that couldn't be exported.
+         */
+        public List<String> getFailures() {
+            return new ArrayList<String>(failures);
+        }
+
+        public boolean wasCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package src.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a PNG image a row at a time, so that images far larger than could be held in memory
+ * can be written. Only two kinds of image are supported: 8 bit indexed colour, and 16 bit
+ * greyscale for when 256 values aren't enough. Each row is filtered against the row above,
+ * which turns the runs of identical rows in masks and the like into zeros that compress to
+ * almost nothing.
+ */
+final class PngRowWriter {
+    private static final byte[] SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    private static final byte COLOUR_TYPE_GREYSCALE = 0;
+    private static final byte COLOUR_TYPE_INDEXED = 3;
+    private static final byte FILTER_UP = 2;
+
+    // The most compressed data to put in a single IDAT chunk.
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final int width;
+    private final int bytesPerPixel;
+    private int rowsLeft;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength = 0;
+
+    // The filter type followed by the filtered row, and the unfiltered row above.
+    private final byte[] filteredRow;
+    private byte[] row;
+    private byte[] previousRow;
+
+    /**
+     * Starts writing an 8 bit indexed colour image. Each pixel's value is an index into the
+     * palette.
+     *
+     * @param out the stream to write to, which is left open
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param palette the colours of the palette, as RGB values; at most 256
+     *
+     * @throws IOException if the header cannot be written
+     */
+    static PngRowWriter indexed(OutputStream out, int width, int height, int[] palette)
+            throws IOException {
+        PngRowWriter writer = new PngRowWriter(out, width, height, 1);
+        writer.writeHeader(8, COLOUR_TYPE_INDEXED);
+
+        byte[] colours = new byte[palette.length * 3];
+        for (int i = 0; i < palette.length; i++) {
+            colours[i * 3] = (byte) (palette[i] >> 16);
+            colours[i * 3 + 1] = (byte) (palette[i] >> 8);
+            colours[i * 3 + 2] = (byte) palette[i];
+        }
+        writer.writeChunk("PLTE", colours, colours.length);
+        return writer;
+    }
+
+    /**
+     * Starts writing a 16 bit greyscale image.
+     *
+     * @param out the stream to write to, which is left open
+     * @param width the width of the image
+     * @param height the height of the image
+     *
+     * @throws IOException if the header cannot be written
+     */
+    static PngRowWriter greyscale16(OutputStream out, int width, int height)
+            throws IOException {
+        PngRowWriter writer = new PngRowWriter(out, width, height, 2);
+        writer.writeHeader(16, COLOUR_TYPE_GREYSCALE);
+        return writer;
+    }
+
+    private PngRowWriter(OutputStream out, int width, int height, int bytesPerPixel) {
+        this.out = out;
+        this.width = width;
+        this.rowsLeft = height;
+        this.bytesPerPixel = bytesPerPixel;
+
+        filteredRow = new byte[width * bytesPerPixel + 1];
+        filteredRow[0] = FILTER_UP;
+        row = new byte[width * bytesPerPixel];
+        previousRow = new byte[width * bytesPerPixel];
+    }
+
+    /**
+     * Writes the next row of the image. Once every row has been written, the image is
+     * finished.
+     *
+     * @param values the value of each pixel in the row
+     *
+     * @throws IOException if the row cannot be written
+     */
+    void writeRow(int[] values) throws IOException {
+        if (rowsLeft == 0) {
+            throw new IllegalStateException("The image is already finished.");
+        }
+
+        if (bytesPerPixel == 1) {
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) values[x];
+            }
+        } else {
+            for (int x = 0; x < width; x++) {
+                row[x * 2] = (byte) (values[x] >> 8);
+                row[x * 2 + 1] = (byte) values[x];
+            }
+        }
+        for (int i = 0; i < row.length; i++) {
+            filteredRow[i + 1] = (byte) (row[i] - previousRow[i]);
+        }
+        byte[] swap = previousRow;
+        previousRow = row;
+        row = swap;
+
+        deflater.setInput(filteredRow);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+
+        rowsLeft--;
+        if (rowsLeft == 0) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            if (chunkLength > 0) {
+                writeChunk("IDAT", chunk, chunkLength);
+            }
+            writeChunk("IEND", chunk, 0);
+        }
+    }
+
+    /**
+     * Releases the compressor. Must be called once the image is finished, or if it is
+     * abandoned part way through. The stream is left open.
+     */
+    void close() {
+        deflater.end();
+    }
+
+    /**
+     * Compresses some of the input into the current chunk, writing the chunk if it is full.
+     */
+    private void deflate() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+        if (chunkLength == CHUNK_SIZE) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    private void writeHeader(int bitDepth, byte colourType) throws IOException {
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, rowsLeft);
+        header[8] = (byte) bitDepth;
+        header[9] = colourType;
+        // Header bytes 10 to 12 are the compression, filter and interlace methods, all 0.
+        writeChunk("IHDR", header, header.length);
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        byte[] lengthBytes = new byte[4];
+        writeInt(lengthBytes, 0, length);
+        out.write(lengthBytes);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        writeInt(crcBytes, 0, (int) crc.getValue());
+        out.write(crcBytes);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -1,18 +1,52 @@
 package src.utils;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class representing a Polygon, either in-progress or finished. Supports
  * undo/redo state.
+ *
+ * The vertices are stored as two arrays of coordinates rather than as a list of {@link Point}s,
+ * which takes about a quarter of the memory, and lets them be read with {@link #getX(int)} and
+ * {@link #getY(int)} without creating any objects. Copies made with {@link #copy()} share
+ * their arrays with the original until one of them changes its vertices.
+ *
+ * The arrays are gap buffers: the free space is kept where the last vertex was added or
+ * removed, and only moved when the next edit is somewhere else. Tracing an outline, adding
+ * vertices one after another along an edge, and undoing and redoing all take constant time,
+ * however many vertices the polygon has.
  */
 public class Polygon {
+    // Shared by all polygons (and labelled images), so that generations from different
+    // objects can be compared.
+    private static final AtomicLong GENERATION_COUNTER = new AtomicLong();
+
+    private static final int INITIAL_CAPACITY = 8;
+
     private String name;
-    private List<Point> points;
+
+    // The coordinates of the stored vertices, of which there are pointCount: the vertices up to
+    // pointIndex are the polygon's, and any after it have been undone and can be redone. The
+    // vertices before gapStart are at the start of the arrays, and the rest start at gapEnd.
+    private int[] xs;
+    private int[] ys;
+    private int gapStart;
+    private int gapEnd;
+    private int pointCount;
     private int pointIndex;
+
+    // Set when the coordinate arrays may be shared with a copy, so that they are copied before
+    // they are next written to.
+    private boolean shared;
+
     private List<String> tags;
+    private long generation;
+
+    // The image this polygon is a label of, if any, which is told about every change to it.
+    LabelledImage owner;
 
     public Polygon() {
         this("");
@@ -25,16 +59,75 @@ public class Polygon {
     public Polygon(String name, List<Point> inputPoints) {
         this.name = name;
 
-        // Defensive-copy the input points.
-        points = new ArrayList<Point>();
-        for (Point point : inputPoints) {
-            points.add(point);
+        // Copy the input points.
+        int size = inputPoints.size();
+        xs = new int[Math.max(size, INITIAL_CAPACITY)];
+        ys = new int[xs.length];
+        for (int i = 0; i < size; i++) {
+            Point point = inputPoints.get(i);
+            xs[i] = point.getX();
+            ys[i] = point.getY();
         }
-        pointIndex = points.size() - 1;
+        gapStart = size;
+        gapEnd = xs.length;
+        pointCount = size;
+        pointIndex = size - 1;
 
         tags = new ArrayList<String>();
     }
 
+    /**
+     * Creates a polygon from arrays of vertex coordinates. Only the first {@code size} entries
+     * of each array are used.
+     * 
+     * @param name the name of the polygon
+     * @param xs the x coordinates of the vertices
+     * @param ys the y coordinates of the vertices
+     * @param size the number of vertices
+     */
+    public Polygon(String name, int[] xs, int[] ys, int size) {
+        this.name = name;
+
+        this.xs = Arrays.copyOf(xs, Math.max(size, INITIAL_CAPACITY));
+        this.ys = Arrays.copyOf(ys, this.xs.length);
+        gapStart = size;
+        gapEnd = this.xs.length;
+        pointCount = size;
+        pointIndex = size - 1;
+
+        tags = new ArrayList<String>();
+    }
+
+    /**
+     * Creates a copy of a polygon, sharing its coordinate arrays.
+     */
+    private Polygon(Polygon original) {
+        this.name = original.name;
+
+        xs = original.xs;
+        ys = original.ys;
+        gapStart = original.gapStart;
+        gapEnd = original.gapEnd;
+        pointCount = original.pointCount;
+        pointIndex = original.pointIndex;
+        truncate(size());
+        shared = true;
+        original.shared = true;
+
+        tags = new ArrayList<String>(original.tags);
+    }
+
+    /**
+     * Returns a copy of the polygon, with the same name, tags and vertices but no points to
+     * redo, and no owner. The copy is cheap: the vertices are only copied when either polygon
+     * next changes them, so a copy can be taken on every save and read on another thread.
+     * 
+     * @return the copy
+     */
+    public Polygon copy() {
+        return new Polygon(this);
+    }
+
     /**
      * Returns the name of the polygon.
      * 
@@ -50,25 +143,131 @@ public class Polygon {
      * @param name the new name for the polygon
      */
     public void setName(String name) {
+        String oldName = this.name;
         this.name = name;
+        modified();
+        if (owner != null) {
+            owner.labelRenamed(oldName, this);
+        }
+    }
+
+    /**
+     * Returns the polygon's generation, which increases every time the polygon is modified. A
+     * polygon that hasn't been modified since it was created has a generation of 0.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns a new generation, later than any that has been returned before.
+     */
+    static long nextGeneration() {
+        return GENERATION_COUNTER.incrementAndGet();
+    }
+
+    private void modified() {
+        generation = nextGeneration();
+    }
+
+    /**
+     * Marks the polygon as modified, and tells its owner about the change.
+     */
+    private void changed() {
+        modified();
+        if (owner != null) {
+            owner.labelChanged(this);
+        }
+    }
+
+    /**
+     * Returns the number of vertices in the polygon, not counting any that have been undone.
+     */
+    public int size() {
+        return pointIndex + 1;
+    }
+
+    /**
+     * Returns the x coordinate of a vertex.
+     * 
+     * @param i the index of the vertex, less than {@link #size()}
+     */
+    public int getX(int i) {
+        checkIndex(i);
+        return xs[physicalIndex(i)];
+    }
+
+    /**
+     * Returns the y coordinate of a vertex.
+     * 
+     * @param i the index of the vertex, less than {@link #size()}
+     */
+    public int getY(int i) {
+        checkIndex(i);
+        return ys[physicalIndex(i)];
+    }
+
+    /**
+     * Copies the coordinates of the vertices into arrays, so that they can be read without
+     * going through the polygon, or passed to methods such as
+     * {@link java.awt.Graphics#drawPolyline}. The arrays can be reused between calls.
+     * 
+     * @param xs the array to copy the x coordinates into, which must hold at least
+     *        {@link #size()} entries
+     * @param ys the array to copy the y coordinates into, likewise
+     * 
+     * @return the number of vertices copied
+     */
+    public int copyCoordinates(int[] xs, int[] ys) {
+        int size = size();
+        int before = Math.min(size, gapStart);
+        System.arraycopy(this.xs, 0, xs, 0, before);
+        System.arraycopy(this.ys, 0, ys, 0, before);
+        System.arraycopy(this.xs, gapEnd, xs, before, size - before);
+        System.arraycopy(this.ys, gapEnd, ys, before, size - before);
+        return size;
+    }
+
+    /**
+     * Finds the vertex closest to a point, without creating any objects.
+     * 
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * 
+     * @return the index of the closest vertex, the first if several are equally close, or -1
+     *         if the polygon has no vertices
+     */
+    public int closestVertex(int x, int y) {
+        int closest = -1;
+        long smallestDistance = Long.MAX_VALUE;
+        for (int i = 0; i <= pointIndex; i++) {
+            int p = physicalIndex(i);
+            long dx = xs[p] - x;
+            long dy = ys[p] - y;
+            long distance = dx * dx + dy * dy;
+            if (distance < smallestDistance) {
+                smallestDistance = distance;
+                closest = i;
+            }
+        }
+        return closest;
     }
 
     /**
      * Returns a list of the current points making up the polygon. The list is a
      * copy of internally stored data, and so modifying it will not affect the
-     * parent polygon.
+     * parent polygon. Creates a {@link Point} for every vertex, so code that is run often
+     * should use {@link #getX(int)} and {@link #getY(int)} instead.
      * 
      * @return a list of the current points in the polygon.
      */
     public List<Point> getPoints() {
-        List<Point> subList = new ArrayList<Point>(pointIndex + 1);
-
-        // No need to deep-copy as Points are immutable.
+        List<Point> points = new ArrayList<Point>(pointIndex + 1);
         for (int i = 0; i <= pointIndex; i++) {
-            subList.add(points.get(i));
+            int p = physicalIndex(i);
+            points.add(new Point(xs[p], ys[p]));
         }
-
-        return subList;
+        return points;
     }
 
     /**
@@ -78,38 +277,113 @@ public class Polygon {
      */
     public void addPoint(Point point) {
         // Adding a point deletes the 'redo' cache.
-        ArrayList<Point> newPoints = new ArrayList<Point>(pointIndex + 2);
-        for (int i = 0; i < pointIndex + 1; i++) {
-            newPoints.add(points.get(i));
-        }
-
-        newPoints.add(point);
-        points = newPoints;
+        truncate(pointIndex + 1);
+        insert(pointCount, point.getX(), point.getY());
         pointIndex++;
+        changed();
     }
 
     public boolean replacePoint(Point oldPoint, Point newPoint) {
-    	// Check to see if the old point exists and was not undone
-    	if (points.contains(oldPoint) && points.indexOf(oldPoint) <= pointIndex) {
-			if (points.contains(newPoint)) {
-				int nPoints = getPoints().size();
-				if (nPoints > 3) {
-					int dBetweenPts = Math.abs( points.indexOf(newPoint) - points.indexOf(oldPoint) );
-					if ( dBetweenPts == 1 || dBetweenPts == (nPoints - 1) ) {
-						points.remove(oldPoint);
-						pointIndex--;
-						return true;
-					}
-					return false;			
-					
-				} else  {
-					return false;
-				}
-			} else {
-			    return Collections.replaceAll(points, oldPoint, newPoint);
-			}
-    	}
-    	return false;
+        // Find the first occurrences of both points, and the last of the old point, among the
+        // stored vertices, in a single pass.
+        int index = -1;
+        int lastIndex = -1;
+        int newIndex = -1;
+        for (int i = 0; i < pointCount; i++) {
+            int p = physicalIndex(i);
+            if (xs[p] == oldPoint.getX() && ys[p] == oldPoint.getY()) {
+                if (index < 0) {
+                    index = i;
+                }
+                lastIndex = i;
+            } else if (newIndex < 0 && xs[p] == newPoint.getX() && ys[p] == newPoint.getY()) {
+                newIndex = i;
+            }
+        }
+
+        // Check to see if the old point exists and was not undone
+        if (index < 0 || index > pointIndex) {
+            return false;
+        }
+
+        if (newIndex >= 0 || oldPoint.equals(newPoint)) {
+            if (newIndex < 0) {
+                newIndex = index;
+            }
+            int nPoints = size();
+            if (nPoints > 3) {
+                int dBetweenPts = Math.abs(newIndex - index);
+                if (dBetweenPts == 1 || dBetweenPts == (nPoints - 1)) {
+                    remove(index);
+                    pointIndex--;
+                    changed();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        for (int i = index; i <= lastIndex; i++) {
+            int p = physicalIndex(i);
+            if (xs[p] == oldPoint.getX() && ys[p] == oldPoint.getY()) {
+                set(i, newPoint.getX(), newPoint.getY());
+            }
+        }
+        if (index == lastIndex) {
+            modified();
+            if (owner != null) {
+                owner.vertexMoved(this, index, newPoint);
+            }
+        } else {
+            changed();
+        }
+        return true;
+    }
+
+    /**
+     * Moves a vertex, found by its index, in constant time. Unlike
+     * {@link #replacePoint(Point, Point)}, this moves the right vertex even if another has the
+     * same coordinates. If the vertex is moved onto one of its neighbours, the two are merged
+     * if the polygon has more than three vertices; otherwise the move is refused, as it is by
+     * {@link #replacePoint(Point, Point)}. Moving a vertex to where it already is changes
+     * nothing, so isn't recorded as an edit.
+     * 
+     * @param i the index of the vertex, less than {@link #size()}
+     * @param x the new x coordinate of the vertex
+     * @param y the new y coordinate of the vertex
+     * 
+     * @return the index of the vertex that is now at the new position: {@code i}, unless the
+     *         vertex was merged into a neighbour
+     */
+    public int moveVertex(int i, int x, int y) {
+        checkIndex(i);
+        if (isAt(i, x, y)) {
+            return i;
+        }
+
+        int size = size();
+        int previous = (i + size - 1) % size;
+        int next = (i + 1) % size;
+        boolean ontoPrevious = isAt(previous, x, y);
+        if (ontoPrevious || isAt(next, x, y)) {
+            if (size <= 3) {
+                // Merging would leave fewer vertices than a polygon needs.
+                return i;
+            }
+            remove(i);
+            pointIndex--;
+            changed();
+            // The vertices after the removed one have moved down by one.
+            int neighbour = ontoPrevious ? previous : next;
+            return (neighbour > i) ? neighbour - 1 : neighbour;
+        }
+
+        set(i, x, y);
+        modified();
+        if (owner != null) {
+            owner.vertexMoved(this, i, new Point(x, y));
+        }
+        return i;
     }
 
     /**
@@ -120,6 +394,7 @@ public class Polygon {
     public void removeLastPoint() {
        if (pointIndex >= 0) {
             pointIndex--;
+            changed();
        }
     }
 
@@ -130,6 +405,7 @@ public class Polygon {
     public void redoPoint() {
         if (canRedo()) {
             pointIndex++;
+            changed();
         }
     }
 
@@ -138,7 +414,7 @@ public class Polygon {
      * to the polygon.
      */
     public boolean canRedo() {
-        return points.size() - pointIndex > 1;
+        return pointCount - pointIndex > 1;
     }
 
     @Override
@@ -155,6 +431,7 @@ public class Polygon {
     public void addTag(String tag) {
         if (!tags.contains(tag)) {
             tags.add(tag);
+            changed();
         }
     }
 
@@ -171,12 +448,153 @@ public class Polygon {
      * @param string the name of the tag to remove
      */
     public void removeTag(String tag) {
-        tags.remove(tag);
+        if (tags.remove(tag)) {
+            changed();
+        }
+    }
+
+    public void addPointAt(Point targetPoint, int i) {
+        insert(i, targetPoint.getX(), targetPoint.getY());
+        pointIndex++;
+        modified();
+        if (owner != null) {
+            owner.vertexInserted(this, i, targetPoint);
+        }
+    }
+
+    /**
+     * Checks whether a stored vertex is at a point.
+     */
+    private boolean isAt(int i, int x, int y) {
+        int p = physicalIndex(i);
+        return xs[p] == x && ys[p] == y;
     }
 
-	public void addPointAt(Point targetPoint, int i) {      
-        points.add(i, targetPoint);
-		pointIndex++;
+    /**
+     * Returns where a stored vertex is in the arrays.
+     */
+    private int physicalIndex(int i) {
+        return (i < gapStart) ? i : i + (gapEnd - gapStart);
+    }
+
+    /**
+     * Sets the coordinates of a stored vertex.
+     */
+    private void set(int i, int x, int y) {
+        ownCoordinates();
+        int p = physicalIndex(i);
+        xs[p] = x;
+        ys[p] = y;
+    }
 
-	}
+    /**
+     * Inserts a vertex into the stored vertices, growing the arrays if the gap is empty.
+     */
+    private void insert(int i, int x, int y) {
+        if (i < 0 || i > pointCount) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + pointCount);
+        }
+        if (gapStart == gapEnd) {
+            grow(i);
+        } else {
+            ownCoordinates();
+            moveGap(i);
+        }
+        xs[gapStart] = x;
+        ys[gapStart] = y;
+        gapStart++;
+        pointCount++;
+    }
+
+    /**
+     * Removes a vertex from the stored vertices.
+     */
+    private void remove(int i) {
+        moveGap(i);
+        gapEnd++;
+        pointCount--;
+    }
+
+    /**
+     * Drops the stored vertices from an index onwards.
+     */
+    private void truncate(int count) {
+        if (count <= gapStart) {
+            // Everything after the gap goes, so the gap can run to the end of the arrays.
+            gapStart = count;
+            gapEnd = xs.length;
+        }
+        pointCount = count;
+    }
+
+    /**
+     * Moves the gap so that it starts at a stored vertex index, shifting the vertices between
+     * there and the gap's current start across it.
+     */
+    private void moveGap(int i) {
+        if (i == gapStart) {
+            return;
+        }
+        ownCoordinates();
+        if (i < gapStart) {
+            int count = gapStart - i;
+            System.arraycopy(xs, i, xs, gapEnd - count, count);
+            System.arraycopy(ys, i, ys, gapEnd - count, count);
+            gapStart = i;
+            gapEnd -= count;
+        } else {
+            int count = i - gapStart;
+            System.arraycopy(xs, gapEnd, xs, gapStart, count);
+            System.arraycopy(ys, gapEnd, ys, gapStart, count);
+            gapStart = i;
+            gapEnd += count;
+        }
+    }
+
+    /**
+     * Copies the stored vertices into larger arrays, with the gap at a stored vertex index.
+     */
+    private void grow(int i) {
+        int capacity = Math.max(INITIAL_CAPACITY, pointCount + (pointCount >> 1) + 1);
+        int[] newXs = new int[capacity];
+        int[] newYs = new int[capacity];
+        int after = pointCount - i;
+        int newGapEnd = capacity - after;
+        copyStored(0, i, newXs, newYs, 0);
+        copyStored(i, after, newXs, newYs, newGapEnd);
+        xs = newXs;
+        ys = newYs;
+        gapStart = i;
+        gapEnd = newGapEnd;
+        shared = false;
+    }
+
+    /**
+     * Copies a run of stored vertices into other arrays.
+     */
+    private void copyStored(int from, int count, int[] toXs, int[] toYs, int to) {
+        int before = Math.max(0, Math.min(count, gapStart - from));
+        System.arraycopy(xs, from, toXs, to, before);
+        System.arraycopy(ys, from, toYs, to, before);
+        int p = physicalIndex(from + before);
+        System.arraycopy(xs, p, toXs, to + before, count - before);
+        System.arraycopy(ys, p, toYs, to + before, count - before);
+    }
+
+    /**
+     * Makes sure the coordinate arrays aren't shared with a copy, so that they can be written.
+     */
+    private void ownCoordinates() {
+        if (shared) {
+            xs = xs.clone();
+            ys = ys.clone();
+            shared = false;
+        }
+    }
+
+    private void checkIndex(int i) {
+        if (i > pointIndex) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+        }
+    }
 }
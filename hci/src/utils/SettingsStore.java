@@ -0,0 +1,268 @@
+package src.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The application settings, stored in the ".settings" file in the root ImageLabeller directory.
+ * The settings are kept in memory, so reading or changing them never touches the disk. Changes
+ * are written out on a background thread about a second after the last one, so a burst of
+ * changes (such as clicking through the thumbnails) results in a single write, and the file is
+ * replaced atomically so that it is never left half-written. Changes that keep coming are
+ * still written every few seconds.
+ *
+ * As well as the collection that was last open, the settings hold state for each collection,
+ * such as the image that was last being labelled. Settings files written by older versions,
+ * which hold just the collection and image names on separate lines, are still read.
+ */
+public class SettingsStore {
+    private static final String SETTINGS_FILE_NAME = ".settings";
+
+    // How long to wait after a change before writing the settings.
+    private static final int WRITE_DELAY_MILLIS = 1000;
+
+    // The longest that changes are held back while more keep being made.
+    private static final int MAX_DELAY_MILLIS = 5000;
+
+    private static final String LAST_COLLECTION = "lastCollection";
+    // Per-collection settings are stored as "collection.<name>.<key>".
+    private static final String COLLECTION_PREFIX = "collection.";
+    private static final String LAST_IMAGE = "lastImage";
+
+    private final File settingsFile;
+    private final Properties properties = new Properties();
+
+    private final ScheduledExecutorService writer;
+    // The write that is waiting for more changes, or null if there are no unwritten changes.
+    private ScheduledFuture<?> pendingWrite = null;
+    // The number of writes that have been scheduled, so that a write that has been replaced by
+    // a later one can tell, and when the oldest unwritten change was made.
+    private int scheduledWrites = 0;
+    private long firstUnwrittenChange;
+    private final Object writeLock = new Object();
+
+    /**
+     * Creates the settings store, loading the settings file if there is one.
+     *
+     * @param rootDirectory the location of the root ImageLabeller directory
+     */
+    public SettingsStore(String rootDirectory) {
+        settingsFile = new File(rootDirectory, SETTINGS_FILE_NAME);
+        load();
+
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Settings writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the name of the collection that was last open, or null if there wasn't one.
+     */
+    public synchronized String getLastCollection() {
+        return properties.getProperty(LAST_COLLECTION);
+    }
+
+    /**
+     * Sets the name of the collection that is open.
+     *
+     * @param collectionName the name of the collection, or null if none is open
+     */
+    public void setLastCollection(String collectionName) {
+        set(LAST_COLLECTION, collectionName);
+    }
+
+    /**
+     * Returns the name of the image that was last open in a collection, or null if there
+     * wasn't one.
+     *
+     * @param collectionName the name of the collection
+     */
+    public synchronized String getLastImage(String collectionName) {
+        return properties.getProperty(COLLECTION_PREFIX + collectionName + "." + LAST_IMAGE);
+    }
+
+    /**
+     * Sets the name of the image that is open in a collection.
+     *
+     * @param collectionName the name of the collection
+     * @param imageName the name of the image, or null if none is open
+     */
+    public void setLastImage(String collectionName, String imageName) {
+        set(COLLECTION_PREFIX + collectionName + "." + LAST_IMAGE, imageName);
+    }
+
+    /**
+     * Removes all of the settings for a collection.
+     *
+     * @param collectionName the name of the collection
+     */
+    public synchronized void removeCollection(String collectionName) {
+        String prefix = COLLECTION_PREFIX + collectionName + ".";
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                properties.remove(key);
+            }
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Writes any unwritten changes straight away. Should be called before the application
+     * exits.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (pendingWrite == null) {
+                return;
+            }
+            pendingWrite.cancel(false);
+            pendingWrite = null;
+            scheduledWrites++;
+        }
+        write();
+    }
+
+    private synchronized void set(String key, String value) {
+        String oldValue = properties.getProperty(key);
+        if (value == null ? oldValue == null : value.equals(oldValue)) {
+            return;
+        }
+
+        if (value == null) {
+            properties.remove(key);
+        } else {
+            properties.setProperty(key, value);
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Schedules the settings to be written a second from now, replacing any write that is
+     * already waiting, unless changes have been held back for too long already.
+     */
+    private synchronized void scheduleWrite() {
+        long now = System.currentTimeMillis();
+        if (pendingWrite == null) {
+            firstUnwrittenChange = now;
+        } else {
+            pendingWrite.cancel(false);
+        }
+        long delay = Math.max(0, Math.min(WRITE_DELAY_MILLIS,
+                firstUnwrittenChange + MAX_DELAY_MILLIS - now));
+
+        final int writeNumber = ++scheduledWrites;
+        pendingWrite = writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SettingsStore.this) {
+                    if (writeNumber != scheduledWrites) {
+                        // Replaced by a later write, but started before it could be cancelled.
+                        return;
+                    }
+                    pendingWrite = null;
+                }
+                write();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the settings to a temporary file, then renames it over the settings file.
+     */
+    private void write() {
+        // A flush can race with a scheduled write, and both use the same temporary file.
+        synchronized (writeLock) {
+            Properties snapshot;
+            synchronized (this) {
+                snapshot = (Properties) properties.clone();
+            }
+
+            File temporaryFile = new File(settingsFile.getPath() + ".tmp");
+            try {
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+                try {
+                    snapshot.store(out, "ImageLabeller settings");
+                } finally {
+                    out.close();
+                }
+
+                if (!temporaryFile.renameTo(settingsFile)) {
+                    // Renaming over an existing file fails on some platforms.
+                    settingsFile.delete();
+                    if (!temporaryFile.renameTo(settingsFile)) {
+                        throw new IOException("Unable to replace the settings file.");
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Cannot write to Settings file.");
+            }
+        }
+    }
+
+    private void load() {
+        if (!settingsFile.exists() || !settingsFile.canRead()) {
+            return;
+        }
+
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(settingsFile));
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read Settings file.");
+            return;
+        }
+
+        if (!properties.isEmpty() && getLastCollection() == null) {
+            properties.clear();
+            loadOldFormat();
+        }
+    }
+
+    /**
+     * Loads a settings file written by an older version, which holds the name of the last
+     * collection and the name of the last image on separate lines.
+     */
+    private void loadOldFormat() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(settingsFile));
+            try {
+                String collectionName = in.readLine();
+                String imageName = in.readLine();
+                if (collectionName != null && !collectionName.isEmpty()) {
+                    properties.setProperty(LAST_COLLECTION, collectionName);
+                    if (imageName != null && !imageName.isEmpty()) {
+                        properties.setProperty(COLLECTION_PREFIX + collectionName + "."
+                                + LAST_IMAGE, imageName);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read Settings file.");
+        }
+    }
+}
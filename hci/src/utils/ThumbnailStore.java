@@ -0,0 +1,191 @@
+package src.utils;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Stores the thumbnails of a collection's images, so that they don't need to be recreated from
+ * the full images every time the collection is opened. The thumbnails are kept as JPEG images,
+ * one after another, in a single file in the collection root. Each one is found by its offset
+ * and length, which are recorded in the collection manifest.
+ */
+public class ThumbnailStore {
+    public static final int THUMBNAIL_WIDTH = 175;
+    public static final int THUMBNAIL_HEIGHT = 130;
+
+    private static final String THUMBNAIL_FILE_NAME = "collection.thumbs";
+
+    // The file is rewritten once it is more than this many times the size of the thumbnails
+    // that are still in use.
+    private static final int COMPACTION_RATIO = 2;
+
+    private final File file;
+
+    /**
+     * Creates the thumbnail store for a collection.
+     *
+     * @param collectionRoot the root directory of the collection
+     */
+    public ThumbnailStore(File collectionRoot) {
+        this.file = new File(collectionRoot, THUMBNAIL_FILE_NAME);
+    }
+
+    /**
+     * Scales an image down (or up) to thumbnail size.
+     *
+     * @param image the image to create a thumbnail for
+     */
+    public static BufferedImage createThumbnail(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (width > THUMBNAIL_WIDTH || height > THUMBNAIL_HEIGHT) {
+            width = (width > THUMBNAIL_WIDTH)
+                    ? THUMBNAIL_WIDTH
+                    : ((width * THUMBNAIL_HEIGHT) / height);
+            height = (height > THUMBNAIL_HEIGHT)
+                    ? THUMBNAIL_HEIGHT
+                    : (height * THUMBNAIL_WIDTH) / width;
+        } else if (width < THUMBNAIL_WIDTH || height < THUMBNAIL_HEIGHT) {
+            width = (width < THUMBNAIL_WIDTH)
+                    ? THUMBNAIL_WIDTH
+                    : ((width * height) / THUMBNAIL_HEIGHT);
+            height = (height < THUMBNAIL_HEIGHT)
+                    ? THUMBNAIL_HEIGHT
+                    : (height * width) / THUMBNAIL_WIDTH;
+        }
+
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Image scaledImage = image.getScaledInstance(width, height, Image.SCALE_FAST);
+        thumbnail.getGraphics().drawImage(scaledImage, 0, 0, null);
+        return thumbnail;
+    }
+
+    /**
+     * Encodes a thumbnail so that it can be appended to the store.
+     *
+     * @param thumbnail the thumbnail to encode
+     */
+    public static byte[] encode(BufferedImage thumbnail) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!ImageIO.write(thumbnail, "jpg", bytes)) {
+            throw new IOException("No JPEG writer available.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Appends an encoded thumbnail to the end of the store.
+     *
+     * @param thumbnail the encoded thumbnail
+     *
+     * @return the offset the thumbnail was written at
+     */
+    public synchronized long append(byte[] thumbnail) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            long offset = out.length();
+            out.seek(offset);
+            out.write(thumbnail);
+            return offset;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a thumbnail from the store.
+     *
+     * @param offset the offset the thumbnail was written at
+     * @param length the length of the encoded thumbnail
+     *
+     * @throws IOException if the thumbnail can't be read or decoded
+     */
+    public BufferedImage read(long offset, int length) throws IOException {
+        byte[] thumbnail = new byte[length];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(offset);
+            in.readFully(thumbnail);
+        } finally {
+            in.close();
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        if (image == null) {
+            throw new IOException("Corrupt thumbnail at offset " + offset);
+        }
+        return image;
+    }
+
+    /**
+     * Rewrites the store without any thumbnails that are no longer referenced, if enough of the
+     * file is unused to make it worthwhile. The offsets of the given entries are updated to
+     * match the rewritten file.
+     *
+     * @param entries the manifest entries of the thumbnails to keep
+     */
+    synchronized void compact(Collection<CollectionManifest.Entry> entries) throws IOException {
+        long usedBytes = 0;
+        for (CollectionManifest.Entry entry : entries) {
+            if (entry.thumbnailOffset >= 0) {
+                usedBytes += entry.thumbnailLength;
+            }
+        }
+        if (!file.exists() || file.length() <= usedBytes * COMPACTION_RATIO) {
+            return;
+        }
+
+        // The entries are only updated once the new file is in place, so a failure part way
+        // through leaves them pointing into the old file.
+        List<CollectionManifest.Entry> keptEntries = new ArrayList<CollectionManifest.Entry>();
+        List<Long> newOffsets = new ArrayList<Long>();
+
+        File compactedFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(compactedFile));
+        try {
+            long offset = 0;
+            for (CollectionManifest.Entry entry : entries) {
+                if (entry.thumbnailOffset < 0) {
+                    continue;
+                }
+                byte[] thumbnail = new byte[entry.thumbnailLength];
+                in.seek(entry.thumbnailOffset);
+                in.readFully(thumbnail);
+                out.write(thumbnail);
+
+                keptEntries.add(entry);
+                newOffsets.add(offset);
+                offset += thumbnail.length;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        if (!compactedFile.renameTo(file)) {
+            file.delete();
+            if (!compactedFile.renameTo(file)) {
+                throw new IOException("Unable to replace the thumbnail file.");
+            }
+        }
+
+        for (int i = 0; i < keptEntries.size(); i++) {
+            keptEntries.get(i).thumbnailOffset = newOffsets.get(i);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package src.utils;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads regions of an image without decoding the whole image, for images too large to hold in
+ * memory. Regions are read at a level of detail: level 0 is full resolution, and each level
+ * after that has half the width and height of the one before. Each level is divided into
+ * tiles, which are decoded one at a time and kept in the shared {@link ImageCache}, so moving
+ * around an image only decodes the tiles that haven't been seen recently.
+ *
+ * Only images stored in tiles, such as tiled TIFFs, can have a single tile decoded without
+ * decoding the rows before it, so {@link #isTiled} should be checked before relying on this
+ * being any faster than decoding the image at once.
+ *
+ * Readers are not thread-safe, but the tiles they decode are shared by all readers of the same
+ * file.
+ */
+public class TiledImageReader {
+    // The width and height of each tile, in pixels of the level it belongs to.
+    private static final int TILE_SIZE = 512;
+
+    private final File imageFile;
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+    /**
+     * Opens an image for reading. Only the image header is read.
+     *
+     * @param imageFile the image file to read
+     *
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public TiledImageReader(File imageFile) throws IOException {
+        this.imageFile = imageFile;
+
+        input = ImageIO.createImageInputStream(imageFile);
+        if (input == null) {
+            throw new IOException("Unable to open image file: " + imageFile.getName());
+        }
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader for image file: " + imageFile.getName());
+            }
+            reader = readers.next();
+            // Tiles are read in any order, so the reader needs to be able to seek backwards.
+            reader.setInput(input, false, true);
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns whether the image is stored in tiles, so that regions of it can be decoded
+     * without decoding the rest.
+     *
+     * @throws IOException if the image header cannot be read
+     */
+    public boolean isTiled() throws IOException {
+        return reader.isImageTiled(0);
+    }
+
+    /**
+     * Returns the most detailed level at which an image fits within a given size, without
+     * going below it.
+     *
+     * @param sourceWidth the full width of the image
+     * @param sourceHeight the full height of the image
+     * @param targetWidth the width the image is wanted at
+     * @param targetHeight the height the image is wanted at
+     */
+    public static int getLevel(int sourceWidth, int sourceHeight, int targetWidth,
+            int targetHeight) {
+        int level = 0;
+        while ((sourceWidth >> (level + 1)) >= targetWidth
+                && (sourceHeight >> (level + 1)) >= targetHeight) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Reads a region of the image at a level of detail.
+     *
+     * @param region the region to read, in full resolution pixels
+     * @param level the level of detail to read at
+     *
+     * @return the region, with each pixel covering 2^level by 2^level pixels of the image
+     *
+     * @throws IOException if the image cannot be decoded
+     */
+    public BufferedImage readRegion(Rectangle region, int level) throws IOException {
+        return readRegion(region, level, true);
+    }
+
+    /**
+     * Reads a region of the image at a level of detail, as {@link #readRegion(Rectangle, int)}
+     * does, optionally without keeping the decoded tiles. Tiles that are already in the cache
+     * are still used.
+     *
+     * @param region the region to read, in full resolution pixels
+     * @param level the level of detail to read at
+     * @param cacheTiles whether to put newly decoded tiles in the shared {@link ImageCache}
+     *
+     * @throws IOException if the image cannot be decoded
+     */
+    BufferedImage readRegion(Rectangle region, int level, boolean cacheTiles)
+            throws IOException {
+        region = region.intersection(new Rectangle(0, 0, width, height));
+        if (region.isEmpty()) {
+            throw new IllegalArgumentException("The region is outside of the image.");
+        }
+
+        // The region in pixels of the level, rounded out to whole pixels.
+        int left = region.x >> level;
+        int top = region.y >> level;
+        int right = ((region.x + region.width - 1) >> level) + 1;
+        int bottom = ((region.y + region.height - 1) >> level) + 1;
+
+        BufferedImage result = new BufferedImage(right - left, bottom - top,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            for (int row = top / TILE_SIZE; row * TILE_SIZE < bottom; row++) {
+                for (int column = left / TILE_SIZE; column * TILE_SIZE < right; column++) {
+                    BufferedImage tile = getTile(level, column, row, cacheTiles);
+                    graphics.drawImage(tile, column * TILE_SIZE - left, row * TILE_SIZE - top,
+                            null);
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the reader the image was opened with, positioned at its header, so that an image
+     * that isn't tiled can be decoded at once without opening the file again. The reader is
+     * disposed of when this is closed.
+     */
+    ImageReader getImageReader() {
+        return reader;
+    }
+
+    /**
+     * Closes the image file. Tiles that have already been decoded stay in the cache.
+     */
+    public void close() {
+        reader.dispose();
+        try {
+            input.close();
+        } catch (IOException e) {
+            // Nothing more can be done with it anyway.
+        }
+    }
+
+    /**
+     * Returns a tile from the cache, decoding it if it isn't there.
+     */
+    private BufferedImage getTile(int level, int column, int row, boolean cacheTile)
+            throws IOException {
+        TileKey key = new TileKey(imageFile, level, column, row);
+        BufferedImage tile = ImageCache.getSharedCache().get(key);
+        if (tile != null) {
+            return tile;
+        }
+
+        // The tile's region in full resolution pixels, which is a whole number of pixels at
+        // every level, so neighbouring tiles line up exactly.
+        int scale = 1 << level;
+        Rectangle source = new Rectangle(column * TILE_SIZE * scale, row * TILE_SIZE * scale,
+                TILE_SIZE * scale, TILE_SIZE * scale).intersection(
+                        new Rectangle(0, 0, width, height));
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(source);
+        if (scale > 1) {
+            param.setSourceSubsampling(scale, scale, 0, 0);
+        }
+        tile = reader.read(0, param);
+
+        if (cacheTile) {
+            ImageCache.getSharedCache().put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Identifies a tile in the cache. The file's size and modification time are part of the
+     * key, so tiles of a file that has been replaced are never used.
+     */
+    static final class TileKey {
+        private final String path;
+        private final long fileSize;
+        private final long fileModified;
+        private final int level;
+        private final int column;
+        private final int row;
+
+        private TileKey(File imageFile, int level, int column, int row) {
+            this.path = imageFile.getAbsolutePath();
+            this.fileSize = imageFile.length();
+            this.fileModified = imageFile.lastModified();
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        /**
+         * Returns whether this is a tile of an image file, whatever its contents.
+         */
+        boolean isTileOf(File imageFile) {
+            return path.equals(imageFile.getAbsolutePath());
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof TileKey)) {
+                return false;
+            }
+
+            TileKey other = (TileKey) object;
+            return path.equals(other.path) && fileSize == other.fileSize
+                    && fileModified == other.fileModified && level == other.level
+                    && column == other.column && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = path.hashCode();
+            hash = 31 * hash + (int) (fileModified ^ (fileModified >>> 32));
+            hash = 31 * hash + level;
+            hash = 31 * hash + column;
+            hash = 31 * hash + row;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.ApplicationIO;
+import src.utils.ApplicationIO.ImportedImage;
+import src.utils.ApplicationIO.LabelParseException;
+import src.utils.CollectionSettings;
+import src.utils.LabelFormat;
+import src.utils.LabelledImage;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Tests for the {@link ApplicationIO} class.
+ */
+public class ApplicationIOTest {
+    private File tempDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = TestFiles.createTempDirectory("ApplicationIOTest");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(tempDirectory);
+    }
+
+    @Test
+    public void testOpenCollectionMatchesLabels() throws IOException {
+        File collectionRoot = createTestCollection("Matching", 20);
+
+        List<String> failures = new ArrayList<String>();
+        Map<String, LabelledImage> images = ApplicationIO.openCollection(collectionRoot, failures);
+
+        assertEquals(0, failures.size());
+        assertEquals(20, images.size());
+        for (int i = 0; i < 20; i++) {
+            LabelledImage image = images.get("image" + i);
+            assertEquals(1, image.getLabels().size());
+            assertEquals("label" + i, image.getLabels().get(0).getName());
+        }
+    }
+
+    @Test
+    public void testReadLabelsRoundTrip() throws Exception {
+        File labelFile = new File(tempDirectory, "roundtrip.labels");
+        List<Polygon> polygons = createTestPolygons();
+        ApplicationIO.writeLabels(labelFile, polygons);
+
+        Map<String, Polygon> readPolygons = ApplicationIO.readLabels(labelFile);
+
+        assertEquals(polygons.size(), readPolygons.size());
+        for (Polygon polygon : polygons) {
+            assertEquals(polygon.getPoints(), readPolygons.get(polygon.getName()).getPoints());
+        }
+    }
+
+    @Test
+    public void testReadLabelsIgnoresWhitespace() throws Exception {
+        File labelFile = writeFile("whitespace.labels", "<?xml version=\"1.0\"?>\n"
+                + "<ImageLabels>\n  <Label>\n    <Name>Cat</Name>\n    <Points>\n"
+                + "      <Point><x>1</x><y>2</y></Point>\n"
+                + "      <Point>\n        <x>3</x>\n        <y>4</y>\n      </Point>\n"
+                + "    </Points>\n  </Label>\n</ImageLabels>\n");
+
+        Map<String, Polygon> polygons = ApplicationIO.readLabels(labelFile);
+
+        List<Point> expectedPoints = new ArrayList<Point>();
+        expectedPoints.add(new Point(1, 2));
+        expectedPoints.add(new Point(3, 4));
+        assertEquals(expectedPoints, polygons.get("Cat").getPoints());
+    }
+
+    @Test
+    public void testReadLabelsRejectsBadFiles() throws IOException {
+        String[] badContents = {
+            "not xml",
+            "<ImageLabels><Label><Name>A</Name><Points></Points></Label></ImageLabels>",
+            "<ImageLabels><Label><Name>A</Name><Points><Point><x>1</x></Point></Points>"
+                    + "</Label></ImageLabels>",
+            "<ImageLabels><Label><Name>A</Name><Points><Point><x>a</x><y>1</y></Point>"
+                    + "</Points></Label></ImageLabels>",
+            "<ImageLabels><Label><Points><Point><x>1</x><y>1</y></Point></Points>"
+                    + "</Label></ImageLabels>",
+            "<ImageLabels><Polygon><Name>A</Name><Points><Point><x>1</x><y>1</y></Point>"
+                    + "</Points></Polygon></ImageLabels>",
+        };
+
+        for (int i = 0; i < badContents.length; i++) {
+            File labelFile = writeFile("bad" + i + ".labels", badContents[i]);
+            try {
+                ApplicationIO.readLabels(labelFile);
+                fail("Parsed a bad label file: " + badContents[i]);
+            } catch (LabelParseException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void testWriteLabelsOutput() throws Exception {
+        File labelFile = new File(tempDirectory, "output.labels");
+        List<Point> points = new ArrayList<Point>();
+        points.add(new Point(1, 2));
+        points.add(new Point(-3, 40));
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        polygons.add(new Polygon("Cat 1", points));
+
+        ApplicationIO.writeLabels(labelFile, polygons);
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"
+                + "<ImageLabels><Label><Name>Cat 1</Name><Points>"
+                + "<Point><x>1</x><y>2</y></Point><Point><x>-3</x><y>40</y></Point>"
+                + "</Points></Label></ImageLabels>", readFile(labelFile));
+
+        ApplicationIO.writeLabels(labelFile, new ArrayList<Polygon>());
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"
+                + "<ImageLabels/>", readFile(labelFile));
+    }
+
+    @Test
+    public void testPrettyPrintedLabelsRoundTrip() throws Exception {
+        File labelFile = new File(tempDirectory, "pretty.labels");
+        List<Polygon> polygons = createTestPolygons();
+        ApplicationIO.writeLabels(labelFile, polygons, true);
+
+        assertTrue(readFile(labelFile).contains("\n    <Name>Polygon 0</Name>\n"));
+
+        Map<String, Polygon> readPolygons = ApplicationIO.readLabels(labelFile);
+        assertEquals(polygons.size(), readPolygons.size());
+        for (Polygon polygon : polygons) {
+            assertEquals(polygon.getPoints(), readPolygons.get(polygon.getName()).getPoints());
+        }
+    }
+
+    @Test
+    public void testBinaryLabelsRoundTrip() throws Exception {
+        File labelFile = new File(tempDirectory, "roundtrip.labelsbin");
+        List<Polygon> polygons = createTestPolygons();
+        polygons.get(0).addTag("Animal");
+        polygons.get(0).addTag("Caf\u00e9");
+
+        List<Point> extremePoints = new ArrayList<Point>();
+        extremePoints.add(new Point(Integer.MAX_VALUE, Integer.MIN_VALUE));
+        extremePoints.add(new Point(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        extremePoints.add(new Point(0, -1));
+        polygons.add(new Polygon("Extremes", extremePoints));
+
+        ApplicationIO.writeBinaryLabels(labelFile, polygons);
+        Map<String, Polygon> readPolygons = ApplicationIO.readLabels(labelFile);
+
+        assertEquals(polygons.size(), readPolygons.size());
+        for (Polygon polygon : polygons) {
+            Polygon readPolygon = readPolygons.get(polygon.getName());
+            assertEquals(polygon.getPoints(), readPolygon.getPoints());
+            assertEquals(polygon.getTags(), readPolygon.getTags());
+        }
+    }
+
+    @Test
+    public void testBinaryLabelsAreSmaller() throws Exception {
+        File xmlFile = new File(tempDirectory, "size.labels");
+        File binaryFile = new File(tempDirectory, "size.labelsbin");
+        List<Polygon> polygons = createTestPolygons();
+
+        ApplicationIO.writeLabels(xmlFile, polygons);
+        ApplicationIO.writeBinaryLabels(binaryFile, polygons);
+
+        assertTrue("Binary file is " + binaryFile.length() + " bytes, XML is " 
+                + xmlFile.length(), binaryFile.length() * 10 < xmlFile.length());
+    }
+
+    @Test
+    public void testReadLabelsRejectsTruncatedBinaryFiles() throws Exception {
+        File labelFile = new File(tempDirectory, "truncated.labelsbin");
+        ApplicationIO.writeBinaryLabels(labelFile, createTestPolygons());
+        byte[] contents = readFile(labelFile).getBytes("ISO-8859-1");
+
+        for (int length = 4; length < contents.length; length += 7) {
+            FileOutputStream out = new FileOutputStream(labelFile);
+            out.write(contents, 0, length);
+            out.close();
+            try {
+                ApplicationIO.readLabels(labelFile);
+                fail("Parsed a binary label file truncated to " + length + " bytes");
+            } catch (LabelParseException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void testSaveImageUsesCollectionFormat() throws Exception {
+        File collectionRoot = createTestCollection("Collections/Formats", 1);
+        File xmlFile = new File(collectionRoot, "labels/image0.labels");
+        File binaryFile = new File(collectionRoot, "labels/image0.labelsbin");
+        LabelledImage image = ApplicationIO.openCollection(collectionRoot).get("image0");
+        // Only the binary format stores tags.
+        image.getLabel("label0").addTag("Cat");
+
+        CollectionSettings settings = new CollectionSettings();
+        settings.setLabelFormat(LabelFormat.BINARY);
+        settings.save(collectionRoot);
+        ApplicationIO.saveImage(tempDirectory.getPath(), "Formats", image, 
+                CollectionSettings.load(collectionRoot));
+
+        assertTrue(binaryFile.exists());
+        assertFalse(xmlFile.exists());
+
+        LabelledImage reopenedImage = ApplicationIO.openCollection(collectionRoot).get("image0");
+        assertEquals(image.getLabels().get(0).getPoints(),
+                reopenedImage.getLabels().get(0).getPoints());
+        assertEquals(Arrays.asList("Cat"), reopenedImage.getLabel("label0").getTags());
+    }
+
+    @Test
+    public void testReopenCollectionUsesManifest() throws IOException {
+        File collectionRoot = createTestCollection("Manifest", 5);
+        Map<String, LabelledImage> images = ApplicationIO.openCollection(collectionRoot);
+
+        assertTrue(new File(collectionRoot, "collection.idx").exists());
+        assertTrue(new File(collectionRoot, "collection.thumbs").exists());
+
+        Map<String, LabelledImage> reopenedImages = ApplicationIO.openCollection(collectionRoot);
+        assertEquals(images.keySet(), reopenedImages.keySet());
+        for (String name : images.keySet()) {
+            LabelledImage image = images.get(name);
+            LabelledImage reopenedImage = reopenedImages.get(name);
+            assertEquals(image.getWidth(), reopenedImage.getWidth());
+            assertEquals(image.getHeight(), reopenedImage.getHeight());
+            assertEquals(image.getLabelNames(), reopenedImage.getLabelNames());
+            assertEquals(image.getLabels().get(0).getPoints(),
+                    reopenedImage.getLabels().get(0).getPoints());
+            assertTrue(reopenedImage.getThumbnail() != null);
+        }
+    }
+
+    @Test
+    public void testReopenCollectionRescansChangedLabels() throws IOException {
+        File collectionRoot = createTestCollection("Rescan", 2);
+        ApplicationIO.openCollection(collectionRoot);
+
+        File labelFile = new File(collectionRoot, "labels/image1.labels");
+        List<Polygon> polygons = createTestPolygons();
+        ApplicationIO.writeLabels(labelFile, polygons);
+        labelFile.setLastModified(labelFile.lastModified() - 10000);
+
+        LabelledImage image = ApplicationIO.openCollection(collectionRoot).get("image1");
+        assertEquals(polygons.size(), image.getLabels().size());
+    }
+
+    @Test
+    public void testSaveImageClearsModified() throws Exception {
+        File collectionRoot = createTestCollection("Collections/Modified", 1);
+        LabelledImage image = ApplicationIO.openCollection(collectionRoot).get("image0");
+        assertFalse(image.isModified());
+
+        image.getLabelsMap().get("label0").addPoint(new Point(3, 3));
+        assertTrue(image.isModified());
+
+        ApplicationIO.saveImage(tempDirectory.getPath(), "Modified", image);
+        assertFalse(image.isModified());
+
+        image.removeLabel("label0");
+        assertTrue(image.isModified());
+    }
+
+    @Test
+    public void testImportImageCopiesAndDigestsWholeFile() throws Exception {
+        File sourceFile = new File(tempDirectory, "source.png");
+        ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "png", sourceFile);
+        // Bytes after the end of the image that the decoder never needs to read.
+        FileOutputStream out = new FileOutputStream(sourceFile, true);
+        out.write("trailing data".getBytes("UTF-8"));
+        out.close();
+
+        File destFile = new File(tempDirectory, "imported.png");
+        ImportedImage imported = ApplicationIO.importImage(sourceFile, destFile);
+
+        byte[] contents = readBytes(sourceFile);
+        assertTrue(Arrays.equals(contents, readBytes(destFile)));
+        assertEquals(30, imported.getImage().getWidth());
+        assertEquals(20, imported.getImage().getHeight());
+        assertEquals("imported", imported.getImage().getName());
+
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+        assertEquals(new BigInteger(1, digest).toString(16), 
+                imported.getDigest().replaceFirst("^0+", ""));
+    }
+
+    @Test
+    public void testImportImageRemovesCopyOfBadFile() throws IOException {
+        File sourceFile = writeFile("source.png", "not an image");
+        File destFile = new File(tempDirectory, "imported.png");
+
+        try {
+            ApplicationIO.importImage(sourceFile, destFile);
+            fail("Expected the import to fail.");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertFalse(destFile.exists());
+    }
+
+    @Test
+    public void testReadLabelFolderMatchesFilesToImages() throws IOException {
+        File folder = new File(tempDirectory, "imported");
+        folder.mkdir();
+        List<Polygon> polygons = createTestPolygons();
+        ApplicationIO.writeLabels(new File(folder, "first.labels"), polygons);
+        ApplicationIO.writeLabels(new File(folder, "other.labels"), polygons);
+        writeFile("imported/broken.labels", "not a label file");
+        writeFile("imported/first.txt", "not a label file either");
+
+        // The binary file is written last, so it is used instead of the XML one.
+        File oldFile = new File(folder, "second.labels");
+        ApplicationIO.writeLabels(oldFile, polygons);
+        oldFile.setLastModified(System.currentTimeMillis() - 60000);
+        ApplicationIO.writeBinaryLabels(new File(folder, "second.labelsbin"),
+                polygons.subList(0, 1));
+
+        List<String> failures = new ArrayList<String>();
+        List<File> unmatchedFiles = new ArrayList<File>();
+        Map<String, Map<String, Polygon>> labels = ApplicationIO.readLabelFolder(folder,
+                new HashSet<String>(Arrays.asList("first", "second", "broken", "missing")),
+                failures, unmatchedFiles);
+
+        assertEquals(Arrays.asList("first", "second"), new ArrayList<String>(labels.keySet()));
+        assertEquals(3, labels.get("first").size());
+        assertEquals(1, labels.get("second").size());
+        assertEquals(polygons.get(0).getPoints(),
+                labels.get("second").get("Polygon 0").getPoints());
+        assertEquals(Arrays.asList("Unable to read labels: broken.labels"), failures);
+        assertEquals(Arrays.asList(new File(folder, "other.labels")), unmatchedFiles);
+    }
+
+    /**
+     * Creates a collection with a number of small images, each with a single label.
+     */
+    private File createTestCollection(String name, int size) throws IOException {
+        File collectionRoot = new File(tempDirectory, name);
+        File imagesDirectory = new File(collectionRoot, "images");
+        File labelsDirectory = new File(collectionRoot, "labels");
+        imagesDirectory.mkdirs();
+        labelsDirectory.mkdirs();
+
+        ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB), "png", imageBytes);
+
+        for (int i = 0; i < size; i++) {
+            FileOutputStream out = new FileOutputStream(new File(imagesDirectory,
+                    "image" + i + ".png"));
+            imageBytes.writeTo(out);
+            out.close();
+
+            List<Point> points = new ArrayList<Point>();
+            points.add(new Point(0, 0));
+            points.add(new Point(i, 1));
+            points.add(new Point(2, 2));
+            List<Polygon> polygons = new ArrayList<Polygon>();
+            polygons.add(new Polygon("label" + i, points));
+            ApplicationIO.writeLabels(new File(labelsDirectory, "image" + i + ".labels"),
+                    polygons);
+        }
+
+        return collectionRoot;
+    }
+
+    /**
+     * Creates a list of {@link Polygon}s for use in JUnit tests.
+     */
+    private static List<Polygon> createTestPolygons() {
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        for (int i = 0; i < 3; i++) {
+            List<Point> points = new ArrayList<Point>();
+            for (int j = 0; j < 50; j++) {
+                points.add(new Point(i * 100 + j, j * j - i));
+            }
+            polygons.add(new Polygon("Polygon " + i, points));
+        }
+        return polygons;
+    }
+
+    /**
+     * Writes a string to a file in the temporary directory.
+     */
+    private File writeFile(String name, String contents) throws IOException {
+        File file = new File(tempDirectory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(contents.getBytes("UTF-8"));
+        out.close();
+        return file;
+    }
+
+    /**
+     * Reads the contents of a file as a UTF-8 string.
+     */
+    private static String readFile(File file) throws IOException {
+        return new String(readBytes(file), "UTF-8");
+    }
+
+    /**
+     * Reads the contents of a file.
+     */
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] contents = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < contents.length) {
+                read += in.read(contents, read, contents.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,155 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.nonui.BulkImporter;
+import src.utils.ImageStore;
+import src.utils.LabelledImage;
+
+/**
+ * Tests for the {@link BulkImporter} class.
+ */
+public class BulkImporterTest {
+    private File tempDirectory;
+    private File sourceDirectory;
+    private File imagesDirectory;
+    private ImageStore imageStore;
+
+    // Filled in by the listener on the event dispatch thread.
+    private final List<String> importedNames =
+        Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile BulkImporter.Summary summary = null;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = TestFiles.createTempDirectory("BulkImporterTest");
+
+        sourceDirectory = new File(tempDirectory, "source");
+        new File(sourceDirectory, "nested").mkdirs();
+        createImage("a.png", 10);
+        createImage("b.png", 20);
+        createImage("nested/c.png", 30);
+
+        File collectionRoot = new File(tempDirectory, "Collections/Import");
+        imagesDirectory = new File(collectionRoot, "images");
+        imagesDirectory.mkdirs();
+        imageStore = new ImageStore(collectionRoot);
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(tempDirectory);
+    }
+
+    @Test
+    public void testConflictingNamesAreSkipped() throws Exception {
+        runImport(Arrays.asList("a"), false);
+
+        Collections.sort(importedNames);
+        assertEquals(Arrays.asList("b", "c"), importedNames);
+        assertEquals(2, summary.getImportedCount());
+        assertEquals(Arrays.asList(new File(sourceDirectory, "a.png")), summary.getConflicts());
+        assertTrue(summary.getFailures().isEmpty());
+        assertFalse(summary.wasCancelled());
+        assertFalse(new File(imagesDirectory, "a.png").exists());
+    }
+
+    @Test
+    public void testConflictingNamesAreRenamed() throws Exception {
+        runImport(Arrays.asList("a", "a_2"), true);
+
+        Collections.sort(importedNames);
+        assertEquals(Arrays.asList("a_3", "b", "c"), importedNames);
+        assertEquals(3, summary.getImportedCount());
+        assertTrue(summary.getConflicts().isEmpty());
+        assertTrue(new File(imagesDirectory, "a_3.png").exists());
+    }
+
+    @Test
+    public void testNothingIsImportedAfterCancel() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                BulkImporter importer = createImporter(Collections.<String>emptyList());
+                importer.start(Arrays.asList(sourceDirectory), false);
+                importer.cancel();
+            }
+        });
+        String[] imported = imagesDirectory.list();
+
+        // Give the update timer a chance to run, were it still going.
+        Thread.sleep(500);
+        flushEvents();
+        assertEquals(Arrays.asList(imported), Arrays.asList(imagesDirectory.list()));
+        assertTrue(importedNames.isEmpty());
+        assertEquals(1, finished.getCount());
+    }
+
+    /**
+     * Imports the source directory on the event dispatch thread, and waits for the import to
+     * finish.
+     */
+    private void runImport(final List<String> existingNames, final boolean renameConflicts)
+            throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                BulkImporter importer = createImporter(existingNames);
+                importer.start(Arrays.asList(sourceDirectory), renameConflicts);
+            }
+        });
+        assertTrue("Import didn't finish", finished.await(10, TimeUnit.SECONDS));
+    }
+
+    private BulkImporter createImporter(List<String> existingNames) {
+        return new BulkImporter(null, imageStore, existingNames,
+                new BulkImporter.ImportListener() {
+            @Override
+            public void imagesImported(List<LabelledImage> images) {
+                for (LabelledImage image : images) {
+                    importedNames.add(image.getName());
+                }
+            }
+
+            @Override
+            public void importFinished(BulkImporter.Summary importSummary) {
+                summary = importSummary;
+                finished.countDown();
+            }
+        });
+    }
+
+    private static void flushEvents() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // Nothing to do; just waits for the events before it.
+            }
+        });
+    }
+
+    private void createImage(String name, int width) throws IOException {
+        File file = new File(sourceDirectory, name);
+        ImageIO.write(new BufferedImage(width, 10, BufferedImage.TYPE_INT_RGB), "png", file);
+    }
+}
@@ -0,0 +1,116 @@
+package tests;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import src.utils.ApplicationIO;
+import src.utils.CocoExporter;
+import src.utils.Polygon;
+
+/**
+ * Measures the speed and memory use of exporting collections of different sizes in the COCO
+ * JSON format, up to a synthetic collection of 100,000 labels. The peak heap use should stay
+ * about the same however large the collection is. Not a JUnit test; run it with
+ * "ant benchmark".
+ */
+public class CocoExportBenchmark {
+    private static final int LABELS_PER_IMAGE = 100;
+    private static final int VERTICES_PER_LABEL = 20;
+    private static final int[] IMAGE_COUNTS = { 10, 100, 1000 };
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        for (int imageCount : IMAGE_COUNTS) {
+            File collectionRoot = createCollection(imageCount);
+            File outputFile = new File(collectionRoot, "export.json");
+            CocoExporter exporter = new CocoExporter(collectionRoot);
+
+            // Warm up before timing anything.
+            exporter.export(outputFile);
+
+            long elapsed = 0;
+            long peakHeap = 0;
+            for (int i = 0; i < RUNS; i++) {
+                System.gc();
+                resetPeakHeap();
+                long start = System.nanoTime();
+                exporter.export(outputFile);
+                elapsed += System.nanoTime() - start;
+                peakHeap = Math.max(peakHeap, peakHeap());
+            }
+
+            int labelCount = imageCount * LABELS_PER_IMAGE;
+            System.out.println(String.format("%7d labels %8.1f ms %10.0f labels/s %7d KB output "
+                    + "%7d KB peak heap", labelCount, elapsed / 1e6 / RUNS,
+                    labelCount / (elapsed / 1e9 / RUNS), outputFile.length() / 1024,
+                    peakHeap / 1024));
+
+            TestFiles.delete(collectionRoot);
+        }
+    }
+
+    /**
+     * Creates a collection of identical images, each with a label file of small polygons.
+     */
+    private static File createCollection(int imageCount) throws Exception {
+        File collectionRoot = TestFiles.createTempDirectory("CocoExportBenchmark");
+        File imagesDirectory = new File(collectionRoot, "images");
+        File labelsDirectory = new File(collectionRoot, "labels");
+        imagesDirectory.mkdirs();
+        labelsDirectory.mkdirs();
+
+        File image = new File(imagesDirectory, "image0.png");
+        ImageIO.write(new BufferedImage(1600, 1200, BufferedImage.TYPE_INT_RGB), "png", image);
+
+        List<Polygon> labels = new ArrayList<Polygon>(LABELS_PER_IMAGE);
+        int[] xs = new int[VERTICES_PER_LABEL];
+        int[] ys = new int[VERTICES_PER_LABEL];
+        for (int i = 0; i < LABELS_PER_IMAGE; i++) {
+            for (int j = 0; j < VERTICES_PER_LABEL; j++) {
+                double angle = 2 * Math.PI * j / VERTICES_PER_LABEL;
+                xs[j] = 80 * (i % 10) + 40 + (int) (30 * Math.cos(angle));
+                ys[j] = 60 * (i / 10) + 30 + (int) (20 * Math.sin(angle));
+            }
+            labels.add(new Polygon("Label " + (i % 20), xs, ys, VERTICES_PER_LABEL));
+        }
+
+        for (int i = 0; i < imageCount; i++) {
+            if (i > 0) {
+                Files.copy(image.toPath(), new File(imagesDirectory, "image" + i + ".png")
+                        .toPath());
+            }
+            ApplicationIO.writeLabels(new File(labelsDirectory, "image" + i + ".labels"),
+                    labels);
+        }
+        return collectionRoot;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the peak heap use since it was last reset, summed over the heap's pools.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
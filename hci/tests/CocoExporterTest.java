@@ -0,0 +1,127 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.ApplicationIO;
+import src.utils.CocoExporter;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Tests for the {@link CocoExporter} class.
+ */
+public class CocoExporterTest {
+    private File tempDirectory;
+    private File collectionRoot;
+    private File outputFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = TestFiles.createTempDirectory("CocoExporterTest");
+
+        collectionRoot = new File(tempDirectory, "Collections/Export");
+        new File(collectionRoot, "images").mkdirs();
+        new File(collectionRoot, "labels").mkdirs();
+        outputFile = new File(tempDirectory, "export.json");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(tempDirectory);
+    }
+
+    @Test
+    public void testLabelsAreScaledToImagePixels() throws IOException {
+        // Displayed at 800x600, so label coordinates are doubled.
+        createImage("big", 1600, 1200);
+        ApplicationIO.writeLabels(new File(collectionRoot, "labels/big.labels"),
+                Arrays.asList(createRectangle("car", 100, 50, 200, 100)));
+
+        CocoExporter.Summary summary = new CocoExporter(collectionRoot).export(outputFile);
+        assertEquals(1, summary.getImageCount());
+        assertEquals(1, summary.getAnnotationCount());
+        assertEquals(1, summary.getCategoryCount());
+
+        String json = readOutput();
+        assertContains(json, "\"images\":[{\"id\":1,\"file_name\":\"big.png\","
+                + "\"width\":1600,\"height\":1200}]");
+        assertContains(json, "\"segmentation\":[[200,100,600,100,600,300,200,300]]");
+        assertContains(json, "\"area\":80000,\"bbox\":[200,100,400,200]");
+        assertContains(json, "\"categories\":[{\"id\":1,\"name\":\"car\"}]");
+    }
+
+    @Test
+    public void testUnsavedLabelsReplaceLabelFiles() throws IOException {
+        createImage("first", 800, 600);
+        createImage("second", 800, 600);
+        ApplicationIO.writeLabels(new File(collectionRoot, "labels/first.labels"),
+                Arrays.asList(createRectangle("saved", 0, 0, 10, 10)));
+        ApplicationIO.writeLabels(new File(collectionRoot, "labels/second.labels"),
+                Arrays.asList(createRectangle("also \"saved\"", 0, 0, 10, 10)));
+
+        Map<String, List<Polygon>> unsavedLabels = new HashMap<String, List<Polygon>>();
+        List<Polygon> labels = new ArrayList<Polygon>();
+        labels.add(createRectangle("unsaved", 0, 0, 10, 10));
+        labels.add(new Polygon("line", Arrays.asList(new Point(0, 0), new Point(5, 5))));
+        unsavedLabels.put("first", labels);
+
+        CocoExporter.Summary summary = new CocoExporter(collectionRoot).export(outputFile,
+                unsavedLabels);
+        assertEquals(2, summary.getImageCount());
+        // The line doesn't enclose anything, so isn't exported.
+        assertEquals(2, summary.getAnnotationCount());
+
+        String json = readOutput();
+        assertContains(json, "{\"id\":1,\"name\":\"unsaved\"},"
+                + "{\"id\":2,\"name\":\"also \\\"saved\\\"\"}");
+        assertTrue(!json.contains("\"saved\"") && !json.contains("\"line\""));
+    }
+
+    @Test
+    public void testUnreadableFilesAreLeftOut() throws IOException {
+        createImage("good", 800, 600);
+        Files.write(new File(collectionRoot, "images/bad.png").toPath(), new byte[] { 1, 2 });
+        Files.write(new File(collectionRoot, "labels/good.labels").toPath(), new byte[] { 3 });
+
+        CocoExporter.Summary summary = new CocoExporter(collectionRoot).export(outputFile);
+        assertEquals(1, summary.getImageCount());
+        assertEquals(0, summary.getAnnotationCount());
+        assertEquals(2, summary.getFailures().size());
+        assertContains(readOutput(), "\"annotations\":[],\"categories\":[]}");
+    }
+
+    private static Polygon createRectangle(String name, int x, int y, int width, int height) {
+        return new Polygon(name, Arrays.asList(new Point(x, y), new Point(x + width, y),
+                new Point(x + width, y + height), new Point(x, y + height)));
+    }
+
+    private void createImage(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ImageIO.write(image, "png", new File(collectionRoot, "images/" + name + ".png"));
+    }
+
+    private String readOutput() throws IOException {
+        return new String(Files.readAllBytes(outputFile.toPath()), "UTF-8");
+    }
+
+    private static void assertContains(String json, String expected) {
+        assertTrue("Expected " + expected + " in " + json, json.contains(expected));
+    }
+}
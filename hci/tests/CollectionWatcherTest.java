@@ -0,0 +1,129 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.nonui.CollectionWatcher;
+import src.nonui.CollectionWatcher.Changes;
+import src.utils.ApplicationIO;
+import src.utils.LabelledImage;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Tests for the {@link CollectionWatcher} class.
+ */
+public class CollectionWatcherTest {
+    // Long enough for the watcher to notice the changes and wait for them to settle.
+    private static final int TIMEOUT_SECONDS = 20;
+
+    private File tempDirectory;
+    private File imagesDirectory;
+    private File labelsDirectory;
+    private CollectionWatcher watcher;
+    private final BlockingQueue<Changes> changes = new LinkedBlockingQueue<Changes>();
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = TestFiles.createTempDirectory("CollectionWatcherTest");
+        imagesDirectory = new File(tempDirectory, "images");
+        labelsDirectory = new File(tempDirectory, "labels");
+        imagesDirectory.mkdirs();
+        labelsDirectory.mkdirs();
+
+        watcher = new CollectionWatcher(tempDirectory, new CollectionWatcher.SyncListener() {
+            @Override
+            public void collectionChanged(Changes batch) {
+                changes.add(batch);
+            }
+        });
+        watcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        watcher.close();
+        TestFiles.delete(tempDirectory);
+    }
+
+    @Test
+    public void testNewImageIsLoadedWithItsLabels() throws Exception {
+        writeLabels("added", 2);
+        ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "png",
+                new File(imagesDirectory, "added.png"));
+
+        Changes batch = nextChanges();
+        assertEquals(1, batch.getImages().size());
+        LabelledImage image = batch.getImages().get(0);
+        assertEquals("added", image.getName());
+        assertEquals(30, image.getWidth());
+        assertEquals(2, image.getLabels().size());
+        // The label file was read along with the image, not again on its own.
+        assertTrue(batch.getLabels().isEmpty());
+    }
+
+    @Test
+    public void testChangedLabelFileIsReadAgain() throws Exception {
+        writeLabels("labelled", 3);
+
+        Changes batch = nextChanges();
+        assertTrue(batch.getImages().isEmpty());
+        assertEquals(3, batch.getLabels().get("labelled").size());
+
+        new File(labelsDirectory, "labelled.labels").delete();
+        batch = nextChanges();
+        assertTrue(batch.getLabels().get("labelled").isEmpty());
+    }
+
+    @Test
+    public void testRemovedImageIsReported() throws Exception {
+        File imageFile = new File(imagesDirectory, "removed.png");
+        ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "png", imageFile);
+        LabelledImage image = nextChanges().getImages().get(0);
+        assertFalse(image.hasImageFileChanged());
+
+        imageFile.delete();
+        assertTrue(image.hasImageFileChanged());
+        Changes batch = nextChanges();
+        assertEquals(1, batch.getRemovedImages().size());
+        assertEquals(imageFile, batch.getRemovedImages().get(0));
+    }
+
+    /**
+     * Waits for the next batch of changes to be passed back.
+     */
+    private Changes nextChanges() throws InterruptedException {
+        Changes batch = changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        return batch;
+    }
+
+    private void writeLabels(String imageName, int count) throws IOException {
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        for (int i = 0; i < count; i++) {
+            List<Point> points = new ArrayList<Point>();
+            points.add(new Point(i, 0));
+            points.add(new Point(i, 10));
+            points.add(new Point(i + 10, 10));
+            polygons.add(new Polygon("label" + i, points));
+        }
+        ApplicationIO.writeLabels(new File(labelsDirectory, imageName + ".labels"), polygons);
+    }
+}
@@ -0,0 +1,59 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.DisplayImageReader;
+
+/**
+ * Tests for the {@link DisplayImageReader} class.
+ */
+public class DisplayImageReaderTest {
+    private File tempFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tempFile = File.createTempFile("DisplayImageReaderTest", ".png");
+    }
+
+    @After
+    public void tearDown() {
+        tempFile.delete();
+    }
+
+    @Test
+    public void testDisplaySizeMatchesCanvasScaling() {
+        assertEquals(new Dimension(800, 600), DisplayImageReader.getDisplaySize(4000, 3000));
+        assertEquals(new Dimension(800, 500), DisplayImageReader.getDisplaySize(1000, 500));
+        assertEquals(new Dimension(800, 600), DisplayImageReader.getDisplaySize(400, 300));
+        assertEquals(new Dimension(800, 600), DisplayImageReader.getDisplaySize(800, 600));
+    }
+
+    @Test
+    public void testLargeImageIsReadAtDisplaySize() throws IOException {
+        BufferedImage image = new BufferedImage(3300, 2500, BufferedImage.TYPE_INT_RGB);
+        // A white right half, so we can check the image isn't just cropped.
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = image.getWidth() / 2; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xFFFFFF);
+            }
+        }
+        ImageIO.write(image, "png", tempFile);
+
+        BufferedImage displayImage = DisplayImageReader.read(tempFile);
+        assertEquals(800, displayImage.getWidth());
+        assertEquals(600, displayImage.getHeight());
+        assertEquals(0x000000, displayImage.getRGB(100, 300) & 0xFFFFFF);
+        assertEquals(0xFFFFFF, displayImage.getRGB(700, 300) & 0xFFFFFF);
+    }
+}
@@ -0,0 +1,141 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.ApplicationIO.ImportedImage;
+import src.utils.ImageStore;
+
+/**
+ * Tests for the {@link ImageStore} class.
+ */
+public class ImageStoreTest {
+    private File tempDirectory;
+    private File collectionRoot;
+    private File objectsDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = TestFiles.createTempDirectory("ImageStoreTest");
+
+        collectionRoot = new File(tempDirectory, "Collections/Store");
+        new File(collectionRoot, "images").mkdirs();
+        objectsDirectory = new File(collectionRoot, "objects");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(tempDirectory);
+    }
+
+    @Test
+    public void testDuplicateImageIsStoredOnce() throws IOException {
+        File first = createImage("first.png", 30, 20);
+        File second = createImage("second.png", 30, 20);
+        File different = createImage("different.png", 20, 30);
+
+        ImageStore store = new ImageStore(collectionRoot);
+        ImportedImage imported = store.importImage(first, "first.png");
+        assertNull(imported.getDuplicateOf());
+
+        imported = store.importImage(second, "copy.png");
+        assertEquals("first.png", imported.getDuplicateOf());
+        assertEquals(30, imported.getImage().getWidth());
+        assertEquals(1, objectsDirectory.listFiles().length);
+        assertEquals(first.length(), new File(collectionRoot, "images/copy.png").length());
+
+        imported = store.importImage(different, "different.png");
+        assertNull(imported.getDuplicateOf());
+        assertEquals(2, objectsDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testObjectIsDeletedWithLastImage() throws IOException {
+        File image = createImage("image.png", 30, 20);
+
+        ImageStore store = new ImageStore(collectionRoot);
+        String digest = store.importImage(image, "first.png").getDigest();
+        store.importImage(image, "second.png");
+
+        // The digests are kept when the collection is reopened.
+        store = new ImageStore(collectionRoot);
+        assertEquals(digest, store.getDigest("second.png"));
+
+        store.removeImage("first.png");
+        assertTrue(new File(objectsDirectory, digest).exists());
+        store.removeImage("second.png");
+        assertFalse(new File(objectsDirectory, digest).exists());
+    }
+
+    @Test
+    public void testChangedObjectIsNotLinkedTo() throws IOException {
+        File image = createImage("image.png", 30, 20);
+        File other = createImage("other.png", 20, 30);
+
+        ImageStore store = new ImageStore(collectionRoot);
+        String digest = store.importImage(image, "first.png").getDigest();
+        File object = new File(objectsDirectory, digest);
+
+        // Write over the object, as writing over an image file in place would if the object
+        // weren't read-only, or the user could write to read-only files.
+        object.setWritable(true);
+        Files.copy(other.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        // Reopened, so that the object hasn't been checked yet.
+        store = new ImageStore(collectionRoot);
+        ImportedImage imported = store.importImage(image, "second.png");
+        assertNull(imported.getDuplicateOf());
+        assertEquals(image.length(), new File(collectionRoot, "images/second.png").length());
+        assertEquals(image.length(), object.length());
+        assertNull(store.getDigest("first.png"));
+        assertEquals(digest, store.getDigest("second.png"));
+    }
+
+    @Test
+    public void testChangedImageIsCheckedAgainstItsObject() throws IOException {
+        File image = createImage("image.png", 30, 20);
+        File other = createImage("other.png", 20, 30);
+
+        ImageStore store = new ImageStore(collectionRoot);
+        String digest = store.importImage(image, "first.png").getDigest();
+        store.importImage(image, "second.png");
+        File object = new File(objectsDirectory, digest);
+
+        // Replacing an image file leaves the object alone.
+        File first = new File(collectionRoot, "images/first.png");
+        first.delete();
+        Files.copy(other.toPath(), first.toPath());
+        store.imageFileChanged("first.png");
+        assertNull(store.getDigest("first.png"));
+        assertEquals(digest, store.getDigest("second.png"));
+        assertTrue(object.exists());
+
+        // Writing over one in place changes the object, which is dropped.
+        object.setWritable(true);
+        Files.copy(other.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        store.imageFileChanged("second.png");
+        assertNull(store.getDigest("second.png"));
+        assertFalse(object.exists());
+        assertEquals(other.length(), new File(collectionRoot, "images/second.png").length());
+    }
+
+    private File createImage(String name, int width, int height) throws IOException {
+        File file = new File(tempDirectory, name);
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file);
+        return file;
+    }
+}
@@ -0,0 +1,211 @@
+package tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import src.utils.ApplicationIO;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Compares the speed and allocation of reading and writing label files through
+ * {@link ApplicationIO} against the original DOM-based reader and writer, and the size and
+ * speed of the XML and binary label formats. Not a JUnit test; run it with "ant benchmark".
+ */
+public class LabelIOBenchmark {
+    private static final int POLYGONS = 20;
+    private static final int VERTICES_PER_POLYGON = 5000;
+    private static final int RUNS = 20;
+
+    public static void main(String[] args) throws Exception {
+        File labelFile = File.createTempFile("LabelIOBenchmark", ".labels");
+        labelFile.deleteOnExit();
+        ApplicationIO.writeLabels(labelFile, createPolygons());
+
+        System.out.println("Reading " + POLYGONS + " polygons of " + VERTICES_PER_POLYGON
+                + " vertices (" + (labelFile.length() / 1024) + "KB)");
+
+        // Warm up both readers before timing anything.
+        for (int i = 0; i < RUNS; i++) {
+            readLabelsWithDom(labelFile);
+            ApplicationIO.readLabels(labelFile);
+        }
+
+        long domStart = System.nanoTime();
+        long domAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            readLabelsWithDom(labelFile);
+        }
+        report("DOM reader", System.nanoTime() - domStart, allocatedBytes() - domAllocated);
+
+        long streamStart = System.nanoTime();
+        long streamAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            ApplicationIO.readLabels(labelFile);
+        }
+        report("StAX reader", System.nanoTime() - streamStart,
+                allocatedBytes() - streamAllocated);
+
+        List<Polygon> polygons = createPolygons();
+        for (int i = 0; i < RUNS; i++) {
+            writeLabelsWithDom(labelFile, polygons);
+            ApplicationIO.writeLabels(labelFile, polygons);
+        }
+
+        domStart = System.nanoTime();
+        domAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            writeLabelsWithDom(labelFile, polygons);
+        }
+        report("DOM writer", System.nanoTime() - domStart, allocatedBytes() - domAllocated);
+
+        streamStart = System.nanoTime();
+        streamAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            ApplicationIO.writeLabels(labelFile, polygons);
+        }
+        report("StAX writer", System.nanoTime() - streamStart,
+                allocatedBytes() - streamAllocated);
+
+        File binaryFile = File.createTempFile("LabelIOBenchmark", ".labelsbin");
+        binaryFile.deleteOnExit();
+        for (int i = 0; i < RUNS; i++) {
+            ApplicationIO.writeBinaryLabels(binaryFile, polygons);
+            ApplicationIO.readLabels(binaryFile);
+        }
+
+        long binaryStart = System.nanoTime();
+        long binaryAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            ApplicationIO.readLabels(binaryFile);
+        }
+        report("Binary reader", System.nanoTime() - binaryStart,
+                allocatedBytes() - binaryAllocated);
+
+        binaryStart = System.nanoTime();
+        binaryAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            ApplicationIO.writeBinaryLabels(binaryFile, polygons);
+        }
+        report("Binary writer", System.nanoTime() - binaryStart,
+                allocatedBytes() - binaryAllocated);
+
+        System.out.println(String.format("XML file %d bytes, binary file %d bytes "
+                + "(%.1f and %.1f bytes/vertex)", labelFile.length(), binaryFile.length(),
+                (double) labelFile.length() / (POLYGONS * VERTICES_PER_POLYGON),
+                (double) binaryFile.length() / (POLYGONS * VERTICES_PER_POLYGON)));
+    }
+
+    /**
+     * Prints the time and memory taken by a single run.
+     */
+    private static void report(String name, long elapsedNanos, long allocated) {
+        System.out.println(String.format("%-14s %8.2f ms/file %10d KB allocated/file", name,
+                elapsedNanos / 1e6 / RUNS, allocated / 1024 / RUNS));
+    }
+
+    /**
+     * Returns the number of bytes allocated by this thread so far, or 0 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Creates a set of large polygons to read and write.
+     */
+    private static List<Polygon> createPolygons() {
+        List<Polygon> polygons = new ArrayList<Polygon>(POLYGONS);
+        for (int i = 0; i < POLYGONS; i++) {
+            List<Point> points = new ArrayList<Point>(VERTICES_PER_POLYGON);
+            for (int j = 0; j < VERTICES_PER_POLYGON; j++) {
+                double angle = 2 * Math.PI * j / VERTICES_PER_POLYGON;
+                points.add(new Point(400 + (int) (300 * Math.cos(angle)),
+                        300 + (int) (200 * Math.sin(angle)) + i));
+            }
+            polygons.add(new Polygon("Polygon " + i, points));
+        }
+        return polygons;
+    }
+
+    /**
+     * The original DOM and Transformer based label writer, kept here as a baseline.
+     */
+    private static void writeLabelsWithDom(File file, List<Polygon> polygons) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .newDocument();
+        Node mainNode = document.createElement("ImageLabels");
+        for (Polygon polygon : polygons) {
+            Node polygonNode = document.createElement("Label");
+            Node nameNode = document.createElement("Name");
+            nameNode.setTextContent(polygon.getName());
+
+            Node pointsNode = document.createElement("Points");
+            for (Point point : polygon.getPoints()) {
+                Node pointNode = document.createElement("Point");
+                Node xNode = document.createElement("x");
+                Node yNode = document.createElement("y");
+                xNode.setTextContent(Integer.toString(point.getX()));
+                yNode.setTextContent(Integer.toString(point.getY()));
+                pointNode.appendChild(xNode);
+                pointNode.appendChild(yNode);
+                pointsNode.appendChild(pointNode);
+            }
+
+            polygonNode.appendChild(nameNode);
+            polygonNode.appendChild(pointsNode);
+            mainNode.appendChild(polygonNode);
+        }
+        document.appendChild(mainNode);
+
+        StreamResult result = new StreamResult(new FileWriter(file));
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document),
+                result);
+        result.getWriter().close();
+    }
+
+    /**
+     * The original DOM-based label reader, kept here as a baseline.
+     */
+    private static Map<String, Polygon> readLabelsWithDom(File file) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        NodeList labels = document.getDocumentElement().getChildNodes();
+
+        Map<String, Polygon> polygons = new HashMap<String, Polygon>();
+        for (int i = 0; i < labels.getLength(); i++) {
+            NodeList labelNodes = labels.item(i).getChildNodes();
+            String name = labelNodes.item(0).getTextContent();
+
+            NodeList pointsNodes = labelNodes.item(1).getChildNodes();
+            List<Point> points = new ArrayList<Point>(pointsNodes.getLength());
+            for (int index = 0; index < pointsNodes.getLength(); index++) {
+                Node pointNode = pointsNodes.item(index);
+                int x = Integer.parseInt(pointNode.getChildNodes().item(0).getTextContent());
+                int y = Integer.parseInt(pointNode.getChildNodes().item(1).getTextContent());
+                points.add(new Point(x, y));
+            }
+
+            polygons.put(name, new Polygon(name, points));
+        }
+        return polygons;
+    }
+}
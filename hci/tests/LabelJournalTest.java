@@ -0,0 +1,208 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.ApplicationIO;
+import src.utils.LabelJournal;
+import src.utils.LabelledImage;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Tests for the {@link LabelJournal} class.
+ */
+public class LabelJournalTest {
+    private File tempDirectory;
+    private File collectionRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = TestFiles.createTempDirectory("LabelJournalTest");
+
+        collectionRoot = new File(tempDirectory, "Collections/Journal");
+        new File(collectionRoot, "images").mkdirs();
+        new File(collectionRoot, "labels").mkdirs();
+        ImageIO.write(new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB), "png",
+                new File(collectionRoot, "images/image.png"));
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(tempDirectory);
+    }
+
+    @Test
+    public void testEditsAreReplayedWhenReopened() {
+        LabelledImage image = openImage();
+        LabelJournal journal = new LabelJournal(collectionRoot);
+        image.setJournal(journal);
+
+        image.addLabel(new Polygon("first", createSquare()));
+        image.addLabel(new Polygon("second", createSquare()));
+        image.getLabel("first").replacePoint(new Point(5, 5), new Point(6, 7));
+        image.getLabel("first").addPointAt(new Point(3, 0), 1);
+        image.renameLabel("first", "renamed");
+        image.removeLabel("second");
+
+        // Recording the edits doesn't write them; the autosave writer flushes them.
+        File journalFile = new File(collectionRoot, "collection.journal");
+        assertFalse(journalFile.exists());
+        journal.flush();
+        assertTrue(journalFile.exists());
+
+        // The journal was never closed, as if the application had exited without saving.
+        Map<String, Polygon> labels = openImage().getLabelsMap();
+        assertEquals(1, labels.size());
+
+        List<Point> expectedPoints = createSquare();
+        expectedPoints.set(2, new Point(6, 7));
+        expectedPoints.add(1, new Point(3, 0));
+        assertEquals(expectedPoints, labels.get("renamed").getPoints());
+
+        assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void testIncompleteRecordIsIgnored() throws IOException {
+        LabelledImage image = openImage();
+        LabelJournal journal = new LabelJournal(collectionRoot);
+        image.setJournal(journal);
+        image.addLabel(new Polygon("label", createSquare()));
+        journal.flush();
+
+        // Simulate a crash part way through writing a record.
+        FileOutputStream out = new FileOutputStream(
+                new File(collectionRoot, "collection.journal"), true);
+        out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+        out.close();
+
+        Map<String, Polygon> labels = openImage().getLabelsMap();
+        assertEquals(1, labels.size());
+        assertEquals(createSquare(), labels.get("label").getPoints());
+    }
+
+    @Test
+    public void testImageWithCorruptRecordIsLeftAlone() throws IOException {
+        LabelledImage image = openImage();
+        LabelJournal journal = new LabelJournal(collectionRoot);
+        image.setJournal(journal);
+        image.addLabel(new Polygon("label", createSquare()));
+        journal.flush();
+
+        // A record with a good checksum whose labels can't be parsed, followed by an edit
+        // that depends on it.
+        appendRecord(createRecord(2, new byte[] { 0, 0, 0, 3, 1, 2, 3 }));
+        image.getLabel("label").addPointAt(new Point(3, 0), 1);
+        journal.flush();
+
+        assertTrue(openImage().getLabelsMap().isEmpty());
+        assertFalse(new File(collectionRoot, "labels/image.labels").exists());
+        assertEquals(1, countDamagedJournals());
+    }
+
+    @Test
+    public void testDamagedRecordBeforeTheEndKeepsTheJournal() throws IOException {
+        LabelledImage image = openImage();
+        LabelJournal journal = new LabelJournal(collectionRoot);
+        image.setJournal(journal);
+        image.addLabel(new Polygon("label", createSquare()));
+        journal.flush();
+
+        byte[] record = createRecord(3, new byte[] { 0, 1, 'x' });
+        record[record.length - 1] ^= 1;
+        appendRecord(record);
+        appendRecord(createRecord(3, new byte[] { 0, 5, 'l', 'a', 'b', 'e', 'l' }));
+
+        // The records before the damage are still replayed.
+        assertEquals(createSquare(), openImage().getLabel("label").getPoints());
+        assertEquals(1, countDamagedJournals());
+    }
+
+    @Test
+    public void testSavedEditsAreNotReplayedTwice() throws IOException {
+        LabelledImage image = openImage();
+        image.addLabel(new Polygon("label", createSquare()));
+        ApplicationIO.saveImage(tempDirectory.getPath(), "Journal", image);
+
+        // Only the inserted vertex is in the journal, and the save writes it to the label file
+        // as well, so replaying the journal over the saved file must not insert it again.
+        image = openImage();
+        LabelJournal journal = new LabelJournal(collectionRoot);
+        image.setJournal(journal);
+        image.getLabel("label").addPointAt(new Point(3, 0), 1);
+        ApplicationIO.saveImage(tempDirectory.getPath(), "Journal", image);
+        journal.close();
+
+        assertEquals(5, openImage().getLabel("label").getPoints().size());
+        assertTrue(new File(collectionRoot, "labels/image.labels").exists());
+    }
+
+    /**
+     * Creates a journal record for the test image, with its length and checksum.
+     */
+    private static byte[] createRecord(int type, byte[] contents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(type);
+        record.writeUTF("image");
+        record.write(contents);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes.toByteArray());
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(framed);
+        out.writeInt(bytes.size());
+        out.writeInt((int) checksum.getValue());
+        bytes.writeTo(out);
+        return framed.toByteArray();
+    }
+
+    private void appendRecord(byte[] record) throws IOException {
+        FileOutputStream out = new FileOutputStream(
+                new File(collectionRoot, "collection.journal"), true);
+        out.write(record);
+        out.close();
+    }
+
+    private int countDamagedJournals() {
+        int count = 0;
+        for (String name : collectionRoot.list()) {
+            if (name.startsWith("collection.journal.damaged-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private LabelledImage openImage() {
+        return ApplicationIO.openCollection(collectionRoot).get("image");
+    }
+
+    private static List<Point> createSquare() {
+        List<Point> points = new ArrayList<Point>();
+        points.add(new Point(0, 0));
+        points.add(new Point(5, 0));
+        points.add(new Point(5, 5));
+        points.add(new Point(0, 5));
+        return points;
+    }
+}
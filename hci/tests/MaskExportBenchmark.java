@@ -0,0 +1,94 @@
+package tests;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import src.utils.ApplicationIO;
+import src.utils.MaskExporter;
+import src.utils.Polygon;
+
+/**
+ * Measures how the speed of exporting label masks scales with the number of threads, on a
+ * synthetic collection of large images. Not a JUnit test; run it with "ant benchmark".
+ */
+public class MaskExportBenchmark {
+    private static final int IMAGES = 200;
+    private static final int IMAGE_WIDTH = 3200;
+    private static final int IMAGE_HEIGHT = 2400;
+    private static final int LABELS_PER_IMAGE = 50;
+    private static final int VERTICES_PER_LABEL = 40;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        File collectionRoot = createCollection();
+        File outputDirectory = new File(collectionRoot, "masks");
+
+        // Warm up before timing anything.
+        new MaskExporter(collectionRoot).export(outputDirectory);
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println("Exporting " + IMAGES + " masks of " + IMAGE_WIDTH + "x" 
+                + IMAGE_HEIGHT + " with " + LABELS_PER_IMAGE + " labels each, on " 
+                + processors + " processors");
+
+        double singleThreaded = 0;
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                new MaskExporter(collectionRoot, threads).export(outputDirectory);
+            }
+            double elapsed = (System.nanoTime() - start) / 1e6 / RUNS;
+            if (threads == 1) {
+                singleThreaded = elapsed;
+            }
+            System.out.println(String.format("%3d threads %9.1f ms %8.1f images/s %5.2fx",
+                    threads, elapsed, IMAGES / (elapsed / 1000), singleThreaded / elapsed));
+        }
+
+        TestFiles.delete(collectionRoot);
+    }
+
+    /**
+     * Creates a collection of identical images, each with a label file of star shaped
+     * polygons spread over the image.
+     */
+    private static File createCollection() throws Exception {
+        File collectionRoot = TestFiles.createTempDirectory("MaskExportBenchmark");
+        File imagesDirectory = new File(collectionRoot, "images");
+        File labelsDirectory = new File(collectionRoot, "labels");
+        imagesDirectory.mkdirs();
+        labelsDirectory.mkdirs();
+
+        File image = new File(imagesDirectory, "image0.png");
+        ImageIO.write(new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB),
+                "png", image);
+
+        List<Polygon> labels = new ArrayList<Polygon>(LABELS_PER_IMAGE);
+        int[] xs = new int[VERTICES_PER_LABEL];
+        int[] ys = new int[VERTICES_PER_LABEL];
+        for (int i = 0; i < LABELS_PER_IMAGE; i++) {
+            for (int j = 0; j < VERTICES_PER_LABEL; j++) {
+                double angle = 2 * Math.PI * j / VERTICES_PER_LABEL;
+                double radius = (j % 2 == 0) ? 80 : 40;
+                xs[j] = 80 * (i % 10) + 40 + (int) (radius * Math.cos(angle));
+                ys[j] = 120 * (i / 10) + 60 + (int) (radius * Math.sin(angle));
+            }
+            labels.add(new Polygon("Label " + i, xs, ys, VERTICES_PER_LABEL));
+        }
+
+        for (int i = 0; i < IMAGES; i++) {
+            if (i > 0) {
+                Files.copy(image.toPath(), new File(imagesDirectory, "image" + i + ".png")
+                        .toPath());
+            }
+            ApplicationIO.writeLabels(new File(labelsDirectory, "image" + i + ".labels"),
+                    labels);
+        }
+        return collectionRoot;
+    }
+}
@@ -0,0 +1,172 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.ApplicationIO;
+import src.utils.MaskExporter;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Tests for the {@link MaskExporter} class.
+ */
+public class MaskExporterTest {
+    private File tempDirectory;
+    private File collectionRoot;
+    private File outputDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = TestFiles.createTempDirectory("MaskExporterTest");
+
+        collectionRoot = new File(tempDirectory, "Collections/Masks");
+        new File(collectionRoot, "images").mkdirs();
+        new File(collectionRoot, "labels").mkdirs();
+        outputDirectory = new File(tempDirectory, "masks");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(tempDirectory);
+    }
+
+    @Test
+    public void testMaskIsAtImageResolution() throws IOException {
+        // Displayed at 800x600, so label coordinates are doubled.
+        createImage("big", 1600, 1200);
+        writeLabels("big", createRectangle("car", 100, 50, 200, 100));
+
+        MaskExporter.Summary summary = new MaskExporter(collectionRoot).export(outputDirectory);
+        assertEquals(1, summary.getMaskCount());
+        assertEquals(1, summary.getLabelCount());
+
+        BufferedImage mask = ImageIO.read(new File(outputDirectory, "big.png"));
+        assertEquals(1600, mask.getWidth());
+        assertEquals(1200, mask.getHeight());
+        assertTrue(mask.getColorModel() instanceof IndexColorModel);
+
+        Raster raster = mask.getRaster();
+        assertEquals(1, raster.getSample(200, 100, 0));
+        assertEquals(1, raster.getSample(599, 299, 0));
+        assertEquals(0, raster.getSample(199, 100, 0));
+        assertEquals(0, raster.getSample(600, 100, 0));
+        assertEquals(0, raster.getSample(200, 99, 0));
+        assertEquals(0, raster.getSample(200, 300, 0));
+
+        assertEquals("1\tcar\n", new String(Files.readAllBytes(
+                new File(outputDirectory, "big.txt").toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void testFillMatchesShapeContainment() throws IOException {
+        createImage("shape", 800, 600);
+        // A concave, self-intersecting outline, filled by the even-odd rule.
+        Polygon star = new Polygon("star", Arrays.asList(new Point(400, 20),
+                new Point(510, 580), new Point(40, 200), new Point(760, 210),
+                new Point(290, 570)));
+        writeLabels("shape", star);
+
+        new MaskExporter(collectionRoot).export(outputDirectory);
+        Raster raster = ImageIO.read(new File(outputDirectory, "shape.png")).getRaster();
+
+        Path2D path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+        path.moveTo(400, 20);
+        path.lineTo(510, 580);
+        path.lineTo(40, 200);
+        path.lineTo(760, 210);
+        path.lineTo(290, 570);
+        path.closePath();
+
+        for (int y = 0; y < 600; y++) {
+            for (int x = 0; x < 800; x++) {
+                int expected = path.contains(x + 0.5, y + 0.5) ? 1 : 0;
+                assertEquals("Pixel " + x + ", " + y, expected, raster.getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testLaterLabelsAreOnTop() throws IOException {
+        createImage("overlap", 800, 600);
+        writeLabels("overlap", createRectangle("b", 50, 50, 100, 100),
+                createRectangle("a", 0, 0, 100, 100));
+
+        new MaskExporter(collectionRoot).export(outputDirectory);
+        Raster raster = ImageIO.read(new File(outputDirectory, "overlap.png")).getRaster();
+
+        // Labels are numbered by name, so "b" is drawn over "a".
+        assertEquals(1, raster.getSample(25, 25, 0));
+        assertEquals(2, raster.getSample(75, 75, 0));
+        assertEquals(2, raster.getSample(125, 125, 0));
+    }
+
+    @Test
+    public void testManyLabelsUseSixteenBitMask() throws IOException {
+        createImage("many", 800, 600);
+        List<Polygon> labels = new ArrayList<Polygon>();
+        for (int i = 0; i < 300; i++) {
+            labels.add(createRectangle(String.format("label %03d", i), (i % 30) * 20,
+                    (i / 30) * 20, 10, 10));
+        }
+        ApplicationIO.writeLabels(new File(collectionRoot, "labels/many.labels"), labels);
+
+        new MaskExporter(collectionRoot).export(outputDirectory);
+        BufferedImage mask = ImageIO.read(new File(outputDirectory, "many.png"));
+        assertEquals(BufferedImage.TYPE_USHORT_GRAY, mask.getType());
+        assertEquals(1, mask.getRaster().getSample(5, 5, 0));
+        assertEquals(300, mask.getRaster().getSample(29 * 20 + 5, 9 * 20 + 5, 0));
+    }
+
+    @Test
+    public void testImagesAreExportedInParallel() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            createImage("image" + i, 400, 300);
+            writeLabels("image" + i, createRectangle("label", i, i, 100, 100));
+        }
+        Files.write(new File(collectionRoot, "images/broken.png").toPath(), new byte[] { 1 });
+
+        MaskExporter exporter = new MaskExporter(collectionRoot, 4);
+        MaskExporter.Summary summary = exporter.export(outputDirectory);
+        assertEquals(20, summary.getMaskCount());
+        assertEquals(1, summary.getFailures().size());
+        assertEquals(21, exporter.getProcessedCount());
+
+        // Displayed at twice its size, so label coordinates are halved.
+        Raster raster = ImageIO.read(new File(outputDirectory, "image10.png")).getRaster();
+        assertEquals(1, raster.getSample(5, 5, 0));
+        assertEquals(0, raster.getSample(4, 4, 0));
+    }
+
+    private static Polygon createRectangle(String name, int x, int y, int width, int height) {
+        return new Polygon(name, Arrays.asList(new Point(x, y), new Point(x + width, y),
+                new Point(x + width, y + height), new Point(x, y + height)));
+    }
+
+    private void createImage(String name, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ImageIO.write(image, "png", new File(collectionRoot, "images/" + name + ".png"));
+    }
+
+    private void writeLabels(String imageName, Polygon... labels) throws IOException {
+        ApplicationIO.writeLabels(new File(collectionRoot, "labels/" + imageName + ".labels"),
+                Arrays.asList(labels));
+    }
+}
@@ -0,0 +1,93 @@
+package tests;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import src.utils.ApplicationIO;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Checks that opening a collection takes time in proportion to its size, by timing collections
+ * of 500 and 2000 images. Matching labels by scanning the whole label directory for every image
+ * would take sixteen times as long for four times the images. The collections' manifests are
+ * removed before each run, so that every label file is matched and read. Not a JUnit test; run
+ * it with "ant benchmark".
+ */
+public class OpenCollectionBenchmark {
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        File tempDirectory = TestFiles.createTempDirectory("OpenCollectionBenchmark");
+        try {
+            File smallCollection = createCollection(tempDirectory, "Small", 500);
+            File largeCollection = createCollection(tempDirectory, "Large", 2000);
+
+            // Warm up, so that class loading and JIT compilation aren't counted.
+            timeOpenCollection(smallCollection);
+            timeOpenCollection(largeCollection);
+
+            long smallTime = timeOpenCollection(smallCollection);
+            long largeTime = timeOpenCollection(largeCollection);
+            System.out.println(String.format("%5d images %8.2f ms", 500, smallTime / 1e6));
+            System.out.println(String.format("%5d images %8.2f ms", 2000, largeTime / 1e6));
+            System.out.println(String.format("Four times the images took %.1f times as long",
+                    (double) largeTime / smallTime));
+        } finally {
+            TestFiles.delete(tempDirectory);
+        }
+    }
+
+    /**
+     * Returns the fastest of a few runs of opening a collection without its manifest.
+     */
+    private static long timeOpenCollection(File collectionRoot) {
+        long bestTime = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            new File(collectionRoot, "collection.idx").delete();
+            new File(collectionRoot, "collection.thumbs").delete();
+
+            long start = System.nanoTime();
+            ApplicationIO.openCollection(collectionRoot);
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+        }
+        return bestTime;
+    }
+
+    /**
+     * Creates a collection with a number of small images, each with a single label.
+     */
+    private static File createCollection(File parent, String name, int size) throws Exception {
+        File collectionRoot = new File(parent, name);
+        File imagesDirectory = new File(collectionRoot, "images");
+        File labelsDirectory = new File(collectionRoot, "labels");
+        imagesDirectory.mkdirs();
+        labelsDirectory.mkdirs();
+
+        ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB), "png", imageBytes);
+
+        for (int i = 0; i < size; i++) {
+            FileOutputStream out = new FileOutputStream(new File(imagesDirectory,
+                    "image" + i + ".png"));
+            imageBytes.writeTo(out);
+            out.close();
+
+            List<Point> points = new ArrayList<Point>();
+            points.add(new Point(0, 0));
+            points.add(new Point(i, 1));
+            points.add(new Point(2, 2));
+            List<Polygon> polygons = new ArrayList<Polygon>();
+            polygons.add(new Polygon("label" + i, points));
+            ApplicationIO.writeLabels(new File(labelsDirectory, "image" + i + ".labels"),
+                    polygons);
+        }
+        return collectionRoot;
+    }
+}
@@ -3,9 +3,11 @@ package tests;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -117,6 +119,214 @@ public class PolygonTest {
         assertEquals(expectedTags, polygon.getTags());
     }
 
+    @Test
+    public void testGenerationIncreasesOnModification() {
+        Polygon polygon = createTestPolygon();
+        assertEquals(0, polygon.getGeneration());
+
+        long generation = polygon.getGeneration();
+        polygon.addPoint(new Point(1, 1));
+        assertTrue(polygon.getGeneration() > generation);
+
+        generation = polygon.getGeneration();
+        polygon.removeLastPoint();
+        assertTrue(polygon.getGeneration() > generation);
+
+        generation = polygon.getGeneration();
+        polygon.getPoints();
+        polygon.canRedo();
+        assertEquals(generation, polygon.getGeneration());
+    }
+
+    @Test
+    public void testIndexedAccess() {
+        Polygon polygon = createTestPolygon();
+        List<Point> pointList = createTestPoints();
+
+        assertEquals(pointList.size(), polygon.size());
+        for (int i = 0; i < pointList.size(); i++) {
+            assertEquals(pointList.get(i).getX(), polygon.getX(i));
+            assertEquals(pointList.get(i).getY(), polygon.getY(i));
+        }
+
+        // Undone points aren't counted.
+        polygon.removeLastPoint();
+        assertEquals(pointList.size() - 1, polygon.size());
+        try {
+            polygon.getX(pointList.size() - 1);
+            fail("Expected an undone point to be out of bounds.");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+
+        int[] xs = new int[10];
+        int[] ys = new int[10];
+        assertEquals(3, polygon.copyCoordinates(xs, ys));
+        assertEquals(5, xs[2]);
+        assertEquals(5, ys[2]);
+    }
+
+    @Test
+    public void testManyPointsWithUndo() {
+        Polygon polygon = new Polygon("Large");
+        List<Point> pointList = new ArrayList<Point>();
+        for (int i = 0; i < 1000; i++) {
+            Point point = new Point(i, i * 2);
+            polygon.addPoint(point);
+            pointList.add(point);
+        }
+        assertEquals(pointList, polygon.getPoints());
+
+        // Undoing and then adding a point drops the redo tail.
+        polygon.removeLastPoint();
+        polygon.removeLastPoint();
+        polygon.addPoint(new Point(-1, -1));
+        assertFalse(polygon.canRedo());
+        pointList.remove(999);
+        pointList.set(998, new Point(-1, -1));
+        assertEquals(pointList, polygon.getPoints());
+
+        polygon.addPointAt(new Point(-2, -2), 500);
+        pointList.add(500, new Point(-2, -2));
+        assertEquals(pointList, polygon.getPoints());
+    }
+
+    @Test
+    public void testClosestVertex() {
+        Polygon polygon = createTestPolygon();
+
+        assertEquals(2, polygon.closestVertex(6, 7));
+        assertEquals(3, polygon.closestVertex(6, 2));
+        // The first of two equally close vertices is picked.
+        assertEquals(0, polygon.closestVertex(0, 2));
+
+        // Undone points aren't considered.
+        polygon.removeLastPoint();
+        assertEquals(2, polygon.closestVertex(6, 2));
+
+        assertEquals(-1, new Polygon("Empty").closestVertex(0, 0));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        Polygon polygon = createTestPolygon();
+        polygon.addTag("Tag1");
+        polygon.removeLastPoint();
+        Polygon copy = polygon.copy();
+
+        List<Point> pointList = createTestPoints();
+        pointList.remove(3);
+        assertEquals(pointList, copy.getPoints());
+        assertEquals(polygon.getTags(), copy.getTags());
+        // The undone point isn't copied.
+        assertFalse(copy.canRedo());
+
+        // Changing either one leaves the other as it was.
+        polygon.replacePoint(new Point(0, 5), new Point(1, 6));
+        assertEquals(pointList, copy.getPoints());
+
+        copy.addPoint(new Point(7, 7));
+        assertTrue(polygon.canRedo());
+        polygon.redoPoint();
+        assertEquals(new Point(5, 0), polygon.getPoints().get(3));
+        assertEquals(new Point(0, 5), copy.getPoints().get(1));
+    }
+
+    @Test
+    public void testMoveVertex() {
+        Polygon polygon = createTestPolygon();
+        // A second vertex at the same position as the first.
+        polygon.addPoint(new Point(0, 0));
+        polygon.addPoint(new Point(2, -3));
+
+        // Only the vertex at the index is moved, not the first one at the same position.
+        assertEquals(4, polygon.moveVertex(4, 3, -1));
+        List<Point> pointList = createTestPoints();
+        pointList.add(new Point(3, -1));
+        pointList.add(new Point(2, -3));
+        assertEquals(pointList, polygon.getPoints());
+
+        // Moving a vertex onto a neighbour merges them, leaving the neighbour's index.
+        assertEquals(4, polygon.moveVertex(4, 2, -3));
+        pointList.remove(4);
+        assertEquals(pointList, polygon.getPoints());
+        assertEquals(0, polygon.moveVertex(4, 0, 0));
+        pointList.remove(4);
+        assertEquals(pointList, polygon.getPoints());
+
+        try {
+            polygon.moveVertex(4, 0, 0);
+            fail("Expected a vertex past the end to be out of bounds.");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testMoveVertexOntoNeighbourOfTriangleIsRefused() {
+        Polygon polygon = createTestPolygon();
+        polygon.removeLastPoint();
+        List<Point> pointList = createTestPoints();
+        pointList.remove(3);
+
+        assertEquals(2, polygon.moveVertex(2, 0, 5));
+        assertEquals(0, polygon.moveVertex(0, 5, 5));
+        assertEquals(pointList, polygon.getPoints());
+    }
+
+    @Test
+    public void testMoveVertexToSamePositionChangesNothing() {
+        Polygon polygon = createTestPolygon();
+        long generation = polygon.getGeneration();
+
+        assertEquals(1, polygon.moveVertex(1, 0, 5));
+        assertEquals(generation, polygon.getGeneration());
+        assertEquals(createTestPoints(), polygon.getPoints());
+    }
+
+    @Test
+    public void testEditsAllOverThePolygon() {
+        Polygon polygon = new Polygon("Edited");
+        List<Point> pointList = new ArrayList<Point>();
+        Random random = new Random(42);
+
+        // Every point is different, so that moving one never removes it.
+        for (int i = 0; i < 2000; i++) {
+            Point point = new Point(i, -i);
+            int choice = random.nextInt(4);
+            if (choice == 0 || pointList.isEmpty()) {
+                polygon.addPoint(point);
+                pointList.add(point);
+            } else if (choice == 1) {
+                int index = random.nextInt(pointList.size() + 1);
+                polygon.addPointAt(point, index);
+                pointList.add(index, point);
+            } else if (choice == 2) {
+                // Insert next to the last insertion, as when adding points along an edge.
+                int index = Math.min(pointList.size(), pointList.size() / 2 + i % 3);
+                polygon.addPointAt(point, index);
+                pointList.add(index, point);
+            } else {
+                int index = random.nextInt(pointList.size());
+                assertTrue(polygon.replacePoint(pointList.get(index), point));
+                pointList.set(index, point);
+            }
+        }
+        assertEquals(pointList, polygon.getPoints());
+
+        // Undo goes back from the end of the polygon, wherever the last edit was.
+        Polygon copy = polygon.copy();
+        for (int i = 0; i < 10; i++) {
+            polygon.removeLastPoint();
+        }
+        assertEquals(pointList.subList(0, pointList.size() - 10), polygon.getPoints());
+        polygon.addPointAt(new Point(-1, -1), 0);
+        polygon.redoPoint();
+        pointList.add(0, new Point(-1, -1));
+        assertEquals(pointList.subList(0, pointList.size() - 9), polygon.getPoints());
+        assertEquals(pointList.subList(1, pointList.size()), copy.getPoints());
+    }
+
     /**
      * Creates a polygon for use in JUnit tests.
      */
@@ -0,0 +1,216 @@
+package tests;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import src.ui.ImagePanelView;
+import src.utils.Point;
+import src.utils.Polygon;
+
+/**
+ * Compares the speed and allocation of drawing an image's labels and finding the vertex under
+ * the mouse, reading the vertices straight from the polygons, against the original code, which
+ * copied every label's points on each repaint and looked up the selected labels for every
+ * vertex. Not a JUnit test; run it with "ant benchmark".
+ */
+public class RepaintBenchmark {
+    private static final int LABELS = 200;
+    private static final int VERTICES_PER_LABEL = 50;
+    private static final int SELECTED_LABELS = 5;
+    private static final int RUNS = 200;
+
+    public static void main(String[] args) {
+        List<Polygon> polygons = createPolygons();
+        List<Polygon> selected = polygons.subList(0, SELECTED_LABELS);
+
+        // The original polygons held lists of points, which each repaint copied twice.
+        List<List<Point>> storedPoints = new ArrayList<List<Point>>(LABELS);
+        for (Polygon polygon : polygons) {
+            storedPoints.add(polygon.getPoints());
+        }
+
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+
+        System.out.println("Repainting " + LABELS + " labels of " + VERTICES_PER_LABEL
+                + " vertices, " + SELECTED_LABELS + " of them selected");
+
+        // Warm up both before timing anything.
+        for (int i = 0; i < RUNS; i++) {
+            repaintWithCopies(graphics, storedPoints, selected.size());
+            repaintWithViews(graphics, polygons, selected);
+        }
+
+        long copyStart = System.nanoTime();
+        long copyAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            repaintWithCopies(graphics, storedPoints, selected.size());
+        }
+        report("Copying", System.nanoTime() - copyStart, allocatedBytes() - copyAllocated);
+
+        long viewStart = System.nanoTime();
+        long viewAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            repaintWithViews(graphics, polygons, selected);
+        }
+        report("Views", System.nanoTime() - viewStart, allocatedBytes() - viewAllocated);
+
+        // The same again without drawing, to separate the cost of reading the vertices from
+        // the cost of Java2D's own rendering.
+        copyAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            repaintWithCopies(null, storedPoints, selected.size());
+        }
+        long copyOnly = allocatedBytes() - copyAllocated;
+
+        viewAllocated = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            repaintWithViews(null, polygons, selected);
+        }
+        long viewOnly = allocatedBytes() - viewAllocated;
+        System.out.println(String.format("Without drawing: copying %d bytes/repaint, "
+                + "views %d bytes/repaint", copyOnly / RUNS, viewOnly / RUNS));
+
+        graphics.dispose();
+    }
+
+    private static void report(String name, long elapsedNanos, long allocated) {
+        System.out.println(String.format("%-8s %8.3f ms/repaint %10d bytes allocated/repaint",
+                name, elapsedNanos / 1e6 / RUNS, allocated / RUNS));
+    }
+
+    /**
+     * Returns the number of bytes allocated by this thread so far, or 0 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Draws the labels and finds the selected vertex closest to a point as the image panel
+     * and image controller now do.
+     */
+    private static int repaintWithViews(Graphics2D graphics, List<Polygon> polygons,
+            List<Polygon> selected) {
+        if (graphics != null) {
+            graphics.setStroke(new BasicStroke(2.0f));
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            for (Polygon polygon : polygons) {
+                ImagePanelView.drawPolygon(polygon, graphics, Color.BLUE, true);
+            }
+        }
+
+        int closest = -1;
+        long smallestDistance = Long.MAX_VALUE;
+        for (Polygon polygon : selected) {
+            int index = polygon.closestVertex(400, 300);
+            long dx = polygon.getX(index) - 400;
+            long dy = polygon.getY(index) - 300;
+            if (dx * dx + dy * dy < smallestDistance) {
+                smallestDistance = dx * dx + dy * dy;
+                closest = index;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Draws the labels and finds the selected vertex closest to a point as the original code
+     * did.
+     */
+    private static Point repaintWithCopies(Graphics2D graphics, List<List<Point>> storedPoints,
+            int selectedCount) {
+        // ImageController.getCompletedPolygonsPoints() copied Polygon.getPoints(), which was
+        // itself a copy.
+        List<List<Point>> completedPoints = new ArrayList<List<Point>>(storedPoints.size());
+        for (List<Point> points : storedPoints) {
+            completedPoints.add(new ArrayList<Point>(new ArrayList<Point>(points)));
+        }
+
+        if (graphics != null) {
+            for (List<Point> points : completedPoints) {
+                drawPolygon(points, graphics, Color.BLUE);
+                drawLine(points.get(0), points.get(points.size() - 1), graphics, Color.BLUE);
+            }
+        }
+
+        // ImageController.selectClosestPoint() went through every label's points, and looked
+        // up the selected labels for each vertex.
+        Point target = new Point(400, 300);
+        Point closestPoint = null;
+        double smallestDistance = -1;
+        for (int i = 0; i < storedPoints.size(); i++) {
+            for (Point point : new ArrayList<Point>(storedPoints.get(i))) {
+                double distanceToTarget = target.distanceFrom(point);
+                if (distanceToTarget < smallestDistance || smallestDistance < 0) {
+                    List<List<Point>> selected = new ArrayList<List<Point>>(selectedCount);
+                    for (int j = 0; j < selectedCount; j++) {
+                        selected.add(storedPoints.get(j));
+                    }
+                    if (selected.contains(storedPoints.get(i))) {
+                        smallestDistance = distanceToTarget;
+                        closestPoint = point;
+                    }
+                }
+            }
+        }
+        return closestPoint;
+    }
+
+    private static void drawPolygon(List<Point> points, Graphics2D graphics2d, Color colour) {
+        Color originalColour = graphics2d.getColor();
+        graphics2d.setColor(colour);
+        for (int i = 0; i < points.size(); i++) {
+            Point currentVertex = points.get(i);
+            if (i != 0) {
+                Point prevVertex = points.get(i - 1);
+                drawLine(prevVertex, currentVertex, graphics2d, colour);
+            }
+            graphics2d.fillOval(currentVertex.getX() - 5, currentVertex.getY() - 5, 10, 10);
+        }
+        graphics2d.setColor(originalColour);
+    }
+
+    private static void drawLine(Point p1, Point p2, Graphics2D graphics2d, Color colour) {
+        graphics2d.setStroke(new BasicStroke(2.0f));
+        graphics2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+
+        Color originalColour = graphics2d.getColor();
+        graphics2d.setColor(colour);
+        graphics2d.drawLine(p1.getX(), p1.getY(), p2.getX(), p2.getY());
+        graphics2d.setColor(originalColour);
+    }
+
+    /**
+     * Creates star shaped polygons spread over the image.
+     */
+    private static List<Polygon> createPolygons() {
+        List<Polygon> polygons = new ArrayList<Polygon>(LABELS);
+        for (int i = 0; i < LABELS; i++) {
+            int centreX = 40 + (i % 20) * 36;
+            int centreY = 40 + (i / 20) * 52;
+            List<Point> points = new ArrayList<Point>(VERTICES_PER_LABEL);
+            for (int j = 0; j < VERTICES_PER_LABEL; j++) {
+                double angle = 2 * Math.PI * j / VERTICES_PER_LABEL;
+                int radius = (j % 2 == 0) ? 30 : 12;
+                points.add(new Point(centreX + (int) (radius * Math.cos(angle)),
+                        centreY + (int) (radius * Math.sin(angle))));
+            }
+            polygons.add(new Polygon("label" + i, points));
+        }
+        return polygons;
+    }
+}
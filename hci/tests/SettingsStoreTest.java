@@ -0,0 +1,71 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.SettingsStore;
+
+/**
+ * Tests for the {@link SettingsStore} class.
+ */
+public class SettingsStoreTest {
+    private File tempDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDirectory = File.createTempFile("SettingsStoreTest", "");
+        tempDirectory.delete();
+        tempDirectory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempDirectory.listFiles()) {
+            file.delete();
+        }
+        tempDirectory.delete();
+    }
+
+    @Test
+    public void testSettingsAreKeptAfterFlush() {
+        SettingsStore settings = new SettingsStore(tempDirectory.getPath());
+        settings.setLastCollection("first");
+        settings.setLastImage("first", "image");
+        settings.setLastImage("second", "other image");
+        settings.flush();
+
+        SettingsStore reloaded = new SettingsStore(tempDirectory.getPath());
+        assertEquals("first", reloaded.getLastCollection());
+        assertEquals("image", reloaded.getLastImage("first"));
+        assertEquals("other image", reloaded.getLastImage("second"));
+        assertFalse(new File(tempDirectory, ".settings.tmp").exists());
+    }
+
+    @Test
+    public void testOldSettingsFileIsRead() throws IOException {
+        FileWriter out = new FileWriter(new File(tempDirectory, ".settings"));
+        out.write("collection\nimage\n");
+        out.close();
+
+        SettingsStore settings = new SettingsStore(tempDirectory.getPath());
+        assertEquals("collection", settings.getLastCollection());
+        assertEquals("image", settings.getLastImage("collection"));
+    }
+
+    @Test
+    public void testEmptySettingsFileHasNoCollection() throws IOException {
+        new File(tempDirectory, ".settings").createNewFile();
+
+        SettingsStore settings = new SettingsStore(tempDirectory.getPath());
+        assertNull(settings.getLastCollection());
+    }
+}
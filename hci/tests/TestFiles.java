@@ -0,0 +1,41 @@
+package tests;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Temporary files and directories shared by the tests and benchmarks.
+ */
+public final class TestFiles {
+    private TestFiles() {
+        // Not instantiable.
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     * 
+     * @param prefix the start of the directory's name, usually the name of the test
+     * 
+     * @throws IOException if the directory cannot be created
+     */
+    public static File createTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create temporary directory: " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Recursively deletes a file or directory.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,160 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.utils.DisplayImageReader;
+import src.utils.ImageCache;
+import src.utils.TiledImageReader;
+
+/**
+ * Tests for the {@link TiledImageReader} class.
+ */
+public class TiledImageReaderTest {
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 1500;
+
+    private File tiledFile;
+    private File untiledFile;
+
+    @Before
+    public void setUp() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, expectedPixel(x, y));
+            }
+        }
+
+        tiledFile = File.createTempFile("TiledImageReaderTest", ".tif");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        ImageOutputStream out = ImageIO.createImageOutputStream(tiledFile);
+        try {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(256, 256, 0, 0);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+
+        untiledFile = File.createTempFile("TiledImageReaderTest", ".png");
+        ImageIO.write(image, "png", untiledFile);
+    }
+
+    @After
+    public void tearDown() {
+        tiledFile.delete();
+        untiledFile.delete();
+    }
+
+    @Test
+    public void testRegionsMatchImage() throws IOException {
+        TiledImageReader reader = new TiledImageReader(tiledFile);
+        try {
+            assertTrue(reader.isTiled());
+            assertEquals(WIDTH, reader.getWidth());
+
+            // A region across several tiles at full resolution.
+            BufferedImage region = reader.readRegion(new Rectangle(500, 700, 600, 300), 0);
+            assertEquals(600, region.getWidth());
+            assertEquals(300, region.getHeight());
+            assertRegionMatches(region, 500, 700, 1);
+
+            // The whole image at a quarter of the size.
+            region = reader.readRegion(new Rectangle(0, 0, WIDTH, HEIGHT), 2);
+            assertEquals(500, region.getWidth());
+            assertEquals(375, region.getHeight());
+            assertRegionMatches(region, 0, 0, 4);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testUntiledImageCanStillBeReadInRegions() throws IOException {
+        TiledImageReader reader = new TiledImageReader(untiledFile);
+        try {
+            assertFalse(reader.isTiled());
+            BufferedImage region = reader.readRegion(new Rectangle(1000, 1000, 700, 400), 1);
+            assertEquals(350, region.getWidth());
+            assertRegionMatches(region, 1000, 1000, 2);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testTiledImageIsReadAtDisplaySize() throws IOException {
+        ImageCache.getSharedCache().clear();
+        BufferedImage displayImage = DisplayImageReader.read(tiledFile);
+        assertEquals(800, displayImage.getWidth());
+        assertEquals(600, displayImage.getHeight());
+
+        // Only the display image is worth keeping, not the tiles it was made from.
+        assertEquals(0, ImageCache.getSharedCache().getUsedBytes());
+    }
+
+    @Test
+    public void testUntiledImageIsReadAtDisplaySize() throws IOException {
+        BufferedImage displayImage = DisplayImageReader.read(untiledFile);
+        assertEquals(800, displayImage.getWidth());
+        assertEquals(600, displayImage.getHeight());
+        assertEquals(expectedPixel(0, 0), displayImage.getRGB(0, 0) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testRemovingImageFromCacheRemovesItsTiles() throws IOException {
+        ImageCache cache = ImageCache.getSharedCache();
+        cache.clear();
+
+        TiledImageReader reader = new TiledImageReader(tiledFile);
+        try {
+            reader.readRegion(new Rectangle(0, 0, 1000, 1000), 0);
+        } finally {
+            reader.close();
+        }
+        assertTrue(cache.getUsedBytes() > 0);
+
+        cache.remove(tiledFile);
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testLevelKeepsEnoughDetail() {
+        assertEquals(0, TiledImageReader.getLevel(1000, 1000, 800, 600));
+        assertEquals(2, TiledImageReader.getLevel(4000, 3000, 800, 600));
+        assertEquals(5, TiledImageReader.getLevel(30000, 30000, 800, 600));
+    }
+
+    private static void assertRegionMatches(BufferedImage region, int left, int top, int scale) {
+        for (int y = 0; y < region.getHeight(); y += 7) {
+            for (int x = 0; x < region.getWidth(); x += 7) {
+                assertEquals(expectedPixel(left + x * scale, top + y * scale),
+                        region.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    private static int expectedPixel(int x, int y) {
+        return ((x % 251) << 16) | ((y % 241) << 8) | ((x / 251 + y / 241) % 256);
+    }
+}